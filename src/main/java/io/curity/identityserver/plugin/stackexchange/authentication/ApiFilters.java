@@ -0,0 +1,201 @@
+/*
+ *  Copyright 2026 Curity AB
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package io.curity.identityserver.plugin.stackexchange.authentication;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import se.curity.identityserver.sdk.Nullable;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Provides a StackExchange API filter that makes responses include only the fields that the authenticator reads.
+ *
+ * <p>Without a filter, the API returns its default set of fields, most of which are never used. A filter is created
+ * with /filters/create in the background when the authenticator is configured, and kept for as long as the
+ * configuration is. A configured filter takes precedence over this.
+ *
+ * <p>Logins only ever read the filter that is already there, so they never wait for it to be created. Until it is,
+ * and if it can't be created, requests are made without one, and creating it is retried in the background after a
+ * while.
+ */
+final class ApiFilters
+{
+    static final String PATH = "/2.2/filters/create";
+
+    private static final Logger _logger = LoggerFactory.getLogger(ApiFilters.class);
+    private static final long RETRY_INTERVAL_NANOS = TimeUnit.MINUTES.toNanos(5);
+    private static final List<String> WRAPPER_FIELDS = List.of(".backoff", ".error_id", ".error_message",
+            ".error_name", ".has_more", ".items", ".quota_max", ".quota_remaining");
+    private static final Set<String> FILTER_FIELDS = Set.of("filter");
+
+    private final UpstreamTransport _upstreamTransport;
+    private final QuotaGovernor _quotaGovernor;
+    private final String _appKey;
+    private final Executor _executor;
+
+    @Nullable
+    private final String _configuredFilter;
+
+    private final String _include;
+    @Nullable
+    private volatile String _filter;
+    private final AtomicLong _lastAttemptAt = new AtomicLong(System.nanoTime() - RETRY_INTERVAL_NANOS);
+
+    /**
+     * @param fieldsByType the fields to include, keyed on the API type they belong to, e.g., {@code user}
+     * @param configuredFilter a filter to use as-is, or null to create one
+     */
+    ApiFilters(UpstreamTransport upstreamTransport, QuotaGovernor quotaGovernor, String appKey, Executor executor,
+               Map<String, Set<String>> fieldsByType, @Nullable String configuredFilter)
+    {
+        _upstreamTransport = upstreamTransport;
+        _quotaGovernor = quotaGovernor;
+        _appKey = appKey;
+        _executor = executor;
+        _include = toInclude(fieldsByType);
+        _configuredFilter = configuredFilter;
+    }
+
+    /**
+     * Create the filter in the background, so that it's ready by the time the first user logs in.
+     */
+    void prefetch()
+    {
+        if (_configuredFilter == null)
+        {
+            getFilter();
+        }
+    }
+
+    /**
+     * Get the filter without waiting for it. If there is none yet, creating it is started in the background, unless
+     * that failed recently or is already in progress.
+     *
+     * @return the filter to use, or null if none is available yet
+     */
+    @Nullable
+    String getFilter()
+    {
+        if (_configuredFilter != null)
+        {
+            return _configuredFilter;
+        }
+
+        @Nullable String filter = _filter;
+        long lastAttemptAt = _lastAttemptAt.get();
+
+        if (filter == null && System.nanoTime() - lastAttemptAt >= RETRY_INTERVAL_NANOS
+                && _lastAttemptAt.compareAndSet(lastAttemptAt, System.nanoTime()))
+        {
+            try
+            {
+                _executor.execute(() -> _filter = createFilter(_include));
+            }
+            catch (RejectedExecutionException e)
+            {
+                _logger.debug("Not creating an API filter, since the authenticator is shutting down");
+            }
+        }
+
+        return filter;
+    }
+
+    @Nullable
+    private String createFilter(String include)
+    {
+        Map<String, Collection<String>> parameters = new LinkedHashMap<>(4);
+
+        parameters.put("key", Collections.singleton(_appKey));
+        parameters.put("include", Collections.singleton(include));
+        parameters.put("base", Collections.singleton("none"));
+        parameters.put("unsafe", Collections.singleton("false"));
+
+        try
+        {
+            _quotaGovernor.acquire(PATH, false);
+
+            UpstreamResponse response = _upstreamTransport.get(UpstreamHost.API, PATH, parameters);
+            ApiResponse result;
+
+            try (InputStream body = response.body())
+            {
+                result = ApiResponseParser.parseFirstItem(body, FILTER_FIELDS);
+            }
+
+            _quotaGovernor.observe(PATH, result);
+
+            @Nullable String filter = result.getFirstItem().get("filter");
+
+            if (response.statusCode() != 200 || filter == null)
+            {
+                _logger.warn("Could not create an API filter. Status = {}, {}: {}", response.statusCode(),
+                        result.getErrorName(), result.getErrorMessage());
+
+                return null;
+            }
+
+            _logger.debug("Created API filter {} for {}", filter, include);
+
+            return filter;
+        }
+        catch (UpstreamUnavailableException e)
+        {
+            _logger.info("Not creating an API filter now: {}", e.getMessage());
+        }
+        catch (IOException | RuntimeException e)
+        {
+            _logger.warn("Could not create an API filter", e);
+        }
+
+        return null;
+    }
+
+    /**
+     * Build the {@code include} parameter of a filter: the fields of the wrapper and those of each type, in a stable
+     * order so that equal sets of fields give equal strings.
+     */
+    private static String toInclude(Map<String, Set<String>> fieldsByType)
+    {
+        Set<String> include = new TreeSet<>(WRAPPER_FIELDS);
+
+        fieldsByType.forEach((type, fields) ->
+        {
+            for (String field : fields)
+            {
+                // A filter can only include a nested object as a whole, e.g., badge_counts for badge_counts.gold
+                int dot = field.indexOf('.');
+
+                include.add(type + "." + (dot < 0 ? field : field.substring(0, dot)));
+            }
+        });
+
+        return String.join(";", include);
+    }
+}
@@ -0,0 +1,118 @@
+/*
+ *  Copyright 2026 Curity AB
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package io.curity.identityserver.plugin.stackexchange.authentication;
+
+import se.curity.identityserver.sdk.Nullable;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * The parts of a StackExchange API response that the authenticator uses: the requested fields of the items and the
+ * paging, throttling and error information of the common wrapper object.
+ */
+final class ApiResponse
+{
+    private final List<Map<String, String>> _items;
+    private final boolean _hasMore;
+
+    @Nullable
+    private final Integer _backoff;
+
+    @Nullable
+    private final Integer _quotaRemaining;
+
+    @Nullable
+    private final Integer _quotaMax;
+
+    @Nullable
+    private final String _errorName;
+
+    @Nullable
+    private final String _errorMessage;
+
+    ApiResponse(List<Map<String, String>> items, boolean hasMore, @Nullable Integer backoff,
+                @Nullable Integer quotaRemaining, @Nullable Integer quotaMax, @Nullable String errorName,
+                @Nullable String errorMessage)
+    {
+        _items = items;
+        _hasMore = hasMore;
+        _backoff = backoff;
+        _quotaRemaining = quotaRemaining;
+        _quotaMax = quotaMax;
+        _errorName = errorName;
+        _errorMessage = errorMessage;
+    }
+
+    /**
+     * @return the requested fields of each item that was read
+     */
+    List<Map<String, String>> getItems()
+    {
+        return _items;
+    }
+
+    /**
+     * @return the requested fields of the first item, or an empty map if there were no items
+     */
+    Map<String, String> getFirstItem()
+    {
+        return _items.isEmpty() ? Collections.emptyMap() : _items.get(0);
+    }
+
+    /**
+     * @return whether there are more items on the next page
+     */
+    boolean hasMore()
+    {
+        return _hasMore;
+    }
+
+    /**
+     * @return the number of seconds to wait before calling the same method again, if StackExchange asked for that
+     */
+    @Nullable
+    Integer getBackoff()
+    {
+        return _backoff;
+    }
+
+    @Nullable
+    Integer getQuotaRemaining()
+    {
+        return _quotaRemaining;
+    }
+
+    @Nullable
+    Integer getQuotaMax()
+    {
+        return _quotaMax;
+    }
+
+    @Nullable
+    String getErrorName()
+    {
+        return _errorName;
+    }
+
+    @Nullable
+    String getErrorMessage()
+    {
+        return _errorMessage;
+    }
+}
@@ -0,0 +1,244 @@
+/*
+ *  Copyright 2026 Curity AB
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package io.curity.identityserver.plugin.stackexchange.authentication;
+
+import se.curity.identityserver.sdk.Nullable;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Picks the fields of interest out of the {@code items} of a StackExchange API response, along with the paging,
+ * throttling and error fields of the wrapper object.
+ *
+ * <p>All other fields, items beyond the requested number and any nested objects (e.g., {@code badge_counts}) are
+ * skipped as the body is streamed, so they are never materialized.
+ */
+final class ApiResponseParser
+{
+    private ApiResponseParser()
+    {
+    }
+
+    /**
+     * Parse a response of which only the first item is of interest, e.g., one from the /me endpoint.
+     *
+     * @param body the (possibly compressed) response body
+     * @param fields the names of the scalar fields of the item that should be returned
+     */
+    static ApiResponse parseFirstItem(InputStream body, Set<String> fields) throws IOException
+    {
+        return parse(body, fields, 1);
+    }
+
+    /**
+     * Parse a response that is a plain JSON object rather than an API wrapper, e.g., one from the token endpoint.
+     *
+     * @param body the (possibly compressed) response body
+     * @param fields the names of the scalar fields that should be returned
+     * @return the fields that were present and not null
+     */
+    static Map<String, String> parseObject(InputStream body, Set<String> fields) throws IOException
+    {
+        try (JsonStreamReader reader = new JsonStreamReader(ResponseBodyDecoder.openReader(body)))
+        {
+            Map<String, String> result = new HashMap<>(fields.size() * 2);
+
+            readFields(reader, fields, "", result);
+
+            return result;
+        }
+    }
+
+    /**
+     * @param body the (possibly compressed) response body
+     * @param fields the names of the scalar fields of each item that should be returned
+     * @param maxItems the maximum number of items to read
+     * @return the response, whose items contain the fields that were present and not null
+     */
+    static ApiResponse parse(InputStream body, Set<String> fields, int maxItems) throws IOException
+    {
+        try (JsonStreamReader reader = new JsonStreamReader(ResponseBodyDecoder.openReader(body)))
+        {
+            List<Map<String, String>> items = Collections.emptyList();
+            boolean hasMore = false;
+            @Nullable Integer backoff = null, quotaRemaining = null, quotaMax = null;
+            @Nullable String errorName = null, errorMessage = null;
+
+            reader.beginObject();
+
+            while (reader.hasNext())
+            {
+                switch (reader.nextName())
+                {
+                    case "items":
+                        items = readItems(reader, fields, maxItems);
+                        break;
+                    case "has_more":
+                        hasMore = "true".equals(nextScalar(reader));
+                        break;
+                    case "backoff":
+                        backoff = parseInteger(nextScalar(reader));
+                        break;
+                    case "quota_remaining":
+                        quotaRemaining = parseInteger(nextScalar(reader));
+                        break;
+                    case "quota_max":
+                        quotaMax = parseInteger(nextScalar(reader));
+                        break;
+                    case "error_name":
+                        errorName = nextScalar(reader);
+                        break;
+                    case "error_message":
+                        errorMessage = nextScalar(reader);
+                        break;
+                    default:
+                        reader.skipValue();
+                }
+            }
+
+            reader.endObject();
+
+            return new ApiResponse(items, hasMore, backoff, quotaRemaining, quotaMax, errorName, errorMessage);
+        }
+    }
+
+    private static List<Map<String, String>> readItems(JsonStreamReader reader, Set<String> fields, int maxItems)
+            throws IOException
+    {
+        if (reader.peek() != JsonStreamReader.Token.BEGIN_ARRAY)
+        {
+            reader.skipValue();
+
+            return Collections.emptyList();
+        }
+
+        List<Map<String, String>> result = maxItems == 1 ? new ArrayList<>(1) : new ArrayList<>();
+
+        reader.beginArray();
+
+        while (reader.hasNext())
+        {
+            if (result.size() < maxItems && reader.peek() == JsonStreamReader.Token.BEGIN_OBJECT)
+            {
+                Map<String, String> item = new HashMap<>(fields.size() * 2);
+
+                readFields(reader, fields, "", item);
+                result.add(item);
+            }
+            else
+            {
+                reader.skipValue();
+            }
+        }
+
+        reader.endArray();
+
+        return result;
+    }
+
+    /**
+     * Read the requested fields of an object. Fields of nested objects are requested by their dotted path, e.g.,
+     * {@code badge_counts.gold}.
+     */
+    private static void readFields(JsonStreamReader reader, Set<String> fields, String prefix,
+                                   Map<String, String> result) throws IOException
+    {
+        reader.beginObject();
+
+        while (reader.hasNext())
+        {
+            String name = prefix.isEmpty() ? reader.nextName() : prefix + reader.nextName();
+            JsonStreamReader.Token token = reader.peek();
+
+            if (token == JsonStreamReader.Token.BEGIN_OBJECT && isRequestedObject(fields, name))
+            {
+                readFields(reader, fields, name + ".", result);
+            }
+            else if (isScalar(token) && fields.contains(name))
+            {
+                @Nullable String value = reader.nextString();
+
+                if (value != null)
+                {
+                    result.put(name, value);
+                }
+            }
+            else
+            {
+                reader.skipValue();
+            }
+        }
+
+        reader.endObject();
+    }
+
+    private static boolean isRequestedObject(Set<String> fields, String name)
+    {
+        for (String field : fields)
+        {
+            if (field.length() > name.length() && field.charAt(name.length()) == '.' && field.startsWith(name))
+            {
+                return true;
+            }
+        }
+
+        return false;
+    }
+
+    @Nullable
+    private static String nextScalar(JsonStreamReader reader) throws IOException
+    {
+        if (isScalar(reader.peek()))
+        {
+            return reader.nextString();
+        }
+
+        reader.skipValue();
+
+        return null;
+    }
+
+    private static boolean isScalar(JsonStreamReader.Token token)
+    {
+        return token != JsonStreamReader.Token.BEGIN_OBJECT && token != JsonStreamReader.Token.BEGIN_ARRAY;
+    }
+
+    @Nullable
+    private static Integer parseInteger(@Nullable String value)
+    {
+        if (value == null)
+        {
+            return null;
+        }
+
+        try
+        {
+            return Integer.valueOf(value);
+        }
+        catch (NumberFormatException e)
+        {
+            return null;
+        }
+    }
+}
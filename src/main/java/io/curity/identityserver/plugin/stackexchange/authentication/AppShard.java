@@ -0,0 +1,96 @@
+/*
+ *  Copyright 2026 Curity AB
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package io.curity.identityserver.plugin.stackexchange.authentication;
+
+import java.net.URLEncoder;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+/**
+ * One StackExchange app registration that logins are spread over, with the quota of its app key.
+ *
+ * <p>An access token can only be used with the key of the app that it was issued to, so a login sticks to the shard
+ * that it was started with, from the authorization request to the last API call.
+ */
+final class AppShard
+{
+    // Bounds the length of the round-robin order, which has one entry per unit of weight
+    static final int MAX_WEIGHT = 100;
+
+    private final int _index;
+    private final String _clientId;
+    private final String _encodedClientId;
+    private final String _clientSecret;
+    private final String _appKey;
+    private final int _weight;
+    private final QuotaGovernor _quotaGovernor;
+
+    AppShard(int index, String clientId, String clientSecret, String appKey, int weight, QuotaGovernor quotaGovernor)
+    {
+        _index = index;
+        _clientId = clientId;
+        _encodedClientId = URLEncoder.encode(clientId, UTF_8);
+        _clientSecret = clientSecret;
+        _appKey = appKey;
+        _weight = Math.min(MAX_WEIGHT, Math.max(1, weight));
+        _quotaGovernor = quotaGovernor;
+    }
+
+    /**
+     * @return the position of the shard in the configuration, which is what is kept in the state
+     */
+    int getIndex()
+    {
+        return _index;
+    }
+
+    String getClientId()
+    {
+        return _clientId;
+    }
+
+    /**
+     * @return the client ID, URL-encoded for the authorization request
+     */
+    String getEncodedClientId()
+    {
+        return _encodedClientId;
+    }
+
+    String getClientSecret()
+    {
+        return _clientSecret;
+    }
+
+    String getAppKey()
+    {
+        return _appKey;
+    }
+
+    int getWeight()
+    {
+        return _weight;
+    }
+
+    /**
+     * @return the governor of the quota of this shard's app key
+     */
+    QuotaGovernor getQuotaGovernor()
+    {
+        return _quotaGovernor;
+    }
+}
@@ -0,0 +1,167 @@
+/*
+ *  Copyright 2026 Curity AB
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package io.curity.identityserver.plugin.stackexchange.authentication;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import se.curity.identityserver.sdk.Nullable;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Spreads logins over the configured app registrations, so that they don't all compete for the daily quota of one
+ * app key.
+ *
+ * <p>Shards are picked by weighted round-robin. The order is computed once, with the smooth weighted round-robin
+ * algorithm so that the shards are interleaved rather than picked in runs, and then walked with an atomic counter,
+ * so that picking a shard takes no lock. A shard whose key is out of quota, or whose /me calls are backed off for
+ * longer than a login may wait, is skipped in favour of the next one in the order.
+ *
+ * <p>The index of the shard is kept in the state, as a prefix followed by {@code ~}, which is neither part of the
+ * base64url alphabet of the state nor escaped in URLs. With a single shard, the state is left as is.
+ */
+final class AppShards
+{
+    private static final Logger _logger = LoggerFactory.getLogger(AppShards.class);
+    private static final char TAG_SEPARATOR = '~';
+
+    private final AppShard[] _shards;
+    private final AppShard[] _order;
+    private final AtomicInteger _next = new AtomicInteger();
+
+    /**
+     * @param shards the shards, where the first one is the primary shard and each one's index is its position
+     */
+    AppShards(List<AppShard> shards)
+    {
+        _shards = shards.toArray(new AppShard[0]);
+        _order = createOrder(_shards);
+    }
+
+    /**
+     * @return the shard of the main app registration, which is used for calls that aren't made on behalf of a user
+     */
+    AppShard getPrimary()
+    {
+        return _shards[0];
+    }
+
+    /**
+     * Pick the shard for a new login.
+     */
+    AppShard next()
+    {
+        if (_shards.length == 1)
+        {
+            return _shards[0];
+        }
+
+        int start = Math.floorMod(_next.getAndIncrement(), _order.length);
+
+        for (int i = 0; i < _order.length; i++)
+        {
+            AppShard shard = _order[(start + i) % _order.length];
+
+            if (shard.getQuotaGovernor().isAvailable(CallbackRequestHandler.USER_INFO_PATH))
+            {
+                if (i > 0)
+                {
+                    _logger.debug("Skipped app registrations that are throttled; using {}", shard.getClientId());
+                }
+
+                return shard;
+            }
+        }
+
+        // All are throttled, so stick to the round-robin and let the login fail fast on whichever it gets
+        return _order[start];
+    }
+
+    /**
+     * @return the state with the index of the shard that the login uses
+     */
+    String tag(String state, AppShard shard)
+    {
+        return _shards.length == 1 ? state : shard.getIndex() + String.valueOf(TAG_SEPARATOR) + state;
+    }
+
+    /**
+     * @return the shard whose index is in the state, or the primary shard if it has none or an unknown one
+     */
+    AppShard fromState(@Nullable String state)
+    {
+        int separator = state == null ? -1 : state.indexOf(TAG_SEPARATOR);
+
+        if (separator <= 0 || separator > 3)
+        {
+            return _shards[0];
+        }
+
+        try
+        {
+            int index = Integer.parseInt(state, 0, separator, 10);
+
+            return index >= 0 && index < _shards.length ? _shards[index] : _shards[0];
+        }
+        catch (NumberFormatException e)
+        {
+            return _shards[0];
+        }
+    }
+
+    /**
+     * @return the state without the index of the shard
+     */
+    static String untag(String state)
+    {
+        return state.substring(state.indexOf(TAG_SEPARATOR) + 1);
+    }
+
+    private static AppShard[] createOrder(AppShard[] shards)
+    {
+        List<AppShard> order = new ArrayList<>();
+        int[] current = new int[shards.length];
+        int total = 0;
+
+        for (AppShard shard : shards)
+        {
+            total += shard.getWeight();
+        }
+
+        for (int n = 0; n < total; n++)
+        {
+            int best = 0;
+
+            for (int i = 0; i < shards.length; i++)
+            {
+                current[i] += shards[i].getWeight();
+
+                if (current[i] > current[best])
+                {
+                    best = i;
+                }
+            }
+
+            current[best] -= total;
+            order.add(shards[best]);
+        }
+
+        return order.toArray(new AppShard[0]);
+    }
+}
@@ -0,0 +1,191 @@
+/*
+ *  Copyright 2026 Curity AB
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package io.curity.identityserver.plugin.stackexchange.authentication;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import se.curity.identityserver.sdk.Nullable;
+import se.curity.identityserver.sdk.attribute.Attribute;
+import se.curity.identityserver.sdk.attribute.SubjectAttributes;
+import se.curity.identityserver.sdk.attribute.scim.v2.Name;
+import se.curity.identityserver.sdk.attribute.scim.v2.multivalued.Photo;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Maps the fields of a StackExchange user to subject attributes.
+ *
+ * <p>Fields of nested objects are given by their dotted path, e.g., {@code badge_counts.gold}. Fields that aren't
+ * mapped by default, such as the reputation and badge counts, are opt-in, e.g., {@code reputation=reputation} or
+ * {@code gold_badges=badge_counts.gold}; configuring any mappings replaces the defaults, so those that are still
+ * wanted must be listed as well.
+ *
+ * <p>A mapping is written as {@code attribute=field}, optionally followed by {@code :name} or {@code :photo} to wrap
+ * the value in a SCIM name or photo, e.g., {@code photo=profile_image:photo}. The mappings are compiled once into
+ * parallel arrays, so that mapping a user is a single pass that allocates nothing but the attributes themselves.
+ * Fields that the user doesn't have are skipped.
+ */
+final class AttributeMapper
+{
+    static final List<String> DEFAULT_MAPPINGS = List.of(
+            "profileUrl=link",
+            "subject=account_id",
+            "country=location",
+            "displayName=display_name",
+            "name=display_name:name",
+            "photo=profile_image:photo",
+            "stack_exchange_id=user_id",
+            "website=website_url");
+
+    private static final Logger _logger = LoggerFactory.getLogger(AttributeMapper.class);
+    private static final String SUBJECT_ATTRIBUTE = "subject";
+    private static final String DEFAULT_SUBJECT_MAPPING = "subject=account_id";
+    private static final String USER_ID_FIELD = "user_id";
+
+    private enum ValueType
+    {
+        STRING, NAME, PHOTO
+    }
+
+    private final String[] _attributeNames;
+    private final String[] _fields;
+    private final ValueType[] _types;
+    private final Set<String> _fieldSet;
+
+    /**
+     * @param mappings the configured mappings, or an empty list to use the default ones
+     */
+    AttributeMapper(List<String> mappings)
+    {
+        List<String> effectiveMappings = new ArrayList<>(mappings.isEmpty() ? DEFAULT_MAPPINGS : mappings);
+
+        if (effectiveMappings.stream().noneMatch(mapping -> mapping.trim().startsWith(SUBJECT_ATTRIBUTE + "=")))
+        {
+            _logger.warn("No mapping for the subject attribute is configured. Using {}", DEFAULT_SUBJECT_MAPPING);
+
+            effectiveMappings.add(DEFAULT_SUBJECT_MAPPING);
+        }
+
+        List<String> attributeNames = new ArrayList<>(effectiveMappings.size());
+        List<String> fields = new ArrayList<>(effectiveMappings.size());
+        List<ValueType> types = new ArrayList<>(effectiveMappings.size());
+
+        for (String mapping : effectiveMappings)
+        {
+            int equals = mapping.indexOf('=');
+
+            if (equals <= 0 || equals == mapping.length() - 1)
+            {
+                _logger.warn("Ignoring invalid attribute mapping '{}'. It should be attribute=field[:name|:photo]",
+                        mapping);
+                continue;
+            }
+
+            String field = mapping.substring(equals + 1).trim();
+            ValueType type = ValueType.STRING;
+            int colon = field.lastIndexOf(':');
+
+            if (colon > 0)
+            {
+                @Nullable ValueType parsedType = parseType(field.substring(colon + 1).trim());
+
+                if (parsedType == null)
+                {
+                    _logger.warn("Ignoring attribute mapping '{}' with unknown type", mapping);
+                    continue;
+                }
+
+                type = parsedType;
+                field = field.substring(0, colon).trim();
+            }
+
+            attributeNames.add(mapping.substring(0, equals).trim());
+            fields.add(field);
+            types.add(type);
+        }
+
+        _attributeNames = attributeNames.toArray(new String[0]);
+        _fields = fields.toArray(new String[0]);
+        _types = types.toArray(new ValueType[0]);
+        Set<String> fieldSet = new LinkedHashSet<>(fields);
+
+        // Profiles are cached and synced on the user ID, so it's read even if it isn't mapped
+        fieldSet.add(USER_ID_FIELD);
+
+        _fieldSet = Collections.unmodifiableSet(fieldSet);
+    }
+
+    /**
+     * @return the fields of a user that the mappings read, and the {@code user_id}
+     */
+    Set<String> getFields()
+    {
+        return _fieldSet;
+    }
+
+    SubjectAttributes map(Map<String, String> user, List<Attribute> additionalAttributes)
+    {
+        List<Attribute> attributes = new ArrayList<>(_attributeNames.length + additionalAttributes.size());
+
+        for (int i = 0; i < _attributeNames.length; i++)
+        {
+            @Nullable String value = user.get(_fields[i]);
+
+            if (value == null)
+            {
+                continue;
+            }
+
+            switch (_types[i])
+            {
+                case NAME:
+                    attributes.add(Attribute.of(_attributeNames[i], Name.of(value)));
+                    break;
+                case PHOTO:
+                    attributes.add(Attribute.of(_attributeNames[i], Photo.of(value, false)));
+                    break;
+                default:
+                    attributes.add(Attribute.of(_attributeNames[i], value));
+            }
+        }
+
+        attributes.addAll(additionalAttributes);
+
+        return SubjectAttributes.of(attributes);
+    }
+
+    @Nullable
+    private static ValueType parseType(String type)
+    {
+        switch (type)
+        {
+            case "name":
+                return ValueType.NAME;
+            case "photo":
+                return ValueType.PHOTO;
+            case "string":
+                return ValueType.STRING;
+            default:
+                return null;
+        }
+    }
+}
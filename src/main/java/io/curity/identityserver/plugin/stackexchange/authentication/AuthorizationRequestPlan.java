@@ -0,0 +1,135 @@
+/*
+ *  Copyright 2026 Curity AB
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package io.curity.identityserver.plugin.stackexchange.authentication;
+
+import io.curity.identityserver.plugin.stackexchange.config.StackExchangeAuthenticatorPluginConfig;
+import se.curity.identityserver.sdk.Nullable;
+import se.curity.identityserver.sdk.service.ExceptionFactory;
+import se.curity.identityserver.sdk.service.authentication.AuthenticatorInformationProvider;
+
+import java.net.URI;
+import java.net.URLEncoder;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+/**
+ * The parts of an authorization request that only depend on the configuration, compiled once per configuration.
+ *
+ * <p>The scope is joined and URL-encoded up front. The callback URI and the resulting authorization URL prefix depend
+ * on the URI that the authenticator is served on, so they are computed the first time each such URI is seen and then
+ * reused. This leaves only the client ID of the app shard, which is encoded up front as well, and the state to be
+ * appended on each request.
+ */
+final class AuthorizationRequestPlan
+{
+    static final String AUTHORIZATION_ENDPOINT = "https://stackexchange.com/oauth";
+
+    // The authenticator is normally only reachable on a handful of URIs; this just guards against unbounded growth
+    private static final int MAX_CACHED_URIS = 32;
+
+    private final String _scope;
+    private final String _staticQuery;
+    private final ConcurrentHashMap<URI, Entry> _entries = new ConcurrentHashMap<>();
+
+    AuthorizationRequestPlan(StackExchangeAuthenticatorPluginConfig config)
+    {
+        List<String> scopes = new ArrayList<>(4);
+
+        if (config.isReadInbox())
+        {
+            scopes.add("read_inbox");
+        }
+
+        if (config.isNoExpiry())
+        {
+            scopes.add("no_expiry");
+        }
+
+        if (config.isWriteAccess())
+        {
+            scopes.add("write_access");
+        }
+
+        if (config.isPrivateInfo())
+        {
+            scopes.add("private_info");
+        }
+
+        _scope = String.join(" ", scopes);
+        _staticQuery = "response_type=code" +
+                "&scope=" + encode(_scope);
+    }
+
+    String getScope()
+    {
+        return _scope;
+    }
+
+    String getRedirectUri(AuthenticatorInformationProvider authenticatorInformationProvider,
+                          ExceptionFactory exceptionFactory)
+    {
+        return getEntry(authenticatorInformationProvider, exceptionFactory)._redirectUri;
+    }
+
+    String createAuthorizationUrl(String state, AppShard shard,
+                                  AuthenticatorInformationProvider authenticatorInformationProvider,
+                                  ExceptionFactory exceptionFactory)
+    {
+        return getEntry(authenticatorInformationProvider, exceptionFactory)._authorizationUrlPrefix +
+                shard.getEncodedClientId() + "&state=" + encode(state);
+    }
+
+    private Entry getEntry(AuthenticatorInformationProvider authenticatorInformationProvider,
+                           ExceptionFactory exceptionFactory)
+    {
+        URI authenticationUri = authenticatorInformationProvider.getFullyQualifiedAuthenticationUri();
+        @Nullable Entry entry = _entries.get(authenticationUri);
+
+        if (entry == null)
+        {
+            entry = new Entry(RedirectUriUtil.createRedirectUri(authenticatorInformationProvider, exceptionFactory));
+
+            if (_entries.size() < MAX_CACHED_URIS)
+            {
+                _entries.putIfAbsent(authenticationUri, entry);
+            }
+        }
+
+        return entry;
+    }
+
+    private static String encode(String value)
+    {
+        return URLEncoder.encode(value, UTF_8);
+    }
+
+    private final class Entry
+    {
+        private final String _redirectUri;
+        private final String _authorizationUrlPrefix;
+
+        private Entry(String redirectUri)
+        {
+            _redirectUri = redirectUri;
+            _authorizationUrlPrefix = AUTHORIZATION_ENDPOINT + "?" + _staticQuery + "&redirect_uri=" +
+                    encode(redirectUri) + "&client_id=";
+        }
+    }
+}
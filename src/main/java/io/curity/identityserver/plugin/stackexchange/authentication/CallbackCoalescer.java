@@ -0,0 +1,114 @@
+/*
+ *  Copyright 2026 Curity AB
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package io.curity.identityserver.plugin.stackexchange.authentication;
+
+import se.curity.identityserver.sdk.Nullable;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.function.Supplier;
+
+/**
+ * Makes concurrent duplicates of a callback share the outcome of the first one.
+ *
+ * <p>A browser that submits the callback twice, or is refreshed while it's loading, sends the same authorization code
+ * more than once. Only the first exchange of a code can succeed, so a duplicate that ran on its own would fail and
+ * show an error, even though the login succeeded. Instead, duplicates that arrive while the first one is in flight
+ * wait for it and get the same result, or the same exception. A duplicate waits no longer than its own login budget
+ * allows, and fails with a {@link LoginDeadlineExceededException} like any call that takes too long. An entry is
+ * removed as soon as its callback completes, so a request that arrives after that is handled on its own.
+ */
+final class CallbackCoalescer
+{
+    private final ConcurrentHashMap<String, CompletableFuture<Object>> _inFlight = new ConcurrentHashMap<>();
+
+    /**
+     * @param state the state of the callback
+     * @param code the authorization code of the callback
+     * @param callback handles the callback if no duplicate of it is in flight
+     * @param deadline the deadline of the callback, which bounds how long to wait for a duplicate in flight
+     * @param onCoalesced called when the result of a duplicate is used instead of calling {@code callback}
+     * @return the result of {@code callback} or that of the duplicate in flight
+     * @throws LoginDeadlineExceededException if the duplicate in flight doesn't complete before the deadline
+     */
+    @SuppressWarnings("unchecked")
+    <T> T execute(String state, String code, LoginBudget.Deadline deadline, Supplier<T> callback,
+                  Runnable onCoalesced)
+    {
+        String key = state + ' ' + code;
+        CompletableFuture<Object> future = new CompletableFuture<>();
+        @Nullable CompletableFuture<Object> inFlight = _inFlight.putIfAbsent(key, future);
+
+        if (inFlight != null)
+        {
+            onCoalesced.run();
+
+            long remaining = deadline.remainingNanos();
+
+            if (remaining <= 0)
+            {
+                throw new LoginDeadlineExceededException("No time was left to wait for the duplicate callback");
+            }
+
+            try
+            {
+                return (T) inFlight.get(remaining, TimeUnit.NANOSECONDS);
+            }
+            catch (TimeoutException e)
+            {
+                throw new LoginDeadlineExceededException("The duplicate callback did not complete in time");
+            }
+            catch (InterruptedException e)
+            {
+                Thread.currentThread().interrupt();
+
+                throw new LoginDeadlineExceededException("Waiting for the duplicate callback was interrupted");
+            }
+            catch (ExecutionException e)
+            {
+                throw Exceptions.rethrow(e.getCause());
+            }
+        }
+
+        try
+        {
+            T result = callback.get();
+
+            future.complete(result);
+
+            return result;
+        }
+        catch (RuntimeException | Error e)
+        {
+            future.completeExceptionally(e);
+
+            throw e;
+        }
+        finally
+        {
+            _inFlight.remove(key, future);
+        }
+    }
+
+    int size()
+    {
+        return _inFlight.size();
+    }
+}
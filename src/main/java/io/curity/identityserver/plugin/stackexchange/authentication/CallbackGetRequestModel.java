@@ -26,7 +26,10 @@ class CallbackGetRequestModel
 
     @Nullable
     private final String _errorDescription;
-    
+
+    @Nullable
+    private final String _traceparent;
+
     private final String _code;
     private final String _state;
     private final String _requestUrl;
@@ -38,6 +41,7 @@ class CallbackGetRequestModel
         _error = request.getParameterValueOrError("error");
         _errorDescription = request.getParameterValueOrError("error_description");
         _requestUrl = request.getUrl();
+        _traceparent = request.getHeaders().firstValue("traceparent").orElse(null);
     }
 
     public String getCode()
@@ -64,4 +68,10 @@ class CallbackGetRequestModel
     {
         return _errorDescription;
     }
+
+    @Nullable
+    public String getTraceparent()
+    {
+        return _traceparent;
+    }
 }
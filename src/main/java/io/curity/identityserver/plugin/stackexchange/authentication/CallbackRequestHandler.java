@@ -24,22 +24,17 @@ import se.curity.identityserver.sdk.attribute.Attribute;
 import se.curity.identityserver.sdk.attribute.AuthenticationAttributes;
 import se.curity.identityserver.sdk.attribute.ContextAttributes;
 import se.curity.identityserver.sdk.attribute.SubjectAttributes;
-import se.curity.identityserver.sdk.attribute.scim.v2.Name;
-import se.curity.identityserver.sdk.attribute.scim.v2.multivalued.Photo;
 import se.curity.identityserver.sdk.authentication.AuthenticationResult;
 import se.curity.identityserver.sdk.authentication.AuthenticatorRequestHandler;
 import se.curity.identityserver.sdk.errors.ErrorCode;
-import se.curity.identityserver.sdk.http.HttpResponse;
 import se.curity.identityserver.sdk.service.ExceptionFactory;
-import se.curity.identityserver.sdk.service.HttpClient;
-import se.curity.identityserver.sdk.service.Json;
-import se.curity.identityserver.sdk.service.WebServiceClient;
-import se.curity.identityserver.sdk.service.WebServiceClientFactory;
 import se.curity.identityserver.sdk.service.authentication.AuthenticatorInformationProvider;
 import se.curity.identityserver.sdk.web.Request;
 import se.curity.identityserver.sdk.web.Response;
 
-import java.net.URI;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.HashMap;
@@ -49,28 +44,56 @@ import java.util.List;
 import java.util.Map;
 import java.util.Objects;
 import java.util.Optional;
-
-import static io.curity.identityserver.plugin.stackexchange.authentication.RedirectUriUtil.createRedirectUri;
-import static se.curity.identityserver.sdk.http.HttpRequest.createFormUrlEncodedBodyProcessor;
+import java.util.Set;
 
 public class CallbackRequestHandler
         implements AuthenticatorRequestHandler<CallbackGetRequestModel>
 {
     private static final Logger _logger = LoggerFactory.getLogger(CallbackRequestHandler.class);
+    private static final String TOKEN_PATH = "/oauth/access_token/json";
+    private static final Set<String> TOKEN_FIELDS = Set.of("access_token", "expires");
+    static final String USER_INFO_PATH = "/2.2/me";
 
     private final ExceptionFactory _exceptionFactory;
     private final StackExchangeAuthenticatorPluginConfig _config;
     private final AuthenticatorInformationProvider _authenticatorInformationProvider;
-    private final Json _json;
-    private final WebServiceClientFactory _webServiceClientFactory;
-
-    public CallbackRequestHandler(StackExchangeAuthenticatorPluginConfig config)
+    private final ProfileCache _profileCache;
+    private final UpstreamTransport _upstreamTransport;
+    private final AuthorizationRequestPlan _authorizationRequestPlan;
+    private final StateTokens _stateTokens;
+    private final LoginMetrics _metrics;
+    private final ProfileEnricher _profileEnricher;
+    private final ProfileSync _profileSync;
+    private final ApiFilters _apiFilters;
+    private final AttributeMapper _attributeMapper;
+    private final SiteRegistry _siteRegistry;
+    private final CallbackCoalescer _callbackCoalescer;
+    private final Tracer _tracer;
+    private final LoginBudget _loginBudget;
+    private final RequestHedger _userInfoHedger;
+    private final AppShards _appShards;
+
+    public CallbackRequestHandler(StackExchangeAuthenticatorPluginConfig config,
+                                  StackExchangeAuthenticatorManagedObject managedObject)
     {
         _exceptionFactory = config.getExceptionFactory();
         _config = config;
-        _json = config.getJson();
-        _webServiceClientFactory = config.getWebServiceClientFactory();
         _authenticatorInformationProvider = config.getAuthenticatorInformationProvider();
+        _profileCache = managedObject.getProfileCache();
+        _upstreamTransport = managedObject.getUpstreamTransport();
+        _authorizationRequestPlan = managedObject.getAuthorizationRequestPlan();
+        _stateTokens = managedObject.getStateTokens();
+        _metrics = managedObject.getLoginMetrics();
+        _profileEnricher = managedObject.getProfileEnricher();
+        _profileSync = managedObject.getProfileSync();
+        _apiFilters = managedObject.getApiFilters();
+        _attributeMapper = managedObject.getAttributeMapper();
+        _siteRegistry = managedObject.getSiteRegistry();
+        _callbackCoalescer = managedObject.getCallbackCoalescer();
+        _tracer = managedObject.getTracer();
+        _loginBudget = managedObject.getLoginBudget();
+        _userInfoHedger = managedObject.getUserInfoHedger();
+        _appShards = managedObject.getAppShards();
     }
 
     @Override
@@ -90,45 +113,62 @@ public class CallbackRequestHandler
     public Optional<AuthenticationResult> get(CallbackGetRequestModel requestModel,
                                               Response response)
     {
-        validateState(requestModel.getState());
-        handleError(requestModel);
-
-        Map<String, Object> tokenResponseData = redeemCodeForTokens(requestModel);
-        @Nullable Object accessToken = tokenResponseData.get("access_token");
-        Map<String, String> userInfoResponseData = getUserInfo(accessToken);
-        List<Attribute> subjectAttributes = new LinkedList<>(), contextAttributes = new LinkedList<>();
-        String name = userInfoResponseData.get("display_name");
+        long start = System.nanoTime();
+        LoginBudget.Deadline deadline = _loginBudget.start();
 
-        if (userInfoResponseData.size() == 0)
+        try (Span span = _tracer.startSpan("stackexchange.callback", requestModel.getTraceparent())
+                .setAttribute("stackexchange.site", _siteRegistry.getSite()))
         {
-            // User probably doesn't have an account with the configured site.
-            _logger.debug("No user info for access token. Use probably doesn't have an account at {}",
-                    _config.getSite());
+            validateState(requestModel.getState(), requestModel.getCode());
+            handleError(requestModel);
 
-            throw _exceptionFactory.redirectException(
-                    _authenticatorInformationProvider.getAuthenticationBaseUri().toASCIIString());
+            AppShard shard = _appShards.fromState(requestModel.getState());
+
+            // Each duplicate checks the state against its own session above, so only the exchange is shared
+            try
+            {
+                return Optional.of(_callbackCoalescer.execute(requestModel.getState(), requestModel.getCode(),
+                        deadline, () -> authenticate(requestModel, shard, deadline), _metrics::countCoalescedCallback));
+            }
+            catch (LoginDeadlineExceededException e)
+            {
+                _logger.warn("Login took too long: {}", e.getMessage());
+
+                _metrics.countDeadlineExceeded();
+                span.setError(e.getMessage());
+
+                throw _exceptionFactory.externalServiceException("StackExchange did not respond in time");
+            }
+        }
+        finally
+        {
+            _metrics.recordLatency(LoginPhase.CALLBACK, System.nanoTime() - start);
         }
+    }
 
-        subjectAttributes.add(Attribute.of("profileUrl", userInfoResponseData.get("link")));
-        subjectAttributes.add(Attribute.of("subject", userInfoResponseData.get("account_id")));
-        subjectAttributes.add(Attribute.of("country", userInfoResponseData.get("location")));
-        subjectAttributes.add(Attribute.of("displayName", name));
-        subjectAttributes.add(Attribute.of("name", Name.of(name)));
-        subjectAttributes.add(Attribute.of("photo",
-                Photo.of(userInfoResponseData.get("profile_image"), false)));
-        subjectAttributes.add(Attribute.of("stack_exchange_id", userInfoResponseData.get("user_id")));
-        subjectAttributes.add(Attribute.of("website", userInfoResponseData.get("website_url")));
+    private AuthenticationResult authenticate(CallbackGetRequestModel requestModel, AppShard shard,
+                                              LoginBudget.Deadline deadline)
+    {
+        // The redirect URI depends on the current request, so it's resolved here rather than on a worker thread
+        String redirectUri = _authorizationRequestPlan.getRedirectUri(_authenticatorInformationProvider,
+                _exceptionFactory);
+        Map<String, String> tokenResponseData = deadline.call("token exchange",
+                () -> redeemCodeForTokens(requestModel.getCode(), redirectUri, shard));
+        @Nullable String accessToken = tokenResponseData.get("access_token");
+        SubjectAttributes subjectAttributes = getSubjectAttributes(accessToken, shard, deadline);
+        List<Attribute> contextAttributes = new LinkedList<>();
 
         contextAttributes.add(Attribute.of("stack_exchange_access_token", Objects.toString(accessToken)));
 
         AuthenticationAttributes authenticationAttributes = AuthenticationAttributes.of(
-                SubjectAttributes.of(subjectAttributes),
+                subjectAttributes,
                 ContextAttributes.of(contextAttributes));
 
-        return Optional.of(new AuthenticationResult(authenticationAttributes));
+        return new AuthenticationResult(authenticationAttributes);
     }
 
-    private Map<String, String> getUserInfo(@Nullable Object accessToken)
+    private SubjectAttributes getSubjectAttributes(@Nullable Object accessToken, AppShard shard,
+                                                   LoginBudget.Deadline deadline)
     {
         if (accessToken == null)
         {
@@ -137,102 +177,230 @@ public class CallbackRequestHandler
             throw _exceptionFactory.internalServerException(ErrorCode.EXTERNAL_SERVICE_ERROR);
         }
 
-        HttpResponse userInfoResponse = getWebServiceClient()
-                .withQueries(createQueryParameters(accessToken.toString(), _config.getAppKey(), _config.getSite()))
-                .request()
-                .get()
-                .response();
-        int statusCode = userInfoResponse.statusCode();
+        ProfileEnricher.Pending enrichments = _profileEnricher.start(accessToken.toString(), shard);
+        Map<String, String> userInfoResponseData;
 
-        if (statusCode != 200)
+        try
         {
-            if (_logger.isWarnEnabled())
-            {
-                _logger.warn("Got an error response from the user info endpoint. Error = {}, {}", statusCode,
-                        userInfoResponse.body(HttpResponse.asString()));
-            }
+            userInfoResponseData = deadline.call("user info request", () -> getUserInfo(accessToken, shard));
+        }
+        catch (RuntimeException e)
+        {
+            enrichments.cancel();
 
-            throw _exceptionFactory.internalServerException(ErrorCode.EXTERNAL_SERVICE_ERROR);
+            throw e;
         }
 
-        Object items = _json.fromJson(userInfoResponse.body(HttpResponse.asString()))
-                .getOrDefault("items", Collections.emptyMap());
-        Map<String, String> result = Collections.emptyMap();
+        if (userInfoResponseData.size() == 0)
+        {
+            enrichments.cancel();
 
-        if (items instanceof List)
+            // User probably doesn't have an account with the configured site.
+            _logger.debug("No user info for access token. Use probably doesn't have an account at {}",
+                    _siteRegistry.getSite());
+
+            _metrics.countNoAccountRedirect();
+
+            throw _exceptionFactory.redirectException(
+                    _authenticatorInformationProvider.getAuthenticationBaseUri().toASCIIString());
+        }
+
+        @Nullable String userId = userInfoResponseData.get("user_id");
+        @Nullable SubjectAttributes subjectAttributes = userId == null ? null : _profileCache.get(userId);
+
+        if (_profileCache.isEnabled())
         {
-            List i = (List)items;
-            Object j;
+            _metrics.countProfileCacheLookup(subjectAttributes != null);
+        }
 
-            if (i.size() >= 1 && (j = i.get(0)) instanceof Map)
-            {
-                Map m = (Map)j;
-                result = new LinkedHashMap<>(m.size());
+        if (subjectAttributes != null)
+        {
+            enrichments.cancel();
 
-                for (Object k : m.keySet())
-                {
-                    result.put(k.toString(), m.get(k).toString());
-                }
-            }
+            _logger.debug("Using the cached profile of user {}", userId);
+
+            return subjectAttributes;
         }
 
-        return result;
+        long start = System.nanoTime();
+        List<Attribute> enrichedAttributes = enrichments.collect(deadline.remainingNanos());
+
+        _metrics.recordLatency(LoginPhase.ENRICHMENT, System.nanoTime() - start);
+
+        subjectAttributes = _attributeMapper.map(userInfoResponseData, enrichedAttributes);
+
+        // A profile that lacks some enrichment isn't cached, so that the next login gets another chance to fill it
+        if (userId != null && enrichments.isComplete())
+        {
+            _profileCache.put(userId, subjectAttributes);
+            _profileSync.track(userId, userId, enrichedAttributes);
+        }
+
+        return subjectAttributes;
+    }
+
+    private Map<String, String> getUserInfo(Object accessToken, AppShard shard)
+    {
+        try (Span span = _tracer.startSpan("stackexchange.user_info")
+                .setAttribute("stackexchange.site", _siteRegistry.getSite()))
+        {
+            return getUserInfo(accessToken, shard, span);
+        }
     }
 
-    private WebServiceClient getWebServiceClient()
+    private Map<String, String> getUserInfo(Object accessToken, AppShard shard, Span span)
     {
-        Optional<HttpClient> httpClient = _config.getHttpClient();
+        long start = System.nanoTime();
+        UpstreamResponse userInfoResponse;
 
-        if (httpClient.isPresent())
+        try
         {
-            return _webServiceClientFactory.create(httpClient.get())
-                    .withHost("api.stackexchange.com")
-                    .withPath("/2.2/me");
+            shard.getQuotaGovernor().acquire(USER_INFO_PATH, true);
+
+            Map<String, Collection<String>> queryParameters = createQueryParameters(accessToken.toString(),
+                    shard.getAppKey(), _siteRegistry.getSite());
+
+            userInfoResponse = _userInfoHedger.get(() -> _upstreamTransport.get(UpstreamHost.API, USER_INFO_PATH,
+                    queryParameters), span);
         }
-        else
+        catch (UpstreamUnavailableException e)
         {
-            return _webServiceClientFactory.create(URI.create("https://api.stackexchange.com/2.2/me"));
+            _logger.warn("Not calling the user info endpoint: {}", e.getMessage());
+
+            span.setError(e.getMessage());
+
+            throw _exceptionFactory.internalServerException(ErrorCode.EXTERNAL_SERVICE_ERROR);
         }
+
+        int statusCode = userInfoResponse.statusCode();
+
+        _metrics.recordLatency(LoginPhase.USER_INFO_REQUEST, System.nanoTime() - start);
+        _metrics.countUpstreamResponse(UpstreamHost.API, statusCode);
+        span.setAttribute("http.status_code", statusCode);
+
+        start = System.nanoTime();
+
+        ApiResponse userInfo;
+
+        // Error responses are parsed too, since they carry the backoff and throttling information
+        try (Span ignored = _tracer.startSpan("stackexchange.parse_user_info");
+             InputStream body = countBytes(userInfoResponse.body(), span))
+        {
+            userInfo = ApiResponseParser.parseFirstItem(body, _attributeMapper.getFields());
+        }
+        catch (IOException | IllegalStateException e)
+        {
+            _logger.warn("Could not read the response from the user info endpoint. Status = {}", statusCode, e);
+
+            span.setError("Unreadable response");
+
+            throw _exceptionFactory.internalServerException(ErrorCode.EXTERNAL_SERVICE_ERROR);
+        }
+        finally
+        {
+            _metrics.recordLatency(LoginPhase.USER_INFO_PARSING, System.nanoTime() - start);
+        }
+
+        shard.getQuotaGovernor().observe(USER_INFO_PATH, userInfo);
+
+        if (statusCode != 200)
+        {
+            _logger.warn("Got an error response from the user info endpoint. Error = {}, {}: {}", statusCode,
+                    userInfo.getErrorName(), userInfo.getErrorMessage());
+
+            span.setError(String.valueOf(userInfo.getErrorName()));
+
+            throw _exceptionFactory.internalServerException(ErrorCode.EXTERNAL_SERVICE_ERROR);
+        }
+
+        return userInfo.getFirstItem();
     }
 
     private Map<String, Collection<String>> createQueryParameters(String accessToken, String appKey,
-                                                                  StackExchangeAuthenticatorPluginConfig.Site site)
+                                                                  String site)
     {
-        Map<String, Collection<String>> parameters = new LinkedHashMap<>(3);
+        Map<String, Collection<String>> parameters = new LinkedHashMap<>(4);
+        @Nullable String filter = _apiFilters.getFilter();
 
         parameters.put("key", Collections.singleton(appKey));
-        parameters.put("site", Collections.singleton(site.name()));
+        parameters.put("site", Collections.singleton(site));
         parameters.put("access_token", Collections.singleton(accessToken));
 
+        if (filter != null)
+        {
+            parameters.put("filter", Collections.singleton(filter));
+        }
+
         return parameters;
     }
 
-    private Map<String, Object> redeemCodeForTokens(CallbackGetRequestModel requestModel)
+    private Map<String, String> redeemCodeForTokens(String code, String redirectUri, AppShard shard)
     {
-        var redirectUri = createRedirectUri(_authenticatorInformationProvider, _exceptionFactory);
-
-        URI uri = URI.create("https://stackexchange.com/oauth/access_token/json");
-        HttpResponse tokenResponse = _webServiceClientFactory.create(uri)
-                .request()
-                .contentType("application/x-www-form-urlencoded")
-                .body(createFormUrlEncodedBodyProcessor(createPostData(_config.getClientId(),
-                        _config.getClientSecret(), requestModel.getCode(), redirectUri)))
-                .post()
-                .response();
+        try (Span span = _tracer.startSpan("stackexchange.token_exchange"))
+        {
+            return redeemCodeForTokens(code, redirectUri, shard, span);
+        }
+    }
+
+    private Map<String, String> redeemCodeForTokens(String code, String redirectUri, AppShard shard, Span span)
+    {
+        long start = System.nanoTime();
+        UpstreamResponse tokenResponse;
+
+        try
+        {
+            tokenResponse = _upstreamTransport.postForm(UpstreamHost.OAUTH, TOKEN_PATH,
+                    createPostData(shard.getClientId(), shard.getClientSecret(), code, redirectUri));
+        }
+        catch (UpstreamUnavailableException e)
+        {
+            _logger.warn("Not calling the token endpoint: {}", e.getMessage());
+
+            span.setError(e.getMessage());
+
+            throw _exceptionFactory.internalServerException(ErrorCode.EXTERNAL_SERVICE_ERROR);
+        }
+
         int statusCode = tokenResponse.statusCode();
 
+        _metrics.recordLatency(LoginPhase.TOKEN_EXCHANGE, System.nanoTime() - start);
+        _metrics.countUpstreamResponse(UpstreamHost.OAUTH, statusCode);
+        span.setAttribute("http.status_code", statusCode);
+
         if (statusCode != 200)
         {
-            if (_logger.isInfoEnabled())
+            span.setError("Error response");
+
+            // The body is closed even if it isn't logged, since that is what frees the connection
+            try (InputStream body = tokenResponse.body())
+            {
+                if (_logger.isInfoEnabled())
+                {
+                    _logger.info("Got error response from token endpoint: error = {}, {}", statusCode,
+                            ResponseBodyDecoder.readString(body));
+                }
+            }
+            catch (IOException e)
             {
-                _logger.info("Got error response from token endpoint: error = {}, {}", statusCode,
-                        tokenResponse.body(HttpResponse.asString()));
+                _logger.info("Got error response from token endpoint: error = {}, unreadable body", statusCode, e);
             }
 
             throw _exceptionFactory.internalServerException(ErrorCode.EXTERNAL_SERVICE_ERROR);
         }
 
-        return _json.fromJson(tokenResponse.body(HttpResponse.asString()));
+        try (Span ignored = _tracer.startSpan("stackexchange.parse_token_response");
+             InputStream body = countBytes(tokenResponse.body(), span))
+        {
+            return ApiResponseParser.parseObject(body, TOKEN_FIELDS);
+        }
+        catch (IOException | IllegalStateException e)
+        {
+            _logger.warn("Could not read the response from the token endpoint", e);
+
+            span.setError("Unreadable response");
+
+            throw _exceptionFactory.internalServerException(ErrorCode.EXTERNAL_SERVICE_ERROR);
+        }
     }
 
     private void handleError(CallbackGetRequestModel requestModel)
@@ -240,7 +408,11 @@ public class CallbackRequestHandler
         if (!Objects.isNull(requestModel.getError()))
         {
 
-            if ("access_denied".equals(requestModel.getError()))
+            boolean accessDenied = "access_denied".equals(requestModel.getError());
+
+            _metrics.countAuthorizationError(accessDenied);
+
+            if (accessDenied)
             {
                 _logger.debug("Got an error from StackExchange: {} - {}", requestModel.getError(),
                         requestModel.getErrorDescription());
@@ -276,8 +448,45 @@ public class CallbackRequestHandler
         throw _exceptionFactory.methodNotAllowed();
     }
 
-    private void validateState(String state)
+    private void validateState(String state, @Nullable String code)
+    {
+        long start = System.nanoTime();
+
+        try (Span span = _tracer.startSpan("stackexchange.validate_state"))
+        {
+            try
+            {
+                checkState(state, code);
+            }
+            catch (RuntimeException e)
+            {
+                span.setError("Invalid state");
+
+                throw e;
+            }
+        }
+        finally
+        {
+            _metrics.recordLatency(LoginPhase.STATE_VALIDATION, System.nanoTime() - start);
+        }
+    }
+
+    private void checkState(String state, @Nullable String code)
     {
+        if (_stateTokens.isStateless())
+        {
+            if (_stateTokens.useSignedState(AppShards.untag(state), code))
+            {
+                _logger.debug("State has a valid signature");
+
+                return;
+            }
+
+            _logger.debug("State was not signed with the configured key, has expired or was used with another code");
+
+            throw _exceptionFactory.badRequestException(ErrorCode.INVALID_SERVER_STATE, "Bad state provided");
+        }
+
         @Nullable Attribute sessionAttribute = _config.getSessionManager().get("state");
 
         if (sessionAttribute != null && state.equals(sessionAttribute.getValueOfType(String.class)))
@@ -291,4 +500,70 @@ public class CallbackRequestHandler
             throw _exceptionFactory.badRequestException(ErrorCode.INVALID_SERVER_STATE, "Bad state provided");
         }
     }
+
+    /**
+     * Record the size of a response body in a span once it has been read. The body is returned as is when the span
+     * isn't recording, so that disabled tracing doesn't add a layer to every read.
+     */
+    private static InputStream countBytes(InputStream body, Span span)
+    {
+        return span.isRecording() ? new CountingInputStream(body, span) : body;
+    }
+
+    private static final class CountingInputStream extends FilterInputStream
+    {
+        private final Span _span;
+        private long _count;
+
+        private CountingInputStream(InputStream in, Span span)
+        {
+            super(in);
+
+            _span = span;
+        }
+
+        @Override
+        public int read() throws IOException
+        {
+            int result = super.read();
+
+            if (result != -1)
+            {
+                _count++;
+            }
+
+            return result;
+        }
+
+        @Override
+        public int read(byte[] buffer, int offset, int length) throws IOException
+        {
+            int result = super.read(buffer, offset, length);
+
+            if (result > 0)
+            {
+                _count += result;
+            }
+
+            return result;
+        }
+
+        @Override
+        public long skip(long n) throws IOException
+        {
+            long result = super.skip(n);
+
+            _count += result;
+
+            return result;
+        }
+
+        @Override
+        public void close() throws IOException
+        {
+            _span.setAttribute("http.response.size", _count);
+
+            super.close();
+        }
+    }
 }
@@ -0,0 +1,311 @@
+/*
+ *  Copyright 2026 Curity AB
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package io.curity.identityserver.plugin.stackexchange.authentication;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.FileAttribute;
+import java.nio.file.attribute.PosixFilePermissions;
+import java.util.AbstractMap;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.function.Supplier;
+
+/**
+ * An {@link UpstreamTransport} that appends every exchange, with its timings, to a capture file, so that slow logins
+ * can be replayed and profiled offline. See {@link UpstreamCapture} for the format and what is redacted.
+ *
+ * <p>The body of a response is copied as the caller reads it, so it is still streamed. The time spent in reads of the
+ * underlying stream is counted as the time it took to receive the body, which leaves out the time the caller spent
+ * processing it. The exchange is written when the body is closed. What the caller left unread isn't read, since that
+ * could block a cancelled call while it holds its place in the upstream guard, so the body of such an exchange is
+ * marked as truncated, as is one that is bigger than {@value #MAX_CAPTURED_BODY_SIZE} bytes.
+ *
+ * <p>Records are written on the calling thread, with one write each to a file that is opened for appending, which the
+ * operating system buffers. Capturing is meant to be turned on for a while to investigate a problem, not permanently.
+ */
+final class CapturingUpstreamTransport implements UpstreamTransport, Closeable
+{
+    private static final Logger _logger = LoggerFactory.getLogger(CapturingUpstreamTransport.class);
+    private static final int MAX_CAPTURED_BODY_SIZE = 1024 * 1024;
+
+    private final UpstreamTransport _delegate;
+    private final Path _file;
+    private final FileChannel _channel;
+
+    CapturingUpstreamTransport(UpstreamTransport delegate, Path file) throws IOException
+    {
+        _delegate = delegate;
+        _file = file;
+
+        if (file.getParent() != null)
+        {
+            Files.createDirectories(file.getParent());
+        }
+
+        // The file holds profiles of users, so only the owner may read it
+        FileAttribute<?>[] attributes = FileSystems.getDefault().supportedFileAttributeViews().contains("posix")
+                ? new FileAttribute<?>[]{PosixFilePermissions.asFileAttribute(
+                        PosixFilePermissions.fromString("rw-------"))}
+                : new FileAttribute<?>[0];
+
+        _channel = FileChannel.open(file, Set.of(StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.APPEND), attributes);
+    }
+
+    @Override
+    public UpstreamResponse get(UpstreamHost host, String path, Map<String, Collection<String>> queryParameters)
+    {
+        List<Map.Entry<String, String>> parameters = new ArrayList<>(queryParameters.size());
+
+        queryParameters.forEach((name, values) ->
+        {
+            for (String value : values)
+            {
+                parameters.add(redact(name, value));
+            }
+        });
+
+        return capture(host, "GET", path, parameters, () -> _delegate.get(host, path, queryParameters));
+    }
+
+    @Override
+    public UpstreamResponse postForm(UpstreamHost host, String path, Map<String, String> formData)
+    {
+        List<Map.Entry<String, String>> parameters = new ArrayList<>(formData.size());
+
+        formData.forEach((name, value) -> parameters.add(redact(name, value)));
+
+        return capture(host, "POST", path, parameters, () -> _delegate.postForm(host, path, formData));
+    }
+
+    @Override
+    public void close()
+    {
+        try
+        {
+            _channel.close();
+        }
+        catch (IOException e)
+        {
+            _logger.warn("Could not close the capture file {}", _file, e);
+        }
+    }
+
+    private UpstreamResponse capture(UpstreamHost host, String method, String path,
+                                     List<Map.Entry<String, String>> parameters, Supplier<UpstreamResponse> request)
+    {
+        long startedAt = System.currentTimeMillis();
+        long start = System.nanoTime();
+        UpstreamResponse response;
+
+        try
+        {
+            response = request.get();
+        }
+        catch (RuntimeException e)
+        {
+            append(new UpstreamCapture.Exchange(startedAt, host, method, path, parameters,
+                    UpstreamCapture.Exchange.NO_RESPONSE, System.nanoTime() - start, 0, 0, false, new byte[0]));
+
+            throw e;
+        }
+
+        long headersNanos = System.nanoTime() - start;
+
+        return new UpstreamResponse(response.statusCode(), new CapturingInputStream(response.body(),
+                body -> append(new UpstreamCapture.Exchange(startedAt, host, method, path, parameters,
+                        response.statusCode(), headersNanos, body._readNanos, body._size, body.isTruncated(),
+                        body.redactedBody()))));
+    }
+
+    private void append(UpstreamCapture.Exchange exchange)
+    {
+        ByteBuffer record = ByteBuffer.wrap(exchange.toRecord());
+
+        try
+        {
+            synchronized (_channel)
+            {
+                while (record.hasRemaining())
+                {
+                    _channel.write(record);
+                }
+            }
+        }
+        catch (IOException e)
+        {
+            _logger.warn("Could not append an exchange with {} to the capture file {}", exchange.getPath(), _file, e);
+        }
+    }
+
+    private static Map.Entry<String, String> redact(String name, String value)
+    {
+        return new AbstractMap.SimpleImmutableEntry<>(name, UpstreamCapture.redactParameter(name, value));
+    }
+
+    /**
+     * Copies the body as it's read and hands it over when it's closed.
+     */
+    private static final class CapturingInputStream extends FilterInputStream
+    {
+        private final ByteArrayOutputStream _copy = new ByteArrayOutputStream(1024);
+        private final byte[] _singleByte = new byte[1];
+        private final Completion _completion;
+        private long _readNanos;
+        private int _size;
+        private boolean _ended;
+        private boolean _closed;
+
+        private CapturingInputStream(InputStream body, Completion completion)
+        {
+            super(body);
+
+            _completion = completion;
+        }
+
+        @Override
+        public int read() throws IOException
+        {
+            long start = System.nanoTime();
+            int result = super.read();
+
+            _readNanos += System.nanoTime() - start;
+
+            if (result >= 0)
+            {
+                _singleByte[0] = (byte) result;
+                copy(_singleByte, 0, 1);
+            }
+            else
+            {
+                _ended = true;
+            }
+
+            return result;
+        }
+
+        @Override
+        public int read(byte[] buffer, int offset, int length) throws IOException
+        {
+            long start = System.nanoTime();
+            int read = super.read(buffer, offset, length);
+
+            _readNanos += System.nanoTime() - start;
+
+            if (read > 0)
+            {
+                copy(buffer, offset, read);
+            }
+            else if (read < 0)
+            {
+                _ended = true;
+            }
+
+            return read;
+        }
+
+        @Override
+        public long skip(long count) throws IOException
+        {
+            // Skipped bytes are captured too
+            return Math.max(0, read(new byte[(int) Math.min(count, 8192)]));
+        }
+
+        @Override
+        public void close() throws IOException
+        {
+            if (_closed)
+            {
+                return;
+            }
+
+            _closed = true;
+
+            try
+            {
+                super.close();
+            }
+            finally
+            {
+                _completion.complete(this);
+            }
+        }
+
+        @Override
+        public boolean markSupported()
+        {
+            return false;
+        }
+
+        private void copy(byte[] buffer, int offset, int length)
+        {
+            _size += length;
+
+            int room = MAX_CAPTURED_BODY_SIZE - _copy.size();
+
+            if (room > 0)
+            {
+                _copy.write(buffer, offset, Math.min(room, length));
+            }
+        }
+
+        /**
+         * @return whether the body was closed before its end, or is too big to have been copied in full
+         */
+        private boolean isTruncated()
+        {
+            return !_ended || _size > _copy.size();
+        }
+
+        private byte[] redactedBody()
+        {
+            try
+            {
+                return UpstreamCapture.redactBody(_copy.toByteArray());
+            }
+            catch (IOException | RuntimeException e)
+            {
+                // A body that can't be redacted isn't kept, since it might hold a secret
+                _logger.debug("Could not redact a captured body", e);
+
+                return new byte[0];
+            }
+        }
+    }
+
+    @FunctionalInterface
+    private interface Completion
+    {
+        void complete(CapturingInputStream body);
+    }
+}
@@ -0,0 +1,124 @@
+/*
+ *  Copyright 2026 Curity AB
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+
+package io.curity.identityserver.plugin.stackexchange.authentication;
+
+import java.util.List;
+
+/**
+ * Login metrics that hand every measurement to several others, e.g., the in-memory ones and those of a plugged-in
+ * metrics system.
+ */
+final class CompositeLoginMetrics implements LoginMetrics
+{
+    private final LoginMetrics[] _delegates;
+
+    CompositeLoginMetrics(List<LoginMetrics> delegates)
+    {
+        _delegates = delegates.toArray(new LoginMetrics[0]);
+    }
+
+    List<LoginMetrics> getDelegates()
+    {
+        return List.of(_delegates);
+    }
+
+    @Override
+    public void recordLatency(LoginPhase phase, long nanos)
+    {
+        for (LoginMetrics delegate : _delegates)
+        {
+            delegate.recordLatency(phase, nanos);
+        }
+    }
+
+    @Override
+    public void countUpstreamResponse(UpstreamHost host, int statusCode)
+    {
+        for (LoginMetrics delegate : _delegates)
+        {
+            delegate.countUpstreamResponse(host, statusCode);
+        }
+    }
+
+    @Override
+    public void countAuthorizationError(boolean accessDenied)
+    {
+        for (LoginMetrics delegate : _delegates)
+        {
+            delegate.countAuthorizationError(accessDenied);
+        }
+    }
+
+    @Override
+    public void countNoAccountRedirect()
+    {
+        for (LoginMetrics delegate : _delegates)
+        {
+            delegate.countNoAccountRedirect();
+        }
+    }
+
+    @Override
+    public void countCoalescedCallback()
+    {
+        for (LoginMetrics delegate : _delegates)
+        {
+            delegate.countCoalescedCallback();
+        }
+    }
+
+    @Override
+    public void countDeadlineExceeded()
+    {
+        for (LoginMetrics delegate : _delegates)
+        {
+            delegate.countDeadlineExceeded();
+        }
+    }
+
+    @Override
+    public void countHedgedRequest()
+    {
+        for (LoginMetrics delegate : _delegates)
+        {
+            delegate.countHedgedRequest();
+        }
+    }
+
+    @Override
+    public void countProfileCacheLookup(boolean hit)
+    {
+        for (LoginMetrics delegate : _delegates)
+        {
+            delegate.countProfileCacheLookup(hit);
+        }
+    }
+
+    @Override
+    public String toString()
+    {
+        StringBuilder result = new StringBuilder();
+
+        for (LoginMetrics delegate : _delegates)
+        {
+            result.append(result.length() == 0 ? "" : "; ").append(delegate);
+        }
+
+        return result.toString();
+    }
+}
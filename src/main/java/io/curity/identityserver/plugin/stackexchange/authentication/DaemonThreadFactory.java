@@ -0,0 +1,48 @@
+/*
+ *  Copyright 2026 Curity AB
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package io.curity.identityserver.plugin.stackexchange.authentication;
+
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Creates the background threads of the authenticator. They are daemon threads, so that they never keep the server
+ * from shutting down, and they are numbered so that they can be told apart in thread dumps.
+ */
+final class DaemonThreadFactory implements ThreadFactory
+{
+    private final String _namePrefix;
+    private final AtomicInteger _count = new AtomicInteger();
+
+    /**
+     * @param name the name of the threads, e.g., {@code stackexchange-worker}, which is followed by their number
+     */
+    DaemonThreadFactory(String name)
+    {
+        _namePrefix = name + "-";
+    }
+
+    @Override
+    public Thread newThread(Runnable runnable)
+    {
+        Thread thread = new Thread(runnable, _namePrefix + _count.incrementAndGet());
+
+        thread.setDaemon(true);
+
+        return thread;
+    }
+}
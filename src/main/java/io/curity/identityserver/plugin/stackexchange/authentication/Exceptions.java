@@ -0,0 +1,47 @@
+/*
+ *  Copyright 2026 Curity AB
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package io.curity.identityserver.plugin.stackexchange.authentication;
+
+/**
+ * Helpers for exceptions that are handed from one thread to another.
+ */
+final class Exceptions
+{
+    private Exceptions()
+    {
+    }
+
+    /**
+     * Throw the cause of a failed task, e.g., of an {@code ExecutionException}, as it was thrown by the task. A
+     * checked exception, which the tasks of the authenticator don't throw, is wrapped.
+     *
+     * @return nothing, since it always throws, but declared so that callers can write {@code throw rethrow(cause)}
+     */
+    static RuntimeException rethrow(Throwable cause)
+    {
+        if (cause instanceof RuntimeException)
+        {
+            throw (RuntimeException) cause;
+        }
+        else if (cause instanceof Error)
+        {
+            throw (Error) cause;
+        }
+
+        throw new IllegalStateException(cause);
+    }
+}
@@ -0,0 +1,140 @@
+/*
+ *  Copyright 2026 Curity AB
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package io.curity.identityserver.plugin.stackexchange.authentication;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Collection;
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.function.Supplier;
+
+/**
+ * An {@link UpstreamTransport} that passes each request through the {@link UpstreamGuard} of its host.
+ *
+ * <p>Room in the bulkhead is held until the body of the response has been closed, since reading the body still ties
+ * up a connection to the host.
+ */
+final class GuardedUpstreamTransport implements UpstreamTransport
+{
+    private static final Logger _logger = LoggerFactory.getLogger(GuardedUpstreamTransport.class);
+
+    private final UpstreamTransport _delegate;
+    private final Map<UpstreamHost, UpstreamGuard> _guards;
+
+    GuardedUpstreamTransport(UpstreamTransport delegate, Map<UpstreamHost, UpstreamGuard> guards)
+    {
+        _delegate = delegate;
+        _guards = new EnumMap<>(guards);
+    }
+
+    @Override
+    public UpstreamResponse get(UpstreamHost host, String path, Map<String, Collection<String>> queryParameters)
+    {
+        return guard(host, () -> _delegate.get(host, path, queryParameters));
+    }
+
+    @Override
+    public UpstreamResponse postForm(UpstreamHost host, String path, Map<String, String> formData)
+    {
+        return guard(host, () -> _delegate.postForm(host, path, formData));
+    }
+
+    UpstreamGuard getGuard(UpstreamHost host)
+    {
+        return _guards.get(host);
+    }
+
+    private UpstreamResponse guard(UpstreamHost host, Supplier<UpstreamResponse> request)
+    {
+        UpstreamGuard guard = _guards.get(host);
+
+        if (guard == null)
+        {
+            return request.get();
+        }
+
+        guard.acquire();
+
+        long start = System.nanoTime();
+        UpstreamResponse response;
+
+        try
+        {
+            response = request.get();
+        }
+        catch (RuntimeException e)
+        {
+            guard.release(true, System.nanoTime() - start);
+
+            throw e;
+        }
+
+        boolean failed = isFailure(response.statusCode());
+
+        if (failed)
+        {
+            _logger.debug("Request to {} failed with status {}", host.getHostName(), response.statusCode());
+        }
+
+        return new UpstreamResponse(response.statusCode(),
+                new ReleasingInputStream(response.body(), guard, failed, start));
+    }
+
+    private static boolean isFailure(int statusCode)
+    {
+        return statusCode >= 500 || statusCode == 429;
+    }
+
+    private static final class ReleasingInputStream extends FilterInputStream
+    {
+        private final UpstreamGuard _guard;
+        private final boolean _failed;
+        private final long _start;
+        private boolean _released;
+
+        private ReleasingInputStream(InputStream in, UpstreamGuard guard, boolean failed, long start)
+        {
+            super(in);
+
+            _guard = guard;
+            _failed = failed;
+            _start = start;
+        }
+
+        @Override
+        public void close() throws IOException
+        {
+            try
+            {
+                super.close();
+            }
+            finally
+            {
+                if (!_released)
+                {
+                    _released = true;
+                    _guard.release(_failed, System.nanoTime() - _start);
+                }
+            }
+        }
+    }
+}
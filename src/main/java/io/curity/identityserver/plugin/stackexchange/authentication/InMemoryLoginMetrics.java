@@ -0,0 +1,222 @@
+/*
+ *  Copyright 2026 Curity AB
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package io.curity.identityserver.plugin.stackexchange.authentication;
+
+import java.util.EnumMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Login metrics that are kept in memory, where they can be read back, e.g., by tests, for logging, or over JMX.
+ */
+final class InMemoryLoginMetrics implements LoginMetrics, LoginMetricsMXBean
+{
+    private final Map<LoginPhase, LatencyHistogram> _latencies = new EnumMap<>(LoginPhase.class);
+    private final Map<UpstreamHost, ConcurrentHashMap<Integer, LongAdder>> _upstreamResponses =
+            new EnumMap<>(UpstreamHost.class);
+    private final LongAdder _accessDeniedErrors = new LongAdder();
+    private final LongAdder _otherAuthorizationErrors = new LongAdder();
+    private final LongAdder _noAccountRedirects = new LongAdder();
+    private final LongAdder _coalescedCallbacks = new LongAdder();
+    private final LongAdder _deadlinesExceeded = new LongAdder();
+    private final LongAdder _hedgedRequests = new LongAdder();
+    private final LongAdder _profileCacheHits = new LongAdder();
+    private final LongAdder _profileCacheMisses = new LongAdder();
+
+    InMemoryLoginMetrics()
+    {
+        // Both maps are fully populated up front and never modified afterwards, so they're safe to share
+        for (LoginPhase phase : LoginPhase.values())
+        {
+            _latencies.put(phase, new LatencyHistogram());
+        }
+
+        for (UpstreamHost host : UpstreamHost.values())
+        {
+            _upstreamResponses.put(host, new ConcurrentHashMap<>());
+        }
+    }
+
+    @Override
+    public void recordLatency(LoginPhase phase, long nanos)
+    {
+        _latencies.get(phase).record(nanos);
+    }
+
+    @Override
+    public void countUpstreamResponse(UpstreamHost host, int statusCode)
+    {
+        _upstreamResponses.get(host).computeIfAbsent(statusCode, status -> new LongAdder()).increment();
+    }
+
+    @Override
+    public void countAuthorizationError(boolean accessDenied)
+    {
+        (accessDenied ? _accessDeniedErrors : _otherAuthorizationErrors).increment();
+    }
+
+    @Override
+    public void countNoAccountRedirect()
+    {
+        _noAccountRedirects.increment();
+    }
+
+    @Override
+    public void countCoalescedCallback()
+    {
+        _coalescedCallbacks.increment();
+    }
+
+    @Override
+    public void countDeadlineExceeded()
+    {
+        _deadlinesExceeded.increment();
+    }
+
+    @Override
+    public void countHedgedRequest()
+    {
+        _hedgedRequests.increment();
+    }
+
+    @Override
+    public void countProfileCacheLookup(boolean hit)
+    {
+        (hit ? _profileCacheHits : _profileCacheMisses).increment();
+    }
+
+    @Override
+    public Map<String, Double> getLatencyMillis()
+    {
+        Map<String, Double> result = new LinkedHashMap<>();
+
+        _latencies.forEach((phase, histogram) ->
+        {
+            if (histogram.getCount() > 0)
+            {
+                result.put(phase + ".p50", histogram.getValueAtPercentile(50) / 1e6);
+                result.put(phase + ".p99", histogram.getValueAtPercentile(99) / 1e6);
+                result.put(phase + ".p99.9", histogram.getValueAtPercentile(99.9) / 1e6);
+                result.put(phase + ".max", histogram.getMax() / 1e6);
+            }
+        });
+
+        return result;
+    }
+
+    @Override
+    public Map<String, Long> getUpstreamResponseCounts()
+    {
+        Map<String, Long> result = new LinkedHashMap<>();
+
+        _upstreamResponses.forEach((host, counts) -> counts.forEach((status, count) ->
+                result.put(host + "." + status, count.sum())));
+
+        return result;
+    }
+
+    LatencyHistogram getLatencies(LoginPhase phase)
+    {
+        return _latencies.get(phase);
+    }
+
+    long getUpstreamResponseCount(UpstreamHost host, int statusCode)
+    {
+        LongAdder count = _upstreamResponses.get(host).get(statusCode);
+
+        return count == null ? 0 : count.sum();
+    }
+
+    @Override
+    public long getAccessDeniedErrorCount()
+    {
+        return _accessDeniedErrors.sum();
+    }
+
+    @Override
+    public long getOtherAuthorizationErrorCount()
+    {
+        return _otherAuthorizationErrors.sum();
+    }
+
+    @Override
+    public long getNoAccountRedirectCount()
+    {
+        return _noAccountRedirects.sum();
+    }
+
+    @Override
+    public long getCoalescedCallbackCount()
+    {
+        return _coalescedCallbacks.sum();
+    }
+
+    @Override
+    public long getDeadlineExceededCount()
+    {
+        return _deadlinesExceeded.sum();
+    }
+
+    @Override
+    public long getHedgedRequestCount()
+    {
+        return _hedgedRequests.sum();
+    }
+
+    @Override
+    public long getProfileCacheHitCount()
+    {
+        return _profileCacheHits.sum();
+    }
+
+    @Override
+    public long getProfileCacheMissCount()
+    {
+        return _profileCacheMisses.sum();
+    }
+
+    @Override
+    public String toString()
+    {
+        StringBuilder result = new StringBuilder("Login metrics:");
+
+        _latencies.forEach((phase, histogram) ->
+        {
+            if (histogram.getCount() > 0)
+            {
+                result.append(String.format(" %s[n=%d p50=%.1fms p99=%.1fms max=%.1fms]", phase, histogram.getCount(),
+                        histogram.getValueAtPercentile(50) / 1e6, histogram.getValueAtPercentile(99) / 1e6,
+                        histogram.getMax() / 1e6));
+            }
+        });
+
+        _upstreamResponses.forEach((host, counts) -> counts.forEach((status, count) ->
+                result.append(' ').append(host).append('[').append(status).append("]=").append(count.sum())));
+
+        return result.append(" access_denied=").append(_accessDeniedErrors.sum())
+                .append(" other_errors=").append(_otherAuthorizationErrors.sum())
+                .append(" no_account=").append(_noAccountRedirects.sum())
+                .append(" coalesced=").append(_coalescedCallbacks.sum())
+                .append(" deadline_exceeded=").append(_deadlinesExceeded.sum())
+                .append(" hedged=").append(_hedgedRequests.sum())
+                .append(" profile_cache_hits=").append(_profileCacheHits.sum())
+                .append(" profile_cache_misses=").append(_profileCacheMisses.sum())
+                .toString();
+    }
+}
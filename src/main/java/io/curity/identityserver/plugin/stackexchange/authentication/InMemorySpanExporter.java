@@ -0,0 +1,65 @@
+/*
+ *  Copyright 2026 Curity AB
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package io.curity.identityserver.plugin.stackexchange.authentication;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * An exporter that keeps the most recent spans in memory, so that tests and tools can inspect them.
+ */
+final class InMemorySpanExporter implements SpanExporter
+{
+    private final ConcurrentLinkedQueue<SpanData> _spans = new ConcurrentLinkedQueue<>();
+    private final AtomicInteger _size = new AtomicInteger();
+    private final int _maxSpans;
+
+    /**
+     * @param maxSpans the number of spans to keep; older ones are dropped
+     */
+    InMemorySpanExporter(int maxSpans)
+    {
+        _maxSpans = maxSpans;
+    }
+
+    @Override
+    public void export(SpanData span)
+    {
+        _spans.offer(span);
+
+        if (_size.incrementAndGet() > _maxSpans && _spans.poll() != null)
+        {
+            _size.decrementAndGet();
+        }
+    }
+
+    /**
+     * @return the spans that are kept, in the order that they ended in
+     */
+    List<SpanData> getSpans()
+    {
+        return new ArrayList<>(_spans);
+    }
+
+    void clear()
+    {
+        _spans.clear();
+        _size.set(0);
+    }
+}
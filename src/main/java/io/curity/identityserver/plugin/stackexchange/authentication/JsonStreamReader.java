@@ -0,0 +1,449 @@
+/*
+ *  Copyright 2026 Curity AB
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package io.curity.identityserver.plugin.stackexchange.authentication;
+
+import se.curity.identityserver.sdk.Nullable;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.Reader;
+import java.util.Arrays;
+
+/**
+ * A minimal pull parser for JSON documents.
+ *
+ * <p>Values are read one token at a time, so that the parts of a document that a caller is interested in can be
+ * picked out and everything else skipped without ever being materialized. Scalars are returned in their textual
+ * form, e.g., the number {@code 42} as the string {@code "42"}. The parser is lenient about separators and does not
+ * validate the document; it is only intended for the well-formed responses of the StackExchange API.
+ */
+final class JsonStreamReader implements Closeable
+{
+    enum Token
+    {
+        BEGIN_OBJECT, END_OBJECT, BEGIN_ARRAY, END_ARRAY, NAME, STRING, NUMBER, BOOLEAN, NULL, END_DOCUMENT
+    }
+
+    private static final int INITIAL_DEPTH = 16;
+
+    private final Reader _reader;
+    private final char[] _buffer;
+    private final StringBuilder _stringBuilder = new StringBuilder(64);
+    private int _position;
+    private int _limit;
+
+    private boolean[] _inObject = new boolean[INITIAL_DEPTH];
+    private boolean[] _expectName = new boolean[INITIAL_DEPTH];
+    private int _depth;
+
+    @Nullable
+    private Token _peeked;
+
+    JsonStreamReader(Reader reader)
+    {
+        this(reader, new char[2048]);
+    }
+
+    JsonStreamReader(Reader reader, char[] buffer)
+    {
+        _reader = reader;
+        _buffer = buffer;
+    }
+
+    Token peek() throws IOException
+    {
+        if (_peeked != null)
+        {
+            return _peeked;
+        }
+
+        int c = nextNonSeparator();
+
+        if (c == -1)
+        {
+            return _peeked = Token.END_DOCUMENT;
+        }
+
+        switch (c)
+        {
+            case '{':
+                return _peeked = Token.BEGIN_OBJECT;
+            case '}':
+                return _peeked = Token.END_OBJECT;
+            case '[':
+                return _peeked = Token.BEGIN_ARRAY;
+            case ']':
+                return _peeked = Token.END_ARRAY;
+            case '"':
+                return _peeked = _depth > 0 && _inObject[_depth - 1] && _expectName[_depth - 1]
+                        ? Token.NAME
+                        : Token.STRING;
+            case 't':
+            case 'f':
+                return _peeked = Token.BOOLEAN;
+            case 'n':
+                return _peeked = Token.NULL;
+            default:
+                return _peeked = Token.NUMBER;
+        }
+    }
+
+    boolean hasNext() throws IOException
+    {
+        Token token = peek();
+
+        return token != Token.END_OBJECT && token != Token.END_ARRAY && token != Token.END_DOCUMENT;
+    }
+
+    void beginObject() throws IOException
+    {
+        consume(Token.BEGIN_OBJECT);
+        push(true);
+    }
+
+    void endObject() throws IOException
+    {
+        consume(Token.END_OBJECT);
+        _depth--;
+        afterValue();
+    }
+
+    void beginArray() throws IOException
+    {
+        consume(Token.BEGIN_ARRAY);
+        push(false);
+    }
+
+    void endArray() throws IOException
+    {
+        consume(Token.END_ARRAY);
+        _depth--;
+        afterValue();
+    }
+
+    String nextName() throws IOException
+    {
+        consume(Token.NAME);
+
+        String name = readString();
+
+        _expectName[_depth - 1] = false;
+
+        return name;
+    }
+
+    /**
+     * Read the next scalar value in its textual form.
+     *
+     * @return the value, or null if it was the JSON literal {@code null}
+     * @throws IllegalStateException if the next value is an object or array
+     */
+    @Nullable
+    String nextString() throws IOException
+    {
+        Token token = peek();
+        @Nullable String result;
+
+        switch (token)
+        {
+            case STRING:
+                _position++;
+                _peeked = null;
+                result = readString();
+                break;
+            case NUMBER:
+            case BOOLEAN:
+                _peeked = null;
+                result = readLiteral();
+                break;
+            case NULL:
+                _peeked = null;
+                readLiteral();
+                result = null;
+                break;
+            default:
+                throw new IllegalStateException("Expected a scalar but was " + token);
+        }
+
+        afterValue();
+
+        return result;
+    }
+
+    /**
+     * Skip the next value, including any nested objects or arrays, without materializing it.
+     */
+    void skipValue() throws IOException
+    {
+        int depth = 0;
+
+        do
+        {
+            switch (peek())
+            {
+                case BEGIN_OBJECT:
+                    beginObject();
+                    depth++;
+                    break;
+                case BEGIN_ARRAY:
+                    beginArray();
+                    depth++;
+                    break;
+                case END_OBJECT:
+                    endObject();
+                    depth--;
+                    break;
+                case END_ARRAY:
+                    endArray();
+                    depth--;
+                    break;
+                case NAME:
+                    consume(Token.NAME);
+                    skipString();
+                    _expectName[_depth - 1] = false;
+                    break;
+                case STRING:
+                    consume(Token.STRING);
+                    skipString();
+                    afterValue();
+                    break;
+                case END_DOCUMENT:
+                    if (depth > 0)
+                    {
+                        throw new IOException("Unexpected end of document");
+                    }
+
+                    return;
+                default:
+                    _peeked = null;
+                    readLiteral();
+                    afterValue();
+                    break;
+            }
+        }
+        while (depth > 0);
+    }
+
+    @Override
+    public void close() throws IOException
+    {
+        _reader.close();
+    }
+
+    private void consume(Token expected) throws IOException
+    {
+        Token token = peek();
+
+        if (token != expected)
+        {
+            throw new IllegalStateException("Expected " + expected + " but was " + token);
+        }
+
+        _position++;
+        _peeked = null;
+    }
+
+    private void push(boolean isObject)
+    {
+        if (_depth == _inObject.length)
+        {
+            _inObject = Arrays.copyOf(_inObject, _depth * 2);
+            _expectName = Arrays.copyOf(_expectName, _depth * 2);
+        }
+
+        _inObject[_depth] = isObject;
+        _expectName[_depth] = isObject;
+        _depth++;
+    }
+
+    private void afterValue()
+    {
+        if (_depth > 0 && _inObject[_depth - 1])
+        {
+            _expectName[_depth - 1] = true;
+        }
+    }
+
+    private int nextNonSeparator() throws IOException
+    {
+        while (_position < _limit || fill())
+        {
+            char c = _buffer[_position];
+
+            if (c == ' ' || c == '\t' || c == '\n' || c == '\r' || c == ',' || c == ':')
+            {
+                _position++;
+            }
+            else
+            {
+                return c;
+            }
+        }
+
+        return -1;
+    }
+
+    private String readString() throws IOException
+    {
+        _stringBuilder.setLength(0);
+
+        while (true)
+        {
+            int start = _position;
+
+            while (_position < _limit)
+            {
+                char c = _buffer[_position];
+
+                if (c == '"')
+                {
+                    _stringBuilder.append(_buffer, start, _position - start);
+                    _position++;
+
+                    return _stringBuilder.toString();
+                }
+                else if (c == '\\')
+                {
+                    _stringBuilder.append(_buffer, start, _position - start);
+                    _position++;
+                    _stringBuilder.append(readEscapedCharacter());
+                    start = _position;
+                }
+                else
+                {
+                    _position++;
+                }
+            }
+
+            _stringBuilder.append(_buffer, start, _position - start);
+
+            if (!fill())
+            {
+                throw new IOException("Unterminated string");
+            }
+        }
+    }
+
+    private void skipString() throws IOException
+    {
+        while (_position < _limit || fill())
+        {
+            char c = _buffer[_position++];
+
+            if (c == '"')
+            {
+                return;
+            }
+            else if (c == '\\')
+            {
+                if (_position >= _limit && !fill())
+                {
+                    break;
+                }
+
+                _position++;
+            }
+        }
+
+        throw new IOException("Unterminated string");
+    }
+
+    private char readEscapedCharacter() throws IOException
+    {
+        char c = nextChar();
+
+        switch (c)
+        {
+            case 'b':
+                return '\b';
+            case 'f':
+                return '\f';
+            case 'n':
+                return '\n';
+            case 'r':
+                return '\r';
+            case 't':
+                return '\t';
+            case 'u':
+                int value = 0;
+
+                for (int i = 0; i < 4; i++)
+                {
+                    int digit = Character.digit(nextChar(), 16);
+
+                    if (digit < 0)
+                    {
+                        throw new IOException("Invalid unicode escape sequence");
+                    }
+
+                    value = (value << 4) | digit;
+                }
+
+                return (char) value;
+            default:
+                // Covers \", \\ and \/
+                return c;
+        }
+    }
+
+    private String readLiteral() throws IOException
+    {
+        _stringBuilder.setLength(0);
+
+        while (_position < _limit || fill())
+        {
+            char c = _buffer[_position];
+
+            if (c == ',' || c == '}' || c == ']' || c == ':' || c == ' ' || c == '\t' || c == '\n' || c == '\r')
+            {
+                break;
+            }
+
+            _stringBuilder.append(c);
+            _position++;
+        }
+
+        return _stringBuilder.toString();
+    }
+
+    private char nextChar() throws IOException
+    {
+        if (_position >= _limit && !fill())
+        {
+            throw new IOException("Unexpected end of document");
+        }
+
+        return _buffer[_position++];
+    }
+
+    private boolean fill() throws IOException
+    {
+        _position = 0;
+        _limit = 0;
+
+        int read = _reader.read(_buffer, 0, _buffer.length);
+
+        if (read <= 0)
+        {
+            return false;
+        }
+
+        _limit = read;
+
+        return true;
+    }
+}
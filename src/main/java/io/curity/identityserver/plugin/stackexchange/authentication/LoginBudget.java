@@ -0,0 +1,142 @@
+/*
+ *  Copyright 2026 Curity AB
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package io.curity.identityserver.plugin.stackexchange.authentication;
+
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.function.Supplier;
+
+/**
+ * Bounds how long a callback may take in total.
+ *
+ * <p>The SDK's web service clients have no per-request timeout, so each call to StackExchange is run on a worker
+ * thread and waited for with the time that remains of the budget. A call that is still running when the budget runs
+ * out is cancelled, which interrupts its thread, and the login fails with a {@link LoginDeadlineExceededException}.
+ * Whatever the cancelled call returns later is discarded; the call closes its own response body, so nothing leaks.
+ *
+ * <p>The executor should be bounded, so that calls that hang can't pile up threads without limit. When it rejects a
+ * call, the login fails like one that ran out of time.
+ */
+final class LoginBudget
+{
+    private final ExecutorService _executor;
+    private final Tracer _tracer;
+    private final long _budgetNanos;
+
+    /**
+     * @param budgetMillis the number of milliseconds that a callback may take; zero for no limit
+     */
+    LoginBudget(ExecutorService executor, Tracer tracer, int budgetMillis)
+    {
+        _executor = executor;
+        _tracer = tracer;
+        _budgetNanos = TimeUnit.MILLISECONDS.toNanos(Math.max(0, budgetMillis));
+    }
+
+    /**
+     * Start the budget of one callback.
+     */
+    Deadline start()
+    {
+        return _budgetNanos == 0 ? Deadline.NONE : new Deadline(this, System.nanoTime() + _budgetNanos);
+    }
+
+    /**
+     * The time that remains for one callback.
+     */
+    static final class Deadline
+    {
+        private static final Deadline NONE = new Deadline(null, 0);
+
+        private final LoginBudget _budget;
+        private final long _deadline;
+
+        private Deadline(LoginBudget budget, long deadline)
+        {
+            _budget = budget;
+            _deadline = deadline;
+        }
+
+        /**
+         * @return the number of nanoseconds that remain, which is negative once the deadline has passed, or
+         * {@link Long#MAX_VALUE} if there is no deadline
+         */
+        long remainingNanos()
+        {
+            return this == NONE ? Long.MAX_VALUE : _deadline - System.nanoTime();
+        }
+
+        /**
+         * Make a call with the time that remains as its timeout. Without a deadline, the call is made on the calling
+         * thread.
+         *
+         * @param operation what the call does, for the error message
+         * @throws LoginDeadlineExceededException if the call doesn't complete in time
+         */
+        <T> T call(String operation, Supplier<T> call)
+        {
+            if (this == NONE)
+            {
+                return call.get();
+            }
+
+            long remaining = remainingNanos();
+
+            if (remaining <= 0)
+            {
+                throw new LoginDeadlineExceededException("No time was left for the " + operation);
+            }
+
+            Future<T> future;
+
+            try
+            {
+                future = _budget._executor.submit(_budget._tracer.wrap(call::get));
+            }
+            catch (RejectedExecutionException e)
+            {
+                throw new LoginDeadlineExceededException("No thread was free for the " + operation);
+            }
+
+            try
+            {
+                return future.get(remaining, TimeUnit.NANOSECONDS);
+            }
+            catch (TimeoutException e)
+            {
+                future.cancel(true);
+
+                throw new LoginDeadlineExceededException("The " + operation + " did not complete in time");
+            }
+            catch (InterruptedException e)
+            {
+                Thread.currentThread().interrupt();
+                future.cancel(true);
+
+                throw new LoginDeadlineExceededException("The " + operation + " was interrupted");
+            }
+            catch (ExecutionException e)
+            {
+                throw Exceptions.rethrow(e.getCause());
+            }
+        }
+    }
+}
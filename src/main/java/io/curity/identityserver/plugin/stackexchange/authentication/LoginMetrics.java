@@ -0,0 +1,113 @@
+/*
+ *  Copyright 2026 Curity AB
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package io.curity.identityserver.plugin.stackexchange.authentication;
+
+/**
+ * A sink for measurements of logins.
+ *
+ * <p>Implementations are called on the request path by every login, so they must be thread-safe and cheap.
+ *
+ * <p>Other implementations can be plugged in, e.g., to forward the measurements to a metrics system, by putting a JAR
+ * next to the plug-in that lists them in {@code META-INF/services/} as a {@link java.util.ServiceLoader} provider of
+ * this interface. They are called in addition to the in-memory metrics, which are exposed over JMX.
+ */
+public interface LoginMetrics
+{
+    /**
+     * Metrics that are discarded.
+     */
+    LoginMetrics DISABLED = new LoginMetrics()
+    {
+        @Override
+        public void recordLatency(LoginPhase phase, long nanos)
+        {
+        }
+
+        @Override
+        public void countUpstreamResponse(UpstreamHost host, int statusCode)
+        {
+        }
+
+        @Override
+        public void countAuthorizationError(boolean accessDenied)
+        {
+        }
+
+        @Override
+        public void countNoAccountRedirect()
+        {
+        }
+
+        @Override
+        public void countCoalescedCallback()
+        {
+        }
+
+        @Override
+        public void countDeadlineExceeded()
+        {
+        }
+
+        @Override
+        public void countHedgedRequest()
+        {
+        }
+
+        @Override
+        public void countProfileCacheLookup(boolean hit)
+        {
+        }
+    };
+
+    void recordLatency(LoginPhase phase, long nanos);
+
+    void countUpstreamResponse(UpstreamHost host, int statusCode);
+
+    /**
+     * Count an error that StackExchange returned to the callback instead of an authorization code.
+     *
+     * @param accessDenied true if the user denied access, false for any other error
+     */
+    void countAuthorizationError(boolean accessDenied);
+
+    /**
+     * Count a user that was sent back to the authenticator because they had no account on the configured site.
+     */
+    void countNoAccountRedirect();
+
+    /**
+     * Count a duplicate callback that shared the outcome of one that was already in flight.
+     */
+    void countCoalescedCallback();
+
+    /**
+     * Count a callback that failed because it ran out of its time budget.
+     */
+    void countDeadlineExceeded();
+
+    /**
+     * Count a second request to the user info endpoint that was sent because the first one was slow.
+     */
+    void countHedgedRequest();
+
+    /**
+     * Count a lookup of a user's profile in the profile cache.
+     *
+     * @param hit true if the profile was cached
+     */
+    void countProfileCacheLookup(boolean hit);
+}
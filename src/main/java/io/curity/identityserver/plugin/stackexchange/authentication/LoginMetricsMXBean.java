@@ -0,0 +1,55 @@
+/*
+ *  Copyright 2026 Curity AB
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+
+package io.curity.identityserver.plugin.stackexchange.authentication;
+
+import java.util.Map;
+
+/**
+ * The in-memory login metrics of an authenticator, as they are exposed over JMX while the server runs, under the name
+ * {@code io.curity.identityserver.plugin.stackexchange:type=LoginMetrics,name=<authenticator ID>}.
+ */
+public interface LoginMetricsMXBean
+{
+    /**
+     * @return the 50th, 99th and 99.9th percentile and the maximum of the latency of each login phase, in
+     * milliseconds, keyed on the phase and the percentile, e.g., {@code CALLBACK.p99}
+     */
+    Map<String, Double> getLatencyMillis();
+
+    /**
+     * @return the number of calls to each host that ended with each status code, keyed on both, e.g.,
+     * {@code API.200}
+     */
+    Map<String, Long> getUpstreamResponseCounts();
+
+    long getAccessDeniedErrorCount();
+
+    long getOtherAuthorizationErrorCount();
+
+    long getNoAccountRedirectCount();
+
+    long getCoalescedCallbackCount();
+
+    long getDeadlineExceededCount();
+
+    long getHedgedRequestCount();
+
+    long getProfileCacheHitCount();
+
+    long getProfileCacheMissCount();
+}
@@ -0,0 +1,58 @@
+/*
+ *  Copyright 2026 Curity AB
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package io.curity.identityserver.plugin.stackexchange.authentication;
+
+/**
+ * The phases of a login whose latency is measured.
+ */
+public enum LoginPhase
+{
+    /**
+     * Creating the state and redirecting the user to StackExchange.
+     */
+    AUTHORIZATION_REDIRECT,
+
+    /**
+     * Checking the state that StackExchange passed back to the callback.
+     */
+    STATE_VALIDATION,
+
+    /**
+     * Redeeming the authorization code at the token endpoint.
+     */
+    TOKEN_EXCHANGE,
+
+    /**
+     * Calling the user info (/me) endpoint, up to the point where the response headers have been received.
+     */
+    USER_INFO_REQUEST,
+
+    /**
+     * Reading and parsing the body of the user info response.
+     */
+    USER_INFO_PARSING,
+
+    /**
+     * Waiting for the profile enrichments after the user info has arrived.
+     */
+    ENRICHMENT,
+
+    /**
+     * The whole callback, from receiving it to having the authentication result.
+     */
+    CALLBACK
+}
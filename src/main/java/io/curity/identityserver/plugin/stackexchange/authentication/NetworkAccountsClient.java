@@ -0,0 +1,179 @@
+/*
+ *  Copyright 2026 Curity AB
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package io.curity.identityserver.plugin.stackexchange.authentication;
+
+import se.curity.identityserver.sdk.Nullable;
+import se.curity.identityserver.sdk.attribute.Attribute;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URI;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Fetches the accounts of a user on all StackExchange sites with one call to /me/associated.
+ *
+ * <p>A page holds up to 100 accounts, which covers nearly every user, so further pages are only requested for the few
+ * that have more. Each account becomes two subject attributes, {@code network.<site>.reputation} and
+ * {@code network.<site>.user_id}, plus {@code network_account_count} for the total.
+ *
+ * <p>If any page can't be fetched, the whole enrichment fails, since a partial list of accounts would look complete.
+ */
+final class NetworkAccountsClient implements ProfileEnrichment
+{
+    static final String PATH = "/2.2/me/associated";
+    static final Set<String> FIELDS = Set.of("site_url", "user_id", "reputation");
+
+    private static final int PAGE_SIZE = 100;
+    private static final int MAX_PAGES = 5;
+
+    private final UpstreamTransport _upstreamTransport;
+    private final ApiFilters _apiFilters;
+    private final SiteRegistry _siteRegistry;
+    private final LoginMetrics _metrics;
+
+    NetworkAccountsClient(UpstreamTransport upstreamTransport, ApiFilters apiFilters, SiteRegistry siteRegistry,
+                          LoginMetrics metrics)
+    {
+        _upstreamTransport = upstreamTransport;
+        _apiFilters = apiFilters;
+        _siteRegistry = siteRegistry;
+        _metrics = metrics;
+    }
+
+    @Override
+    public List<Attribute> getAttributes(String accessToken, AppShard shard) throws IOException
+    {
+        List<Map<String, String>> accounts = new ArrayList<>();
+        boolean hasMore = true;
+
+        for (int page = 1; hasMore && page <= MAX_PAGES; page++)
+        {
+            ApiResponse response = getPage(accessToken, shard, page);
+
+            accounts.addAll(response.getItems());
+            hasMore = response.hasMore();
+        }
+
+        List<Attribute> attributes = new ArrayList<>(accounts.size() * 2 + 1);
+
+        attributes.add(Attribute.of("network_account_count", String.valueOf(accounts.size())));
+
+        for (Map<String, String> account : accounts)
+        {
+            @Nullable String siteUrl = account.get("site_url");
+            @Nullable String site = _siteRegistry.getSiteParameterOf(siteUrl);
+
+            if (site == null)
+            {
+                site = toSiteName(siteUrl);
+            }
+
+            if (site != null)
+            {
+                attributes.add(Attribute.of("network." + site + ".reputation", account.get("reputation")));
+                attributes.add(Attribute.of("network." + site + ".user_id", account.get("user_id")));
+            }
+        }
+
+        return attributes;
+    }
+
+    private ApiResponse getPage(String accessToken, AppShard shard, int page) throws IOException
+    {
+        shard.getQuotaGovernor().acquire(PATH, false);
+
+        Map<String, Collection<String>> parameters = new LinkedHashMap<>(5);
+        @Nullable String filter = _apiFilters.getFilter();
+
+        parameters.put("key", Collections.singleton(shard.getAppKey()));
+        parameters.put("access_token", Collections.singleton(accessToken));
+        parameters.put("pagesize", Collections.singleton(String.valueOf(PAGE_SIZE)));
+        parameters.put("page", Collections.singleton(String.valueOf(page)));
+
+        if (filter != null)
+        {
+            parameters.put("filter", Collections.singleton(filter));
+        }
+
+        UpstreamResponse response = _upstreamTransport.get(UpstreamHost.API, PATH, parameters);
+        ApiResponse result;
+
+        _metrics.countUpstreamResponse(UpstreamHost.API, response.statusCode());
+
+        try (InputStream body = response.body())
+        {
+            result = ApiResponseParser.parse(body, FIELDS, PAGE_SIZE);
+        }
+
+        shard.getQuotaGovernor().observe(PATH, result);
+
+        if (response.statusCode() != 200)
+        {
+            throw new IOException("Error response from " + PATH + ": " + response.statusCode() + ", " +
+                    result.getErrorName() + ": " + result.getErrorMessage());
+        }
+
+        return result;
+    }
+
+    /**
+     * Derive a short site name from a site URL, e.g., {@code stackoverflow} from {@code https://stackoverflow.com} and
+     * {@code math} from {@code https://math.stackexchange.com}. For most sites, this is their API site parameter. Used
+     * for sites that aren't in the site registry.
+     */
+    @Nullable
+    static String toSiteName(@Nullable String siteUrl)
+    {
+        if (siteUrl == null)
+        {
+            return null;
+        }
+
+        @Nullable String host;
+
+        try
+        {
+            host = URI.create(siteUrl).getHost();
+        }
+        catch (IllegalArgumentException e)
+        {
+            return null;
+        }
+
+        if (host == null)
+        {
+            return null;
+        }
+        else if (host.endsWith(".stackexchange.com"))
+        {
+            return host.substring(0, host.length() - ".stackexchange.com".length());
+        }
+        else if (host.endsWith(".com"))
+        {
+            return host.substring(0, host.length() - ".com".length());
+        }
+
+        return host;
+    }
+}
@@ -0,0 +1,291 @@
+/*
+ *  Copyright 2026 Curity AB
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package io.curity.identityserver.plugin.stackexchange.authentication;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import se.curity.identityserver.sdk.Nullable;
+import se.curity.identityserver.sdk.attribute.SubjectAttributes;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A bounded in-memory cache of mapped subject attributes, keyed on the {@code user_id} of the user on the configured
+ * site.
+ *
+ * <p>Each login gets a new access token, so the token can't be used to find a profile that was cached by an earlier
+ * login. The user info is therefore still requested to learn who the user is, but a hit saves the profile enrichment
+ * calls and the mapping.
+ *
+ * <p>Entries expire after a fixed time-to-live. When the cache is full, one caller evicts a batch of entries, expired
+ * ones first and then the least recently used ones, until the cache is down to {@value #LOW_WATER_MARK_PERCENT}% of
+ * its maximum size, so that the cost of the scan and sort is shared by the many puts that then fit. Puts don't wait
+ * for an eviction that another caller is doing. Instead, a put that finds the cache still full while another caller
+ * is evicting is lost, so that login has to fetch the profile again. Since the size is checked before the put, the
+ * cache can briefly hold up to one entry more than its maximum size per concurrent put. All operations are lock-free
+ * apart from the striping done by the underlying {@link ConcurrentHashMap}.
+ */
+final class ProfileCache
+{
+    private static final Logger _logger = LoggerFactory.getLogger(ProfileCache.class);
+    private static final int STATISTICS_LOG_INTERVAL = 1024;
+    private static final int LOW_WATER_MARK_PERCENT = 90;
+
+    private final ConcurrentHashMap<String, Entry> _entries;
+    private final long _timeToLiveNanos;
+    private final int _maxEntries;
+    private final boolean _logStatistics;
+    private final LongAdder _hits = new LongAdder();
+    private final LongAdder _misses = new LongAdder();
+    private final LongAdder _evictions = new LongAdder();
+    private final AtomicLong _lookups = new AtomicLong();
+    private final AtomicBoolean _evicting = new AtomicBoolean();
+
+    ProfileCache(int timeToLiveSeconds, int maxEntries, boolean logStatistics)
+    {
+        _timeToLiveNanos = TimeUnit.SECONDS.toNanos(Math.max(0, timeToLiveSeconds));
+        _maxEntries = Math.max(0, maxEntries);
+        _logStatistics = logStatistics;
+        _entries = new ConcurrentHashMap<>(Math.min(_maxEntries, 1024));
+    }
+
+    boolean isEnabled()
+    {
+        return _timeToLiveNanos > 0 && _maxEntries > 0;
+    }
+
+    @Nullable
+    SubjectAttributes get(String key)
+    {
+        if (!isEnabled())
+        {
+            return null;
+        }
+
+        @Nullable Entry entry = _entries.get(key);
+        @Nullable SubjectAttributes result = null;
+
+        if (entry != null)
+        {
+            if (entry.isExpired(System.nanoTime()))
+            {
+                _entries.remove(key, entry);
+            }
+            else
+            {
+                entry._lastUsed = System.nanoTime();
+                result = entry._subjectAttributes;
+            }
+        }
+
+        if (result == null)
+        {
+            _misses.increment();
+        }
+        else
+        {
+            _hits.increment();
+        }
+
+        maybeLogStatistics();
+
+        return result;
+    }
+
+    void put(String key, SubjectAttributes subjectAttributes)
+    {
+        if (!isEnabled())
+        {
+            return;
+        }
+
+        // While another caller is evicting, a put that finds no room is dropped; the profile is just fetched again
+        if (_entries.size() >= _maxEntries && !_entries.containsKey(key) && !evict() &&
+                _entries.size() >= _maxEntries)
+        {
+            return;
+        }
+
+        long now = System.nanoTime();
+
+        _entries.put(key, new Entry(subjectAttributes, now + _timeToLiveNanos, now));
+    }
+
+    /**
+     * Replace the attributes of an entry that is still cached, without extending its lifetime.
+     *
+     * @return false if there is no such entry, e.g., because it has expired or been evicted
+     */
+    boolean refresh(String key, SubjectAttributes subjectAttributes)
+    {
+        @Nullable Entry entry = _entries.get(key);
+
+        if (entry == null || entry.isExpired(System.nanoTime()))
+        {
+            return false;
+        }
+
+        return _entries.replace(key, entry, new Entry(subjectAttributes, entry._expiresAt, entry._lastUsed));
+    }
+
+    /**
+     * @return whether an entry that hasn't expired is cached on the key, without counting as a hit or a miss
+     */
+    boolean contains(String key)
+    {
+        @Nullable Entry entry = _entries.get(key);
+
+        return entry != null && !entry.isExpired(System.nanoTime());
+    }
+
+    long getHits()
+    {
+        return _hits.sum();
+    }
+
+    long getMisses()
+    {
+        return _misses.sum();
+    }
+
+    long getEvictions()
+    {
+        return _evictions.sum();
+    }
+
+    int size()
+    {
+        return _entries.size();
+    }
+
+    void clear()
+    {
+        _entries.clear();
+    }
+
+    /**
+     * @return false if another caller is already evicting, in which case there may not be room yet
+     */
+    private boolean evict()
+    {
+        if (!_evicting.compareAndSet(false, true))
+        {
+            return false;
+        }
+
+        try
+        {
+            long now = System.nanoTime();
+            long lowWaterMark = (long) _maxEntries * LOW_WATER_MARK_PERCENT / 100;
+            Iterator<Map.Entry<String, Entry>> iterator = _entries.entrySet().iterator();
+
+            // First pass removes whatever has expired; if that isn't enough, drop the least recently used entries
+            while (iterator.hasNext())
+            {
+                if (iterator.next().getValue().isExpired(now))
+                {
+                    iterator.remove();
+                    _evictions.increment();
+                }
+            }
+
+            int excess = _entries.size() - (int) lowWaterMark;
+
+            if (excess <= 0)
+            {
+                return true;
+            }
+
+            // The times of last use are copied, since they keep changing while the candidates are sorted
+            List<Candidate> candidates = new ArrayList<>(_entries.size());
+
+            _entries.forEach((key, entry) -> candidates.add(new Candidate(key, entry, now - entry._lastUsed)));
+            candidates.sort(Comparator.comparingLong((Candidate candidate) -> candidate._idleNanos).reversed());
+
+            for (int i = 0; i < candidates.size() && excess > 0; i++)
+            {
+                Candidate candidate = candidates.get(i);
+
+                // An entry that was replaced meanwhile has just been put, so it stays
+                if (_entries.remove(candidate._key, candidate._entry))
+                {
+                    _evictions.increment();
+                    excess--;
+                }
+            }
+
+            return true;
+        }
+        finally
+        {
+            _evicting.set(false);
+        }
+    }
+
+    private void maybeLogStatistics()
+    {
+        if (_logStatistics && _lookups.incrementAndGet() % STATISTICS_LOG_INTERVAL == 0 && _logger.isInfoEnabled())
+        {
+            _logger.info("Profile cache statistics: hits = {}, misses = {}, evictions = {}, size = {}",
+                    _hits.sum(), _misses.sum(), _evictions.sum(), _entries.size());
+        }
+    }
+
+    private static final class Entry
+    {
+        private final SubjectAttributes _subjectAttributes;
+        private final long _expiresAt;
+
+        // Only read when evicting, so a stale value just makes the eviction slightly less accurate
+        private volatile long _lastUsed;
+
+        private Entry(SubjectAttributes subjectAttributes, long expiresAt, long lastUsed)
+        {
+            _subjectAttributes = subjectAttributes;
+            _expiresAt = expiresAt;
+            _lastUsed = lastUsed;
+        }
+
+        private boolean isExpired(long now)
+        {
+            return now - _expiresAt >= 0;
+        }
+    }
+
+    private static final class Candidate
+    {
+        private final String _key;
+        private final Entry _entry;
+        private final long _idleNanos;
+
+        private Candidate(String key, Entry entry, long idleNanos)
+        {
+            _key = key;
+            _entry = entry;
+            _idleNanos = idleNanos;
+        }
+    }
+}
@@ -0,0 +1,173 @@
+/*
+ *  Copyright 2026 Curity AB
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package io.curity.identityserver.plugin.stackexchange.authentication;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import se.curity.identityserver.sdk.attribute.Attribute;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * Runs the enabled profile enrichments concurrently with the user info request, under one deadline.
+ *
+ * <p>The enrichments are started before the user info request is made, so that a login takes as long as the slowest
+ * of them rather than their sum. When the user info has arrived, the enrichments are waited for until the deadline,
+ * which counts from when they were started, or until the login runs out of time, if that comes first. Whatever has
+ * arrived by then is used; the rest is cancelled and left out, without failing the login. The same goes for an
+ * enrichment that fails. Either way, the profile is {@linkplain Pending#isComplete() incomplete}.
+ */
+final class ProfileEnricher
+{
+    private static final Logger _logger = LoggerFactory.getLogger(ProfileEnricher.class);
+
+    private final List<ProfileEnrichment> _enrichments;
+    private final ExecutorService _executor;
+    private final long _deadlineNanos;
+
+    ProfileEnricher(List<ProfileEnrichment> enrichments, ExecutorService executor, int deadlineMillis)
+    {
+        _enrichments = enrichments;
+        _executor = executor;
+        _deadlineNanos = TimeUnit.MILLISECONDS.toNanos(Math.max(0, deadlineMillis));
+    }
+
+    /**
+     * Start fetching the attributes of every enrichment in the background.
+     *
+     * @param shard the app registration that the access token was issued to
+     */
+    Pending start(String accessToken, AppShard shard)
+    {
+        if (_enrichments.isEmpty())
+        {
+            return Pending.NONE;
+        }
+
+        long deadline = System.nanoTime() + _deadlineNanos;
+        List<Future<List<Attribute>>> futures = new ArrayList<>(_enrichments.size());
+
+        for (ProfileEnrichment enrichment : _enrichments)
+        {
+            futures.add(_executor.submit(() -> enrichment.getAttributes(accessToken, shard)));
+        }
+
+        return new Pending(futures, deadline);
+    }
+
+    /**
+     * The enrichments of one login that are in flight.
+     */
+    static final class Pending
+    {
+        private static final Pending NONE = new Pending(Collections.emptyList(), 0);
+
+        private final List<Future<List<Attribute>>> _futures;
+        private final long _deadline;
+        private boolean _complete = true;
+
+        private Pending(List<Future<List<Attribute>>> futures, long deadline)
+        {
+            _futures = futures;
+            _deadline = deadline;
+        }
+
+        /**
+         * Wait for the enrichments until the deadline, and cancel those that haven't completed by then.
+         *
+         * @param maxWaitNanos the longest time to wait, even if the deadline is later
+         * @return the attributes of the enrichments that completed in time
+         */
+        List<Attribute> collect(long maxWaitNanos)
+        {
+            if (_futures.isEmpty())
+            {
+                return Collections.emptyList();
+            }
+
+            List<Attribute> attributes = new ArrayList<>();
+            long now = System.nanoTime();
+            long deadline = now + Math.min(_deadline - now, maxWaitNanos);
+
+            for (Future<List<Attribute>> future : _futures)
+            {
+                try
+                {
+                    attributes.addAll(future.get(deadline - System.nanoTime(), TimeUnit.NANOSECONDS));
+                }
+                catch (TimeoutException e)
+                {
+                    _logger.debug("A profile enrichment did not complete in time and is left out");
+
+                    future.cancel(true);
+                    _complete = false;
+                }
+                catch (ExecutionException e)
+                {
+                    if (e.getCause() instanceof UpstreamUnavailableException)
+                    {
+                        _logger.info("A profile enrichment was not attempted: {}", e.getCause().getMessage());
+                    }
+                    else
+                    {
+                        _logger.warn("A profile enrichment failed and is left out", e.getCause());
+                    }
+
+                    _complete = false;
+                }
+                catch (InterruptedException e)
+                {
+                    Thread.currentThread().interrupt();
+                    cancel();
+
+                    break;
+                }
+            }
+
+            return attributes;
+        }
+
+        /**
+         * Cancel the enrichments, e.g., because the user info request failed.
+         */
+        void cancel()
+        {
+            for (Future<List<Attribute>> future : _futures)
+            {
+                if (future.cancel(true))
+                {
+                    _complete = false;
+                }
+            }
+        }
+
+        /**
+         * @return false if any enrichment was left out
+         */
+        boolean isComplete()
+        {
+            return _complete;
+        }
+    }
+}
@@ -0,0 +1,41 @@
+/*
+ *  Copyright 2026 Curity AB
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package io.curity.identityserver.plugin.stackexchange.authentication;
+
+import se.curity.identityserver.sdk.attribute.Attribute;
+
+import java.io.IOException;
+import java.util.List;
+
+/**
+ * An optional source of subject attributes, in addition to those of the user info (/me) endpoint.
+ *
+ * <p>Enrichments are a nice-to-have, so they don't fail the login. If their attributes can't be fetched, they throw,
+ * and the {@link ProfileEnricher} leaves them out and keeps the profile from being cached, so that the next login
+ * tries again.
+ */
+interface ProfileEnrichment
+{
+    /**
+     * @param accessToken the StackExchange access token of the user
+     * @param shard the app registration that the access token was issued to
+     * @return the attributes, which are none if the user has none
+     * @throws IOException if the attributes couldn't be fetched
+     * @throws UpstreamUnavailableException if StackExchange wasn't called, e.g., because of a backoff
+     */
+    List<Attribute> getAttributes(String accessToken, AppShard shard) throws IOException;
+}
@@ -0,0 +1,245 @@
+/*
+ *  Copyright 2026 Curity AB
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package io.curity.identityserver.plugin.stackexchange.authentication;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import se.curity.identityserver.sdk.Nullable;
+import se.curity.identityserver.sdk.attribute.Attribute;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Keeps the cached profiles of users fresh in the background, with one call to /users/{ids} per 100 users.
+ *
+ * <p>Users who granted {@code no_expiry} have tokens that don't expire, so their profiles can be cached for a long
+ * time. So that attributes such as the reputation don't go stale meanwhile, the users whose profiles are cached are
+ * tracked by their {@code user_id} on the configured site, and periodically fetched in batches. Each fetched profile
+ * is mapped again, together with the enrichments that were fetched at login, and replaces the cached one without
+ * extending its lifetime. Users whose profile has left the cache are no longer tracked.
+ *
+ * <p>Profiles of other users are public, so no access token is needed, and the primary app key is used. The calls
+ * are non-essential, so a run stops as soon as the quota governor sheds one, e.g., because StackExchange asked to
+ * back off, and the remaining users wait for the next run.
+ */
+final class ProfileSync
+{
+    static final String PATH = "/2.2/users/{ids}";
+
+    private static final Logger _logger = LoggerFactory.getLogger(ProfileSync.class);
+    private static final String PATH_PREFIX = "/2.2/users/";
+    private static final int BATCH_SIZE = 100;
+
+    private final UpstreamTransport _upstreamTransport;
+    private final QuotaGovernor _quotaGovernor;
+    private final ApiFilters _apiFilters;
+    private final SiteRegistry _siteRegistry;
+    private final AttributeMapper _attributeMapper;
+    private final ProfileCache _profileCache;
+    private final LoginMetrics _metrics;
+    private final String _appKey;
+    private final long _intervalMinutes;
+    private final int _maxTracked;
+    private final ConcurrentHashMap<String, Tracked> _tracked = new ConcurrentHashMap<>();
+    private final ScheduledExecutorService _scheduler;
+    private final boolean _enabled;
+
+    /**
+     * @param intervalMinutes the number of minutes between runs, or zero to not sync at all
+     * @param maxTracked the maximum number of users to track, which is normally the size of the profile cache
+     * @param scheduler the scheduler to run the syncs on
+     */
+    ProfileSync(UpstreamTransport upstreamTransport, QuotaGovernor quotaGovernor, ApiFilters apiFilters,
+                SiteRegistry siteRegistry, AttributeMapper attributeMapper, ProfileCache profileCache,
+                LoginMetrics metrics, String appKey, int intervalMinutes, int maxTracked,
+                ScheduledExecutorService scheduler)
+    {
+        _upstreamTransport = upstreamTransport;
+        _quotaGovernor = quotaGovernor;
+        _apiFilters = apiFilters;
+        _siteRegistry = siteRegistry;
+        _attributeMapper = attributeMapper;
+        _profileCache = profileCache;
+        _metrics = metrics;
+        _appKey = appKey;
+        _intervalMinutes = Math.max(0, intervalMinutes);
+        _maxTracked = maxTracked;
+        _scheduler = scheduler;
+        _enabled = _intervalMinutes > 0 && profileCache.isEnabled();
+    }
+
+    boolean isEnabled()
+    {
+        return _enabled;
+    }
+
+    void start()
+    {
+        if (_enabled)
+        {
+            _scheduler.scheduleWithFixedDelay(this::sync, _intervalMinutes, _intervalMinutes, TimeUnit.MINUTES);
+        }
+    }
+
+    /**
+     * Keep the cached profile of a user fresh.
+     *
+     * @param cacheKey the key that the profile is cached on
+     * @param userId the {@code user_id} of the user on the configured site, or null if it isn't known
+     * @param additionalAttributes the attributes of the profile enrichments, which are kept as they are
+     */
+    void track(String cacheKey, @Nullable String userId, List<Attribute> additionalAttributes)
+    {
+        if (!_enabled || userId == null)
+        {
+            return;
+        }
+
+        if (_tracked.size() >= _maxTracked && !_tracked.containsKey(userId))
+        {
+            _logger.debug("Not tracking the profile of user {}, since {} users are already tracked", userId,
+                    _maxTracked);
+
+            return;
+        }
+
+        _tracked.put(userId, new Tracked(cacheKey, additionalAttributes));
+    }
+
+    int getTrackedCount()
+    {
+        return _tracked.size();
+    }
+
+    /**
+     * Refresh the cached profiles of all tracked users.
+     */
+    void sync()
+    {
+        _tracked.values().removeIf(tracked -> !_profileCache.contains(tracked._cacheKey));
+
+        List<String> userIds = new ArrayList<>(_tracked.keySet());
+        int refreshed = 0;
+
+        for (int from = 0; from < userIds.size(); from += BATCH_SIZE)
+        {
+            try
+            {
+                refreshed += refresh(userIds.subList(from, Math.min(from + BATCH_SIZE, userIds.size())));
+            }
+            catch (UpstreamUnavailableException e)
+            {
+                _logger.info("Stopping the sync of cached profiles, {} of {} were refreshed: {}", refreshed,
+                        userIds.size(), e.getMessage());
+
+                return;
+            }
+            catch (IOException | RuntimeException e)
+            {
+                _logger.warn("Could not refresh a batch of cached profiles", e);
+            }
+        }
+
+        _logger.debug("Refreshed {} of {} cached profiles", refreshed, userIds.size());
+    }
+
+    /**
+     * @return the number of cached profiles that were refreshed
+     */
+    private int refresh(List<String> userIds) throws IOException
+    {
+        _quotaGovernor.acquire(PATH, false);
+
+        Map<String, Collection<String>> parameters = new LinkedHashMap<>(5);
+        @Nullable String filter = _apiFilters.getFilter();
+
+        parameters.put("key", Collections.singleton(_appKey));
+        parameters.put("site", Collections.singleton(_siteRegistry.getSite()));
+        parameters.put("pagesize", Collections.singleton(String.valueOf(BATCH_SIZE)));
+
+        if (filter != null)
+        {
+            parameters.put("filter", Collections.singleton(filter));
+        }
+
+        UpstreamResponse response = _upstreamTransport.get(UpstreamHost.API,
+                PATH_PREFIX + String.join(";", userIds), parameters);
+        ApiResponse result;
+
+        _metrics.countUpstreamResponse(UpstreamHost.API, response.statusCode());
+
+        try (InputStream body = response.body())
+        {
+            result = ApiResponseParser.parse(body, _attributeMapper.getFields(), BATCH_SIZE);
+        }
+
+        _quotaGovernor.observe(PATH, result);
+
+        if (response.statusCode() != 200)
+        {
+            throw new IOException("Error response from " + PATH + ": " + response.statusCode() + ", " +
+                    result.getErrorName() + ": " + result.getErrorMessage());
+        }
+
+        int refreshed = 0;
+
+        for (Map<String, String> user : result.getItems())
+        {
+            @Nullable String userId = user.get("user_id");
+            @Nullable Tracked tracked = userId == null ? null : _tracked.get(userId);
+
+            if (tracked == null)
+            {
+                continue;
+            }
+
+            if (_profileCache.refresh(tracked._cacheKey,
+                    _attributeMapper.map(user, tracked._additionalAttributes)))
+            {
+                refreshed++;
+            }
+            else
+            {
+                _tracked.remove(userId, tracked);
+            }
+        }
+
+        return refreshed;
+    }
+
+    private static final class Tracked
+    {
+        private final String _cacheKey;
+        private final List<Attribute> _additionalAttributes;
+
+        private Tracked(String cacheKey, List<Attribute> additionalAttributes)
+        {
+            _cacheKey = cacheKey;
+            _additionalAttributes = additionalAttributes;
+        }
+    }
+}
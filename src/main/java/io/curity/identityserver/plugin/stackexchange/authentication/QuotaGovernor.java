@@ -0,0 +1,334 @@
+/*
+ *  Copyright 2026 Curity AB
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package io.curity.identityserver.plugin.stackexchange.authentication;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import se.curity.identityserver.sdk.Nullable;
+import se.curity.identityserver.sdk.service.Bucket;
+
+import java.time.Instant;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Keeps the authenticator within the request quota of its StackExchange app key.
+ *
+ * <p>StackExchange returns a {@code backoff} field when a method should not be called again for some seconds, and
+ * the remaining daily quota of the key on every response. Ignoring either gets the whole key throttled, so:
+ *
+ * <ul>
+ *     <li>While a method is backed off, essential calls wait for the backoff to end if that is soon enough and fail
+ *     fast otherwise; non-essential calls fail fast.</li>
+ *     <li>When the remaining quota falls to the configured reserve, non-essential calls are shed, so that the rest of
+ *     the quota is left for logins. When it is exhausted, all calls fail fast until the quota resets.</li>
+ * </ul>
+ *
+ * <p>If a bucket is configured, the state is shared through it, so that all nodes of a cluster respect the same
+ * backoff and quota. It is synchronized at most once per {@code SYNC_INTERVAL}, by whichever request gets there
+ * first, and immediately whenever a new backoff is observed.
+ */
+final class QuotaGovernor
+{
+    private static final Logger _logger = LoggerFactory.getLogger(QuotaGovernor.class);
+    private static final long SYNC_INTERVAL_MILLIS = TimeUnit.SECONDS.toMillis(10);
+    private static final long DAY_MILLIS = TimeUnit.DAYS.toMillis(1);
+    private static final long DEFAULT_THROTTLE_BACKOFF_SECONDS = 60;
+    private static final Pattern THROTTLE_WAIT = Pattern.compile("available in (\\d+) seconds");
+    private static final String BUCKET_PURPOSE = "stackexchange-quota";
+    private static final String QUOTA_REMAINING = "quota_remaining";
+    private static final String QUOTA_OBSERVED_AT = "quota_observed_at";
+    private static final String BACKOFF_PREFIX = "backoff:";
+
+    private final int _quotaReserve;
+    private final long _maxBackoffWaitMillis;
+    private final String _bucketSubject;
+
+    @Nullable
+    private final Bucket _bucket;
+
+    private final ConcurrentHashMap<String, Long> _backoffUntil = new ConcurrentHashMap<>();
+    private final AtomicLong _lastSync = new AtomicLong();
+    private volatile int _quotaRemaining = Integer.MAX_VALUE;
+    private volatile long _quotaObservedAt;
+
+    /**
+     * @param quotaReserve the remaining quota at or below which non-essential calls are shed
+     * @param maxBackoffWaitMillis the longest time that an essential call waits for a backoff to end
+     * @param appKey the app key whose quota is governed; used to key the shared state in the bucket
+     * @param bucket the bucket to share state through, or null to keep it local to this node
+     */
+    QuotaGovernor(int quotaReserve, long maxBackoffWaitMillis, String appKey, @Nullable Bucket bucket)
+    {
+        _quotaReserve = quotaReserve;
+        _maxBackoffWaitMillis = maxBackoffWaitMillis;
+        _bucketSubject = appKey;
+        _bucket = bucket;
+    }
+
+    /**
+     * Wait until the given method may be called.
+     *
+     * @param method the API method, e.g., {@code /2.2/me}
+     * @param essential whether a login fails without this call
+     * @throws UpstreamUnavailableException if the call may not be made now
+     */
+    void acquire(String method, boolean essential)
+    {
+        long now = System.currentTimeMillis();
+
+        maybeSync(now);
+
+        if (isQuotaExhausted(now))
+        {
+            throw new UpstreamUnavailableException("The StackExchange API quota of the app key is exhausted");
+        }
+
+        if (!essential && _quotaRemaining <= _quotaReserve && isSameQuotaDay(_quotaObservedAt, now))
+        {
+            throw new UpstreamUnavailableException("Shedding non-essential call to " + method +
+                    "; only " + _quotaRemaining + " requests of the quota remain");
+        }
+
+        @Nullable Long backoffUntil = _backoffUntil.get(method);
+
+        if (backoffUntil == null || backoffUntil <= now)
+        {
+            return;
+        }
+
+        long wait = backoffUntil - now;
+
+        if (!essential || wait > _maxBackoffWaitMillis)
+        {
+            throw new UpstreamUnavailableException(method + " is backed off for another " + wait + " ms");
+        }
+
+        _logger.debug("Waiting {} ms for the backoff of {} to end", wait, method);
+
+        try
+        {
+            Thread.sleep(wait);
+        }
+        catch (InterruptedException e)
+        {
+            Thread.currentThread().interrupt();
+
+            throw new UpstreamUnavailableException("Interrupted while waiting for the backoff of " + method);
+        }
+    }
+
+    /**
+     * Check, without waiting, whether an essential call to the given method could be made now.
+     *
+     * @return false if the quota is exhausted, or the method is backed off for longer than an essential call waits
+     */
+    boolean isAvailable(String method)
+    {
+        long now = System.currentTimeMillis();
+
+        maybeSync(now);
+
+        if (isQuotaExhausted(now))
+        {
+            return false;
+        }
+
+        @Nullable Long backoffUntil = _backoffUntil.get(method);
+
+        return backoffUntil == null || backoffUntil - now <= _maxBackoffWaitMillis;
+    }
+
+    /**
+     * Take note of the throttling information in a response.
+     */
+    void observe(String method, ApiResponse response)
+    {
+        long now = System.currentTimeMillis();
+        boolean backedOff = false;
+
+        if (response.getQuotaRemaining() != null)
+        {
+            _quotaRemaining = response.getQuotaRemaining();
+            _quotaObservedAt = now;
+        }
+
+        if (response.getBackoff() != null)
+        {
+            backedOff = backOff(method, now + TimeUnit.SECONDS.toMillis(response.getBackoff()));
+        }
+        else if ("throttle_violation".equals(response.getErrorName()))
+        {
+            backedOff = backOff(method, now + TimeUnit.SECONDS.toMillis(getThrottleWait(response.getErrorMessage())));
+        }
+
+        if (backedOff)
+        {
+            _logger.info("StackExchange asked to back off from {} until {}", method,
+                    Instant.ofEpochMilli(_backoffUntil.get(method)));
+            store(now);
+        }
+    }
+
+    int getQuotaRemaining()
+    {
+        return _quotaRemaining;
+    }
+
+    /**
+     * @return true if this extended the backoff of the method
+     */
+    private boolean backOff(String method, long until)
+    {
+        long previous = _backoffUntil.getOrDefault(method, 0L);
+
+        _backoffUntil.merge(method, until, Math::max);
+
+        return until > previous;
+    }
+
+    private boolean isQuotaExhausted(long now)
+    {
+        return _quotaRemaining <= 0 && isSameQuotaDay(_quotaObservedAt, now);
+    }
+
+    /**
+     * The daily quota resets at midnight UTC, after which a quota observed earlier is stale.
+     */
+    private static boolean isSameQuotaDay(long observedAt, long now)
+    {
+        return observedAt / DAY_MILLIS == now / DAY_MILLIS;
+    }
+
+    private static long getThrottleWait(@Nullable String errorMessage)
+    {
+        if (errorMessage != null)
+        {
+            Matcher matcher = THROTTLE_WAIT.matcher(errorMessage);
+
+            if (matcher.find())
+            {
+                return Long.parseLong(matcher.group(1));
+            }
+        }
+
+        return DEFAULT_THROTTLE_BACKOFF_SECONDS;
+    }
+
+    private void maybeSync(long now)
+    {
+        long lastSync = _lastSync.get();
+
+        if (_bucket == null || now - lastSync < SYNC_INTERVAL_MILLIS || !_lastSync.compareAndSet(lastSync, now))
+        {
+            return;
+        }
+
+        try
+        {
+            load(now);
+            store(now);
+        }
+        catch (RuntimeException e)
+        {
+            _logger.warn("Could not synchronize the StackExchange quota state with the bucket", e);
+        }
+    }
+
+    private void load(long now)
+    {
+        @Nullable Map<String, Object> shared = _bucket.getAttributes(_bucketSubject, BUCKET_PURPOSE);
+
+        if (shared == null)
+        {
+            return;
+        }
+
+        long observedAt = toLong(shared.get(QUOTA_OBSERVED_AT));
+
+        // The most recent observation of any node wins
+        if (observedAt > _quotaObservedAt && isSameQuotaDay(observedAt, now))
+        {
+            _quotaRemaining = (int) toLong(shared.get(QUOTA_REMAINING));
+            _quotaObservedAt = observedAt;
+        }
+
+        shared.forEach((key, value) ->
+        {
+            if (key.startsWith(BACKOFF_PREFIX) && toLong(value) > now)
+            {
+                _backoffUntil.merge(key.substring(BACKOFF_PREFIX.length()), toLong(value), Math::max);
+            }
+        });
+    }
+
+    private void store(long now)
+    {
+        if (_bucket == null)
+        {
+            return;
+        }
+
+        Map<String, Object> shared = new HashMap<>();
+
+        shared.put(QUOTA_REMAINING, _quotaRemaining);
+        shared.put(QUOTA_OBSERVED_AT, _quotaObservedAt);
+
+        _backoffUntil.forEach((method, until) ->
+        {
+            if (until > now)
+            {
+                shared.put(BACKOFF_PREFIX + method, until);
+            }
+        });
+
+        try
+        {
+            _bucket.storeAttributes(_bucketSubject, BUCKET_PURPOSE, shared);
+        }
+        catch (RuntimeException e)
+        {
+            _logger.warn("Could not store the StackExchange quota state in the bucket", e);
+        }
+    }
+
+    private static long toLong(@Nullable Object value)
+    {
+        if (value instanceof Number)
+        {
+            return ((Number) value).longValue();
+        }
+        else if (value != null)
+        {
+            try
+            {
+                return Long.parseLong(value.toString());
+            }
+            catch (NumberFormatException e)
+            {
+                return 0;
+            }
+        }
+
+        return 0;
+    }
+}
@@ -0,0 +1,264 @@
+/*
+ *  Copyright 2026 Curity AB
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package io.curity.identityserver.plugin.stackexchange.authentication;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import se.curity.identityserver.sdk.Nullable;
+
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * A tracer that records spans and hands them to an exporter when they end.
+ *
+ * <p>The span that is open on a thread is kept in a thread-local, so that spans nest like the calls they time, and
+ * so that the {@code traceparent} of an outbound call can be found without passing it around. Trace and span IDs are
+ * random, as the W3C Trace Context specification requires, unless a request continues the trace of its caller.
+ */
+final class RecordingTracer implements Tracer
+{
+    private static final Logger _logger = LoggerFactory.getLogger(RecordingTracer.class);
+    private static final Pattern TRACEPARENT = Pattern.compile(
+            "([0-9a-f]{2})-([0-9a-f]{32})-([0-9a-f]{16})-[0-9a-f]{2}(-.*)?");
+    private static final String INVALID_TRACE_ID = "0".repeat(32);
+    private static final String INVALID_SPAN_ID = "0".repeat(16);
+
+    private final SpanExporter _exporter;
+    private final ThreadLocal<RecordingSpan> _current = new ThreadLocal<>();
+
+    RecordingTracer(SpanExporter exporter)
+    {
+        _exporter = exporter;
+    }
+
+    @Override
+    public Span startSpan(String name)
+    {
+        @Nullable RecordingSpan parent = _current.get();
+        RecordingSpan span = new RecordingSpan(name, parent == null ? newTraceId() : parent._traceId, parent, null);
+
+        _current.set(span);
+
+        return span;
+    }
+
+    @Override
+    public Span startSpan(String name, @Nullable String traceparent)
+    {
+        if (traceparent == null || _current.get() != null)
+        {
+            return startSpan(name);
+        }
+
+        Matcher matcher = TRACEPARENT.matcher(traceparent.trim());
+
+        // Version ff is invalid, and later versions may only add fields at the end
+        if (!matcher.matches() || "ff".equals(matcher.group(1)) || ("00".equals(matcher.group(1)) &&
+                matcher.group(4) != null) || INVALID_TRACE_ID.equals(matcher.group(2)) ||
+                INVALID_SPAN_ID.equals(matcher.group(3)))
+        {
+            _logger.debug("Ignoring invalid traceparent header {}", traceparent);
+
+            return startSpan(name);
+        }
+
+        RecordingSpan span = new RecordingSpan(name, matcher.group(2), null, matcher.group(3));
+
+        _current.set(span);
+
+        return span;
+    }
+
+    @Nullable
+    @Override
+    public String getTraceparent()
+    {
+        @Nullable RecordingSpan span = _current.get();
+
+        return span == null ? null : "00-" + span._traceId + "-" + span._spanId + "-01";
+    }
+
+    @Override
+    public <T> Callable<T> wrap(Callable<T> task)
+    {
+        @Nullable RecordingSpan parent = _current.get();
+
+        if (parent == null)
+        {
+            return task;
+        }
+
+        return () ->
+        {
+            @Nullable RecordingSpan previous = _current.get();
+
+            _current.set(parent);
+
+            try
+            {
+                return task.call();
+            }
+            finally
+            {
+                if (previous == null)
+                {
+                    _current.remove();
+                }
+                else
+                {
+                    _current.set(previous);
+                }
+            }
+        };
+    }
+
+    private static String newTraceId()
+    {
+        return toHex(randomNonZeroLong()) + toHex(ThreadLocalRandom.current().nextLong());
+    }
+
+    private static long randomNonZeroLong()
+    {
+        long value;
+
+        do
+        {
+            value = ThreadLocalRandom.current().nextLong();
+        }
+        while (value == 0);
+
+        return value;
+    }
+
+    private static String toHex(long value)
+    {
+        String hex = Long.toHexString(value);
+
+        return hex.length() == 16 ? hex : "0".repeat(16 - hex.length()) + hex;
+    }
+
+    private final class RecordingSpan implements Span
+    {
+        private final String _name;
+        private final String _traceId;
+        private final String _spanId = toHex(randomNonZeroLong());
+
+        @Nullable
+        private final RecordingSpan _parent;
+
+        // The span of the caller that this one continues the trace of, if any
+        @Nullable
+        private final String _remoteParentSpanId;
+
+        private final long _startEpochMicros = TimeUnit.MILLISECONDS.toMicros(System.currentTimeMillis());
+        private final long _startNanos = System.nanoTime();
+        // Attributes may be set by the workers that a span is passed to, so the map is synchronized
+        private final Map<String, Object> _attributes = Collections.synchronizedMap(new LinkedHashMap<>(8));
+
+        @Nullable
+        private volatile String _error;
+
+        private volatile boolean _ended;
+
+        private RecordingSpan(String name, String traceId, @Nullable RecordingSpan parent,
+                              @Nullable String remoteParentSpanId)
+        {
+            _name = name;
+            _traceId = traceId;
+            _parent = parent;
+            _remoteParentSpanId = remoteParentSpanId;
+        }
+
+        @Override
+        public boolean isRecording()
+        {
+            return !_ended;
+        }
+
+        @Override
+        public Span setAttribute(String key, String value)
+        {
+            _attributes.put(key, value);
+
+            return this;
+        }
+
+        @Override
+        public Span setAttribute(String key, long value)
+        {
+            _attributes.put(key, value);
+
+            return this;
+        }
+
+        @Override
+        public Span setError(String description)
+        {
+            _error = description;
+
+            return this;
+        }
+
+        @Override
+        public void close()
+        {
+            if (_ended)
+            {
+                return;
+            }
+
+            _ended = true;
+
+            if (_current.get() == this)
+            {
+                if (_parent == null)
+                {
+                    _current.remove();
+                }
+                else
+                {
+                    _current.set(_parent);
+                }
+            }
+
+            Map<String, Object> attributes;
+
+            synchronized (_attributes)
+            {
+                attributes = Collections.unmodifiableMap(new LinkedHashMap<>(_attributes));
+            }
+
+            try
+            {
+                _exporter.export(new SpanData(_name, _traceId, _spanId,
+                        _parent == null ? _remoteParentSpanId : _parent._spanId, _startEpochMicros,
+                        System.nanoTime() - _startNanos, attributes, _error));
+            }
+            catch (RuntimeException e)
+            {
+                _logger.debug("Could not export span {}", _name, e);
+            }
+        }
+    }
+}
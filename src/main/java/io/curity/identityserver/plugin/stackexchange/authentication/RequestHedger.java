@@ -0,0 +1,274 @@
+/*
+ *  Copyright 2026 Curity AB
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package io.curity.identityserver.plugin.stackexchange.authentication;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Supplier;
+
+/**
+ * Sends a second, hedged request when the first one is slower than most recent ones, and uses whichever response
+ * arrives first. Only suitable for idempotent requests, such as the one to /me.
+ *
+ * <p>The hedge is sent once the first request has been outstanding for longer than the configured percentile of
+ * recent latencies, which are kept in two windows of {@value #WINDOW_SIZE} requests each, so that the percentile
+ * follows changes in the latency of StackExchange. The extra load is capped by a budget: every request earns a
+ * fraction of a hedge, e.g., 5% of one, and a hedge can only be sent when a whole one has been earned. When no hedge
+ * can be sent, the request is made on the calling thread, just like without hedging.
+ *
+ * <p>The response that loses the race is closed as soon as it arrives, which releases its room in the bulkhead of the
+ * host. The quota of the app key is only acquired once per lookup, since hedges are rare and the quota is counted in
+ * requests per day.
+ */
+final class RequestHedger
+{
+    private static final Logger _logger = LoggerFactory.getLogger(RequestHedger.class);
+    private static final int WINDOW_SIZE = 1000;
+    private static final int MIN_SAMPLES = 50;
+    private static final long HEDGE_COST = 1000;
+    private static final long MAX_SAVED_HEDGES = 10;
+
+    private final ExecutorService _executor;
+    private final Tracer _tracer;
+    private final LoginMetrics _metrics;
+    private final int _percentile;
+    private final long _earnedPerRequest;
+    private final AtomicLong _budget = new AtomicLong();
+    private volatile LatencyHistogram _currentWindow = new LatencyHistogram();
+    private volatile LatencyHistogram _previousWindow;
+
+    /**
+     * @param percentile the percentile of recent latencies after which a hedge is sent; zero disables hedging
+     * @param budgetPercent the maximum number of hedges, as a percentage of all requests
+     */
+    RequestHedger(ExecutorService executor, Tracer tracer, LoginMetrics metrics, int percentile, int budgetPercent)
+    {
+        _executor = executor;
+        _tracer = tracer;
+        _metrics = metrics;
+        _percentile = Math.max(0, Math.min(100, percentile));
+        _earnedPerRequest = HEDGE_COST * Math.max(0, Math.min(100, budgetPercent)) / 100;
+    }
+
+    /**
+     * Make a request, hedging it if it's slow and the budget allows.
+     *
+     * @param request the request, which may be made twice, concurrently
+     * @param span the span of the request, which is marked if a hedge was sent
+     */
+    UpstreamResponse get(Supplier<UpstreamResponse> request, Span span)
+    {
+        if (_percentile == 0)
+        {
+            return request.get();
+        }
+
+        earn();
+
+        long hedgeDelay = getHedgeDelayNanos();
+
+        if (hedgeDelay < 0 || _budget.get() < HEDGE_COST)
+        {
+            long start = System.nanoTime();
+            UpstreamResponse response = request.get();
+
+            recordLatency(System.nanoTime() - start);
+
+            return response;
+        }
+
+        Race race = new Race(_tracer.wrap(request::get));
+
+        race.start();
+
+        try
+        {
+            try
+            {
+                return race._winner.get(hedgeDelay, TimeUnit.NANOSECONDS);
+            }
+            catch (TimeoutException e)
+            {
+                if (spend())
+                {
+                    _metrics.countHedgedRequest();
+                    span.setAttribute("stackexchange.hedged", 1);
+                    race.start();
+                }
+
+                return race._winner.get();
+            }
+        }
+        catch (InterruptedException e)
+        {
+            Thread.currentThread().interrupt();
+            race.abandon();
+
+            throw new LoginDeadlineExceededException("The request was interrupted while waiting for a response");
+        }
+        catch (ExecutionException e)
+        {
+            throw Exceptions.rethrow(e.getCause());
+        }
+    }
+
+    /**
+     * @return the number of nanoseconds after which a hedge is sent, or -1 if too few latencies have been recorded
+     * to tell
+     */
+    long getHedgeDelayNanos()
+    {
+        LatencyHistogram previousWindow = _previousWindow;
+        LatencyHistogram window = previousWindow == null ? _currentWindow : previousWindow;
+
+        return window.getCount() < MIN_SAMPLES ? -1 : window.getValueAtPercentile(_percentile);
+    }
+
+    private void recordLatency(long nanos)
+    {
+        LatencyHistogram window = _currentWindow;
+
+        window.record(nanos);
+
+        if (window.getCount() >= WINDOW_SIZE)
+        {
+            synchronized (this)
+            {
+                if (_currentWindow == window)
+                {
+                    _previousWindow = window;
+                    _currentWindow = new LatencyHistogram();
+                }
+            }
+        }
+    }
+
+    private void earn()
+    {
+        long budget;
+
+        do
+        {
+            budget = _budget.get();
+
+            if (budget >= MAX_SAVED_HEDGES * HEDGE_COST)
+            {
+                return;
+            }
+        }
+        while (!_budget.compareAndSet(budget, budget + _earnedPerRequest));
+    }
+
+    private boolean spend()
+    {
+        long budget;
+
+        do
+        {
+            budget = _budget.get();
+
+            if (budget < HEDGE_COST)
+            {
+                return false;
+            }
+        }
+        while (!_budget.compareAndSet(budget, budget - HEDGE_COST));
+
+        return true;
+    }
+
+    private static void close(UpstreamResponse response)
+    {
+        try
+        {
+            response.body().close();
+        }
+        catch (IOException e)
+        {
+            _logger.debug("Could not close the body of a discarded response", e);
+        }
+    }
+
+    /**
+     * The requests of one lookup, of which the first response wins. The lookup only fails if every request fails.
+     */
+    private final class Race
+    {
+        private final CompletableFuture<UpstreamResponse> _winner = new CompletableFuture<>();
+        private final AtomicInteger _pending = new AtomicInteger();
+        private final Callable<UpstreamResponse> _request;
+
+        private Race(Callable<UpstreamResponse> request)
+        {
+            _request = request;
+        }
+
+        private void start()
+        {
+            _pending.incrementAndGet();
+            _executor.execute(this::attempt);
+        }
+
+        private void attempt()
+        {
+            long start = System.nanoTime();
+            UpstreamResponse response;
+
+            try
+            {
+                response = _request.call();
+            }
+            catch (Throwable e)
+            {
+                if (_pending.decrementAndGet() == 0)
+                {
+                    _winner.completeExceptionally(e);
+                }
+
+                return;
+            }
+
+            recordLatency(System.nanoTime() - start);
+
+            if (!_winner.complete(response))
+            {
+                close(response);
+            }
+        }
+
+        /**
+         * Stop waiting for the race, making sure that the body of a response that already won it is closed.
+         */
+        private void abandon()
+        {
+            if (!_winner.cancel(false) && !_winner.isCompletedExceptionally())
+            {
+                close(_winner.join());
+            }
+        }
+    }
+}
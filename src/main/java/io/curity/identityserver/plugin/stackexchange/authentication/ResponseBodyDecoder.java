@@ -0,0 +1,404 @@
+/*
+ *  Copyright 2026 Curity AB
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package io.curity.identityserver.plugin.stackexchange.authentication;
+
+import se.curity.identityserver.sdk.Nullable;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.Reader;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CoderResult;
+import java.nio.charset.CodingErrorAction;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+import java.util.zip.ZipException;
+
+/**
+ * Turns the body of a StackExchange response into a character stream.
+ *
+ * <p>The StackExchange API always compresses its responses, whether or not the client asked for it. Depending on the
+ * HTTP client, the body may or may not already have been inflated, so the stream is sniffed for the GZIP magic
+ * number and only inflated if it is actually compressed. Decoding is done incrementally, so the body is never held in
+ * memory as a whole.
+ *
+ * <p>A login decodes a couple of small responses, so the fixed costs dominate: a new {@link Inflater} with its native
+ * state, and the buffers of a {@code GZIPInputStream}, a {@code BufferedInputStream} and an
+ * {@code InputStreamReader}. Instead, the inflater, the byte buffers and the UTF-8 decoder are pooled together, and
+ * the decoder writes straight into the buffer of the caller, i.e., the JSON parser. The GZIP header is parsed here,
+ * and the trailer isn't verified, since TLS already protects the integrity of the body.
+ */
+final class ResponseBodyDecoder
+{
+    private static final int BUFFER_SIZE = 8192;
+    private static final int MAX_POOLED_CONTEXTS = 64;
+    private static final int GZIP_MAGIC_FIRST_BYTE = 0x1f;
+    private static final int GZIP_MAGIC_SECOND_BYTE = 0x8b;
+    private static final int GZIP_DEFLATE_METHOD = 8;
+    private static final int GZIP_HEADER_SIZE = 10;
+    private static final int FLAG_HEADER_CRC = 2;
+    private static final int FLAG_EXTRA = 4;
+    private static final int FLAG_NAME = 8;
+    private static final int FLAG_COMMENT = 16;
+
+    private static final ConcurrentLinkedQueue<Context> _pool = new ConcurrentLinkedQueue<>();
+    private static final AtomicInteger _pooledCount = new AtomicInteger();
+
+    private ResponseBodyDecoder()
+    {
+    }
+
+    /**
+     * @param body the (possibly compressed) response body, which is closed when the reader is
+     * @return a reader of the UTF-8 decoded body
+     */
+    static Reader openReader(InputStream body) throws IOException
+    {
+        Context context = acquire();
+
+        try
+        {
+            return new BodyReader(body, context);
+        }
+        catch (IOException | RuntimeException e)
+        {
+            release(context);
+
+            throw e;
+        }
+    }
+
+    /**
+     * Read the whole body into a string, e.g., to log an error response.
+     */
+    static String readString(InputStream body) throws IOException
+    {
+        try (Reader reader = openReader(body))
+        {
+            StringBuilder result = new StringBuilder(256);
+            char[] buffer = new char[512];
+            int read;
+
+            while ((read = reader.read(buffer, 0, buffer.length)) >= 0)
+            {
+                result.append(buffer, 0, read);
+            }
+
+            return result.toString();
+        }
+    }
+
+    private static Context acquire()
+    {
+        @Nullable Context context = _pool.poll();
+
+        if (context == null)
+        {
+            return new Context();
+        }
+
+        _pooledCount.decrementAndGet();
+
+        return context;
+    }
+
+    private static void release(Context context)
+    {
+        context.reset();
+
+        if (_pooledCount.incrementAndGet() <= MAX_POOLED_CONTEXTS)
+        {
+            _pool.offer(context);
+        }
+        else
+        {
+            _pooledCount.decrementAndGet();
+            context._inflater.end();
+        }
+    }
+
+    /**
+     * The state that is reused from one body to the next.
+     */
+    private static final class Context
+    {
+        private final Inflater _inflater = new Inflater(true);
+        private final byte[] _input = new byte[BUFFER_SIZE];
+        private final ByteBuffer _bytes = ByteBuffer.allocate(BUFFER_SIZE);
+        private final CharsetDecoder _decoder = StandardCharsets.UTF_8.newDecoder()
+                .onMalformedInput(CodingErrorAction.REPLACE)
+                .onUnmappableCharacter(CodingErrorAction.REPLACE);
+
+        private void reset()
+        {
+            _inflater.reset();
+            _bytes.clear();
+            _decoder.reset();
+        }
+    }
+
+    private static final class BodyReader extends Reader
+    {
+        private final InputStream _body;
+        private final Context _context;
+        private final boolean _compressed;
+
+        // The number of bytes in the input buffer and how many of them have been consumed
+        private int _inputLimit;
+        private int _inputPosition;
+        private boolean _endOfInput;
+        private boolean _flushed;
+        private boolean _closed;
+
+        private BodyReader(InputStream body, Context context) throws IOException
+        {
+            _body = body;
+            _context = context;
+
+            fillInput(2);
+
+            _compressed = _inputLimit >= 2 && (_context._input[0] & 0xff) == GZIP_MAGIC_FIRST_BYTE &&
+                    (_context._input[1] & 0xff) == GZIP_MAGIC_SECOND_BYTE;
+
+            if (_compressed)
+            {
+                skipGzipHeader();
+                _context._inflater.setInput(_context._input, _inputPosition, _inputLimit - _inputPosition);
+            }
+            else
+            {
+                _context._bytes.put(_context._input, 0, _inputLimit);
+            }
+
+            // The byte buffer is kept ready for reading between calls
+            _context._bytes.flip();
+        }
+
+        @Override
+        public int read(char[] buffer, int offset, int length) throws IOException
+        {
+            if (_closed)
+            {
+                throw new IOException("The response body is closed");
+            }
+
+            if (length == 0 || _flushed)
+            {
+                return _flushed ? -1 : 0;
+            }
+
+            CharBuffer out = CharBuffer.wrap(buffer, offset, length);
+            ByteBuffer bytes = _context._bytes;
+
+            while (true)
+            {
+                CoderResult result = _context._decoder.decode(bytes, out, _endOfInput);
+
+                if (_endOfInput && result.isUnderflow())
+                {
+                    _flushed = _context._decoder.flush(out).isUnderflow();
+
+                    break;
+                }
+
+                if (out.position() > offset || result.isOverflow())
+                {
+                    break;
+                }
+
+                bytes.compact();
+                fillBytes(bytes);
+                bytes.flip();
+            }
+
+            int read = out.position() - offset;
+
+            return read == 0 && _flushed ? -1 : read;
+        }
+
+        @Override
+        public void close() throws IOException
+        {
+            if (!_closed)
+            {
+                _closed = true;
+
+                try
+                {
+                    _body.close();
+                }
+                finally
+                {
+                    release(_context);
+                }
+            }
+        }
+
+        /**
+         * Put at least one more byte of the body into the buffer, unless the body has ended.
+         */
+        private void fillBytes(ByteBuffer bytes) throws IOException
+        {
+            if (!_compressed)
+            {
+                int read = _body.read(bytes.array(), bytes.arrayOffset() + bytes.position(), bytes.remaining());
+
+                if (read < 0)
+                {
+                    _endOfInput = true;
+                }
+                else
+                {
+                    bytes.position(bytes.position() + read);
+                }
+
+                return;
+            }
+
+            Inflater inflater = _context._inflater;
+
+            try
+            {
+                while (bytes.hasRemaining())
+                {
+                    if (inflater.needsInput())
+                    {
+                        int read = _body.read(_context._input, 0, _context._input.length);
+
+                        if (read < 0)
+                        {
+                            throw new EOFException("The compressed response body ended unexpectedly");
+                        }
+
+                        inflater.setInput(_context._input, 0, read);
+                    }
+
+                    int inflated = inflater.inflate(bytes);
+
+                    if (inflater.finished())
+                    {
+                        _endOfInput = true;
+
+                        return;
+                    }
+
+                    if (inflated > 0)
+                    {
+                        return;
+                    }
+
+                    if (inflater.needsDictionary())
+                    {
+                        throw new ZipException("The compressed response body needs a preset dictionary");
+                    }
+                }
+            }
+            catch (DataFormatException e)
+            {
+                throw new ZipException("The compressed response body is invalid: " + e.getMessage());
+            }
+        }
+
+        /**
+         * Read into the input buffer until it holds at least {@code count} bytes or the body ends.
+         */
+        private void fillInput(int count) throws IOException
+        {
+            while (_inputLimit < count)
+            {
+                int read = _body.read(_context._input, _inputLimit, _context._input.length - _inputLimit);
+
+                if (read < 0)
+                {
+                    return;
+                }
+
+                _inputLimit += read;
+            }
+        }
+
+        private void skipGzipHeader() throws IOException
+        {
+            fillInput(GZIP_HEADER_SIZE);
+
+            if (_inputLimit < GZIP_HEADER_SIZE || _context._input[2] != GZIP_DEFLATE_METHOD)
+            {
+                throw new ZipException("The compressed response body has an invalid header");
+            }
+
+            int flags = _context._input[3] & 0xff;
+
+            _inputPosition = GZIP_HEADER_SIZE;
+
+            if ((flags & FLAG_EXTRA) != 0)
+            {
+                int length = nextHeaderByte() | (nextHeaderByte() << 8);
+
+                for (int i = 0; i < length; i++)
+                {
+                    nextHeaderByte();
+                }
+            }
+
+            if ((flags & FLAG_NAME) != 0)
+            {
+                while (nextHeaderByte() != 0)
+                {
+                    // Skip the zero-terminated file name
+                }
+            }
+
+            if ((flags & FLAG_COMMENT) != 0)
+            {
+                while (nextHeaderByte() != 0)
+                {
+                    // Skip the zero-terminated comment
+                }
+            }
+
+            if ((flags & FLAG_HEADER_CRC) != 0)
+            {
+                nextHeaderByte();
+                nextHeaderByte();
+            }
+        }
+
+        private int nextHeaderByte() throws IOException
+        {
+            if (_inputPosition == _inputLimit)
+            {
+                // The header is longer than what has been read so far, so start over at the beginning of the buffer
+                _inputPosition = _inputLimit = 0;
+
+                fillInput(1);
+
+                if (_inputLimit == 0)
+                {
+                    throw new EOFException("The compressed response body ended in its header");
+                }
+            }
+
+            return _context._input[_inputPosition++] & 0xff;
+        }
+    }
+}
@@ -0,0 +1,521 @@
+/*
+ *  Copyright 2026 Curity AB
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package io.curity.identityserver.plugin.stackexchange.authentication;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import se.curity.identityserver.sdk.Nullable;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Metadata of the StackExchange sites, from /sites.
+ *
+ * <p>The sites are kept in a snapshot file, which is loaded in the background when the authenticator is configured
+ * and refreshed from the API whenever it's older than the refresh interval. Until a snapshot has been loaded, lookups
+ * find nothing and callers fall back to what they did without the registry, e.g., use the {@code Site} enum of the
+ * configuration. Each snapshot is an immutable pair of hash maps that is swapped in as a whole, so lookups are
+ * constant-time and need no locking.
+ *
+ * <p>The configured site is resolved against each snapshot, so that it may also be given as a site URL or host name,
+ * or in a different case, and a site that isn't known is logged. The sites are the same for every configuration
+ * that uses an app key, so the last snapshot fetched is shared between the registries of that key, and the API is
+ * called at most once per {@link #MIN_FETCH_INTERVAL_MILLIS} for it, however often the authenticator is
+ * reconfigured.
+ *
+ * <p>The file has one tab-separated line per site, after a header with the time it was fetched at.
+ */
+final class SiteRegistry
+{
+    static final String PATH = "/2.2/sites";
+    static final Set<String> FIELDS = Set.of("api_site_parameter", "site_url", "audience", "site_state");
+
+    private static final Logger _logger = LoggerFactory.getLogger(SiteRegistry.class);
+    private static final String HEADER_PREFIX = "# fetched ";
+    private static final int PAGE_SIZE = 100;
+    private static final int MAX_PAGES = 10;
+    private static final long MIN_FETCH_INTERVAL_MILLIS = TimeUnit.MINUTES.toMillis(10);
+    private static final ConcurrentMap<String, Snapshot> _fetchedSnapshots = new ConcurrentHashMap<>();
+    private static final ConcurrentMap<String, Long> _lastFetchAttempts = new ConcurrentHashMap<>();
+
+    private final UpstreamTransport _upstreamTransport;
+    private final QuotaGovernor _quotaGovernor;
+    private final ApiFilters _apiFilters;
+    private final String _appKey;
+    private final String _site;
+    private final long _refreshIntervalMillis;
+
+    @Nullable
+    private final Path _snapshotFile;
+
+    private final ScheduledExecutorService _scheduler;
+
+    private volatile Snapshot _snapshot = Snapshot.EMPTY;
+    private volatile String _resolvedSite;
+
+    /**
+     * @param site the API site parameter of the site that users log in with
+     * @param snapshotFile the file to keep the snapshot in, or null to only keep it in memory
+     * @param refreshIntervalHours how often to fetch the sites from the API, or zero to never do so
+     * @param scheduler the scheduler to load and refresh the sites on
+     */
+    SiteRegistry(UpstreamTransport upstreamTransport, QuotaGovernor quotaGovernor, ApiFilters apiFilters,
+                 String appKey, String site, @Nullable Path snapshotFile, int refreshIntervalHours,
+                 ScheduledExecutorService scheduler)
+    {
+        _upstreamTransport = upstreamTransport;
+        _quotaGovernor = quotaGovernor;
+        _apiFilters = apiFilters;
+        _appKey = appKey;
+        _site = site;
+        _resolvedSite = site;
+        _snapshotFile = snapshotFile;
+        _refreshIntervalMillis = TimeUnit.HOURS.toMillis(Math.max(0, refreshIntervalHours));
+        _scheduler = scheduler;
+    }
+
+    /**
+     * Load the snapshot in the background and schedule refreshing it.
+     */
+    void start()
+    {
+        if (_snapshotFile != null)
+        {
+            _scheduler.execute(this::load);
+        }
+
+        if (_refreshIntervalMillis > 0)
+        {
+            _scheduler.scheduleWithFixedDelay(this::refreshIfStale, 0, Math.min(_refreshIntervalMillis,
+                    TimeUnit.HOURS.toMillis(1)), TimeUnit.MILLISECONDS);
+        }
+    }
+
+    /**
+     * @return the API site parameter of the site that users log in with, as resolved against the snapshot, or as
+     * configured if it isn't known
+     */
+    String getSite()
+    {
+        return _resolvedSite;
+    }
+
+    @Nullable
+    SiteInfo get(String apiSiteParameter)
+    {
+        return _snapshot._byParameter.get(apiSiteParameter);
+    }
+
+    /**
+     * @param siteUrl a site URL as returned by the API, e.g., {@code https://math.stackexchange.com}
+     * @return the API site parameter of the site, or null if the site isn't known
+     */
+    @Nullable
+    String getSiteParameterOf(@Nullable String siteUrl)
+    {
+        if (siteUrl == null)
+        {
+            return null;
+        }
+
+        @Nullable SiteInfo site = _snapshot._byUrl.get(siteUrl);
+
+        return site == null ? null : site.getApiSiteParameter();
+    }
+
+    int size()
+    {
+        return _snapshot._byParameter.size();
+    }
+
+    private void load()
+    {
+        if (_snapshotFile == null)
+        {
+            return;
+        }
+
+        try (BufferedReader reader = Files.newBufferedReader(_snapshotFile, StandardCharsets.UTF_8))
+        {
+            @Nullable String header = reader.readLine();
+
+            if (header == null || !header.startsWith(HEADER_PREFIX))
+            {
+                _logger.warn("Ignoring site snapshot {} without a header", _snapshotFile);
+
+                return;
+            }
+
+            long fetchedAt = Long.parseLong(header.substring(HEADER_PREFIX.length()).trim());
+            List<SiteInfo> sites = new ArrayList<>(512);
+            String line;
+
+            while ((line = reader.readLine()) != null)
+            {
+                String[] columns = line.split("\t", -1);
+
+                if (columns.length == 4)
+                {
+                    sites.add(new SiteInfo(columns[0], columns[1], columns[2], columns[3]));
+                }
+            }
+
+            install(new Snapshot(sites, fetchedAt));
+
+            _logger.debug("Loaded {} sites from {}", sites.size(), _snapshotFile);
+        }
+        catch (NoSuchFileException e)
+        {
+            _logger.debug("There is no site snapshot at {} yet", _snapshotFile);
+        }
+        catch (IOException | RuntimeException e)
+        {
+            _logger.warn("Could not load the site snapshot from {}", _snapshotFile, e);
+        }
+    }
+
+    private void refreshIfStale()
+    {
+        @Nullable Snapshot fetched = _fetchedSnapshots.get(_appKey);
+
+        if (fetched != null && fetched._fetchedAt > _snapshot._fetchedAt)
+        {
+            install(fetched);
+
+            try
+            {
+                save(fetched);
+            }
+            catch (IOException | RuntimeException e)
+            {
+                _logger.warn("Could not save the site snapshot to {}", _snapshotFile, e);
+            }
+        }
+
+        long now = System.currentTimeMillis();
+
+        if (now - _snapshot._fetchedAt < _refreshIntervalMillis || !tryStartFetch(now))
+        {
+            return;
+        }
+
+        try
+        {
+            List<SiteInfo> sites = new ArrayList<>(512);
+            boolean hasMore = true;
+
+            for (int page = 1; hasMore && page <= MAX_PAGES; page++)
+            {
+                ApiResponse response = getPage(page);
+
+                for (Map<String, String> item : response.getItems())
+                {
+                    @Nullable String parameter = item.get("api_site_parameter");
+                    @Nullable String url = item.get("site_url");
+
+                    if (parameter != null && url != null)
+                    {
+                        sites.add(new SiteInfo(parameter, url, item.getOrDefault("audience", ""),
+                                item.getOrDefault("site_state", "")));
+                    }
+                }
+
+                hasMore = response.hasMore();
+            }
+
+            Snapshot snapshot = new Snapshot(sites, System.currentTimeMillis());
+
+            _fetchedSnapshots.merge(_appKey, snapshot, (previous, next) ->
+                    previous._fetchedAt > next._fetchedAt ? previous : next);
+            install(snapshot);
+            save(snapshot);
+
+            _logger.debug("Refreshed {} sites from the API", sites.size());
+        }
+        catch (UpstreamUnavailableException e)
+        {
+            _logger.info("Not refreshing the sites now: {}", e.getMessage());
+        }
+        catch (IOException | RuntimeException e)
+        {
+            _logger.warn("Could not refresh the sites", e);
+        }
+    }
+
+    /**
+     * Claim the next fetch of the sites for the app key, unless one was started too recently, also by an earlier
+     * configuration.
+     */
+    private boolean tryStartFetch(long now)
+    {
+        long minInterval = Math.min(_refreshIntervalMillis, MIN_FETCH_INTERVAL_MILLIS);
+
+        while (true)
+        {
+            @Nullable Long lastAttempt = _lastFetchAttempts.get(_appKey);
+
+            if (lastAttempt == null)
+            {
+                if (_lastFetchAttempts.putIfAbsent(_appKey, now) == null)
+                {
+                    return true;
+                }
+            }
+            else if (now - lastAttempt < minInterval)
+            {
+                _logger.debug("Not fetching the sites, since that was last tried {} ms ago", now - lastAttempt);
+
+                return false;
+            }
+            else if (_lastFetchAttempts.replace(_appKey, lastAttempt, now))
+            {
+                return true;
+            }
+        }
+    }
+
+    private ApiResponse getPage(int page) throws IOException
+    {
+        _quotaGovernor.acquire(PATH, false);
+
+        Map<String, Collection<String>> parameters = new LinkedHashMap<>(4);
+        @Nullable String filter = _apiFilters.getFilter();
+
+        parameters.put("key", Collections.singleton(_appKey));
+        parameters.put("pagesize", Collections.singleton(String.valueOf(PAGE_SIZE)));
+        parameters.put("page", Collections.singleton(String.valueOf(page)));
+
+        if (filter != null)
+        {
+            parameters.put("filter", Collections.singleton(filter));
+        }
+
+        UpstreamResponse response = _upstreamTransport.get(UpstreamHost.API, PATH, parameters);
+        ApiResponse result;
+
+        try (InputStream body = response.body())
+        {
+            result = ApiResponseParser.parse(body, FIELDS, PAGE_SIZE);
+        }
+
+        _quotaGovernor.observe(PATH, result);
+
+        if (response.statusCode() != 200)
+        {
+            throw new IOException("Error response from " + PATH + ": " + response.statusCode() + ", " +
+                    result.getErrorName() + ": " + result.getErrorMessage());
+        }
+
+        return result;
+    }
+
+    private void install(Snapshot snapshot)
+    {
+        // Resolve the site before swapping the snapshot in, so that it is resolved once the snapshot is visible
+        _resolvedSite = resolveSite(snapshot);
+        _snapshot = snapshot;
+    }
+
+    private String resolveSite(Snapshot snapshot)
+    {
+        if (snapshot._byParameter.isEmpty())
+        {
+            return _resolvedSite;
+        }
+
+        @Nullable SiteInfo site = resolve(snapshot, _site);
+
+        if (site == null)
+        {
+            _logger.warn("The configured site {} is not a known StackExchange site", _site);
+
+            return _site;
+        }
+
+        if (!site.getApiSiteParameter().equals(_site))
+        {
+            _logger.debug("Resolved the configured site {} to {}", _site, site.getApiSiteParameter());
+        }
+
+        if ("closed_beta".equals(site.getState()))
+        {
+            _logger.warn("The configured site {} is in a closed beta, so not every user can log in with it",
+                    site.getApiSiteParameter());
+        }
+
+        return site.getApiSiteParameter();
+    }
+
+    /**
+     * Find a site by its API site parameter, site URL or host name, ignoring case.
+     */
+    @Nullable
+    private static SiteInfo resolve(Snapshot snapshot, String site)
+    {
+        @Nullable SiteInfo result = snapshot._byParameter.get(site);
+
+        if (result != null)
+        {
+            return result;
+        }
+
+        String name = site.trim().toLowerCase(Locale.ROOT);
+
+        if (name.startsWith("https://"))
+        {
+            name = name.substring("https://".length());
+        }
+        else if (name.startsWith("http://"))
+        {
+            name = name.substring("http://".length());
+        }
+
+        if (name.endsWith("/"))
+        {
+            name = name.substring(0, name.length() - 1);
+        }
+
+        result = snapshot._byParameter.get(name);
+
+        return result != null ? result : snapshot._byUrl.get("https://" + name);
+    }
+
+    private void save(Snapshot snapshot) throws IOException
+    {
+        if (_snapshotFile == null)
+        {
+            return;
+        }
+
+        @Nullable Path directory = _snapshotFile.toAbsolutePath().getParent();
+
+        if (directory != null)
+        {
+            Files.createDirectories(directory);
+        }
+
+        // Write to a temporary file first, so that a crash never leaves a half-written snapshot behind
+        Path temporaryFile = Files.createTempFile(directory, _snapshotFile.getFileName().toString(), ".tmp");
+
+        try (BufferedWriter writer = Files.newBufferedWriter(temporaryFile, StandardCharsets.UTF_8))
+        {
+            writer.write(HEADER_PREFIX);
+            writer.write(String.valueOf(snapshot._fetchedAt));
+            writer.newLine();
+
+            for (SiteInfo site : snapshot._byParameter.values())
+            {
+                writer.write(String.join("\t", clean(site.getApiSiteParameter()), clean(site.getSiteUrl()),
+                        clean(site.getAudience()), clean(site.getState())));
+                writer.newLine();
+            }
+        }
+
+        Files.move(temporaryFile, _snapshotFile, StandardCopyOption.REPLACE_EXISTING,
+                StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    private static String clean(String value)
+    {
+        return value.replace('\t', ' ').replace('\n', ' ').replace('\r', ' ');
+    }
+
+    static final class SiteInfo
+    {
+        private final String _apiSiteParameter;
+        private final String _siteUrl;
+        private final String _audience;
+        private final String _state;
+
+        SiteInfo(String apiSiteParameter, String siteUrl, String audience, String state)
+        {
+            _apiSiteParameter = apiSiteParameter;
+            _siteUrl = siteUrl;
+            _audience = audience;
+            _state = state;
+        }
+
+        String getApiSiteParameter()
+        {
+            return _apiSiteParameter;
+        }
+
+        String getSiteUrl()
+        {
+            return _siteUrl;
+        }
+
+        String getAudience()
+        {
+            return _audience;
+        }
+
+        /**
+         * @return the state of the site, e.g., {@code normal} or {@code open_beta}
+         */
+        String getState()
+        {
+            return _state;
+        }
+    }
+
+    private static final class Snapshot
+    {
+        private static final Snapshot EMPTY = new Snapshot(Collections.emptyList(), 0);
+
+        private final Map<String, SiteInfo> _byParameter;
+        private final Map<String, SiteInfo> _byUrl;
+        private final long _fetchedAt;
+
+        private Snapshot(List<SiteInfo> sites, long fetchedAt)
+        {
+            Map<String, SiteInfo> byParameter = new HashMap<>(sites.size() * 2);
+            Map<String, SiteInfo> byUrl = new HashMap<>(sites.size() * 2);
+
+            for (SiteInfo site : sites)
+            {
+                byParameter.put(site.getApiSiteParameter(), site);
+                byUrl.put(site.getSiteUrl(), site);
+            }
+
+            _byParameter = Collections.unmodifiableMap(byParameter);
+            _byUrl = Collections.unmodifiableMap(byUrl);
+            _fetchedAt = fetchedAt;
+        }
+    }
+}
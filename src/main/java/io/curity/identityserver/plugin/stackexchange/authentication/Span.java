@@ -0,0 +1,80 @@
+/*
+ *  Copyright 2026 Curity AB
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package io.curity.identityserver.plugin.stackexchange.authentication;
+
+/**
+ * A timed operation of a login, e.g., a call to StackExchange, that is part of a trace.
+ *
+ * <p>Spans are ended by closing them, so that they can be used with try-with-resources.
+ */
+interface Span extends AutoCloseable
+{
+    /**
+     * A span that records nothing, which is used when tracing is disabled.
+     */
+    Span NOOP = new Span()
+    {
+        @Override
+        public boolean isRecording()
+        {
+            return false;
+        }
+
+        @Override
+        public Span setAttribute(String key, String value)
+        {
+            return this;
+        }
+
+        @Override
+        public Span setAttribute(String key, long value)
+        {
+            return this;
+        }
+
+        @Override
+        public Span setError(String description)
+        {
+            return this;
+        }
+
+        @Override
+        public void close()
+        {
+        }
+    };
+
+    /**
+     * @return whether anything is recorded, so that attributes that are costly to compute can be skipped if not
+     */
+    boolean isRecording();
+
+    Span setAttribute(String key, String value);
+
+    Span setAttribute(String key, long value);
+
+    /**
+     * Mark the operation as failed.
+     */
+    Span setError(String description);
+
+    /**
+     * End the span.
+     */
+    @Override
+    void close();
+}
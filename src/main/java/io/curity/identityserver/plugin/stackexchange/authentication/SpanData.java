@@ -0,0 +1,106 @@
+/*
+ *  Copyright 2026 Curity AB
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package io.curity.identityserver.plugin.stackexchange.authentication;
+
+import se.curity.identityserver.sdk.Nullable;
+
+import java.util.Map;
+
+/**
+ * A span that has ended, as handed to a {@link SpanExporter}.
+ */
+final class SpanData
+{
+    private final String _name;
+    private final String _traceId;
+    private final String _spanId;
+
+    @Nullable
+    private final String _parentSpanId;
+
+    private final long _startEpochMicros;
+    private final long _durationNanos;
+    private final Map<String, Object> _attributes;
+
+    @Nullable
+    private final String _error;
+
+    SpanData(String name, String traceId, String spanId, @Nullable String parentSpanId, long startEpochMicros,
+             long durationNanos, Map<String, Object> attributes, @Nullable String error)
+    {
+        _name = name;
+        _traceId = traceId;
+        _spanId = spanId;
+        _parentSpanId = parentSpanId;
+        _startEpochMicros = startEpochMicros;
+        _durationNanos = durationNanos;
+        _attributes = attributes;
+        _error = error;
+    }
+
+    String getName()
+    {
+        return _name;
+    }
+
+    String getTraceId()
+    {
+        return _traceId;
+    }
+
+    String getSpanId()
+    {
+        return _spanId;
+    }
+
+    @Nullable
+    String getParentSpanId()
+    {
+        return _parentSpanId;
+    }
+
+    long getStartEpochMicros()
+    {
+        return _startEpochMicros;
+    }
+
+    long getDurationNanos()
+    {
+        return _durationNanos;
+    }
+
+    Map<String, Object> getAttributes()
+    {
+        return _attributes;
+    }
+
+    /**
+     * @return a description of why the operation failed, or null if it didn't
+     */
+    @Nullable
+    String getError()
+    {
+        return _error;
+    }
+
+    @Override
+    public String toString()
+    {
+        return String.format("%s[trace=%s span=%s parent=%s duration=%.1fms attributes=%s%s]", _name, _traceId,
+                _spanId, _parentSpanId, _durationNanos / 1e6, _attributes, _error == null ? "" : " error=" + _error);
+    }
+}
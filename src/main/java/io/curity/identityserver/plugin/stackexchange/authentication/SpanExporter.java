@@ -0,0 +1,46 @@
+/*
+ *  Copyright 2026 Curity AB
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package io.curity.identityserver.plugin.stackexchange.authentication;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Sends spans that have ended somewhere, e.g., to a log.
+ *
+ * <p>Spans are exported on the thread that ended them, i.e., on the request path, so implementations must be
+ * thread-safe and must not block.
+ */
+@FunctionalInterface
+interface SpanExporter
+{
+    /**
+     * An exporter that logs each span at info level.
+     */
+    SpanExporter LOG = new SpanExporter()
+    {
+        private final Logger _logger = LoggerFactory.getLogger(SpanExporter.class);
+
+        @Override
+        public void export(SpanData span)
+        {
+            _logger.info("{}", span);
+        }
+    };
+
+    void export(SpanData span);
+}
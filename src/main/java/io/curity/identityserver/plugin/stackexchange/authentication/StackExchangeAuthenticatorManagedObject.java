@@ -0,0 +1,501 @@
+/*
+ *  Copyright 2026 Curity AB
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package io.curity.identityserver.plugin.stackexchange.authentication;
+
+import io.curity.identityserver.plugin.stackexchange.config.StackExchangeAuthenticatorPluginConfig;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import se.curity.identityserver.sdk.Nullable;
+import se.curity.identityserver.sdk.plugin.ManagedObject;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.ServiceConfigurationError;
+import java.util.ServiceLoader;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * State that is shared by all request handlers of one authenticator instance.
+ *
+ * <p>The server creates a new instance whenever the configuration of the authenticator changes, so anything kept
+ * here is automatically rebuilt from the latest configuration.
+ */
+public final class StackExchangeAuthenticatorManagedObject extends ManagedObject<StackExchangeAuthenticatorPluginConfig>
+{
+    private static final Logger _logger = LoggerFactory.getLogger(StackExchangeAuthenticatorManagedObject.class);
+    private static final String METRICS_DOMAIN = "io.curity.identityserver.plugin.stackexchange";
+
+    // The instance whose metrics are registered under each name, since a new instance registers before the one it
+    // replaces is closed. Guarded by itself
+    private static final Map<ObjectName, StackExchangeAuthenticatorManagedObject> _metricsOwners = new HashMap<>();
+
+    private final ProfileCache _profileCache;
+    private final UpstreamTransport _upstreamTransport;
+    private final AuthorizationRequestPlan _authorizationRequestPlan;
+    private final StateTokens _stateTokens;
+    private final LoginMetrics _loginMetrics;
+    private final QuotaGovernor _quotaGovernor;
+    private final AppShards _appShards;
+    private final ProfileEnricher _profileEnricher;
+    private final ExecutorService _workerExecutor;
+    private final ExecutorService _deadlineExecutor;
+    private final ScheduledExecutorService _scheduler;
+    private final UpstreamWarmer _upstreamWarmer;
+    private final ApiFilters _apiFilters;
+    private final AttributeMapper _attributeMapper;
+    private final SiteRegistry _siteRegistry;
+    private final ProfileSync _profileSync;
+    private final CallbackCoalescer _callbackCoalescer = new CallbackCoalescer();
+    @Nullable
+    private final ObjectName _metricsName;
+    private final Tracer _tracer;
+    private final LoginBudget _loginBudget;
+    private final RequestHedger _userInfoHedger;
+    @Nullable
+    private final CapturingUpstreamTransport _capturingTransport;
+
+    public StackExchangeAuthenticatorManagedObject(StackExchangeAuthenticatorPluginConfig configuration)
+    {
+        this(configuration, createTracer(configuration));
+    }
+
+    private StackExchangeAuthenticatorManagedObject(StackExchangeAuthenticatorPluginConfig configuration,
+                                                    Tracer tracer)
+    {
+        this(configuration, new WebServiceClientTransport(configuration.getWebServiceClientFactory(),
+                configuration.getHttpClient(), tracer), createLoginMetrics(configuration), tracer);
+    }
+
+    StackExchangeAuthenticatorManagedObject(StackExchangeAuthenticatorPluginConfig configuration,
+                                            UpstreamTransport upstreamTransport,
+                                            LoginMetrics loginMetrics)
+    {
+        this(configuration, upstreamTransport, loginMetrics, createTracer(configuration));
+    }
+
+    StackExchangeAuthenticatorManagedObject(StackExchangeAuthenticatorPluginConfig configuration,
+                                            UpstreamTransport upstreamTransport,
+                                            LoginMetrics loginMetrics,
+                                            Tracer tracer)
+    {
+        super(configuration);
+
+        _loginMetrics = loginMetrics;
+        _tracer = tracer;
+        _workerExecutor = Executors.newCachedThreadPool(new DaemonThreadFactory("stackexchange-worker"));
+        _deadlineExecutor = createDeadlineExecutor(configuration);
+        // Runs the periodic jobs one at a time; none of them is urgent
+        _scheduler = Executors.newSingleThreadScheduledExecutor(new DaemonThreadFactory("stackexchange-scheduler"));
+
+        _profileCache = new ProfileCache(configuration.getProfileCacheTimeToLive(),
+                configuration.getProfileCacheMaxEntries(), configuration.isLogProfileCacheStatistics());
+        _capturingTransport = createCapturingTransport(configuration, upstreamTransport);
+        GuardedUpstreamTransport guardedTransport = new GuardedUpstreamTransport(_capturingTransport == null
+                ? upstreamTransport
+                : _capturingTransport, createUpstreamGuards(configuration));
+
+        _upstreamTransport = guardedTransport;
+        _authorizationRequestPlan = new AuthorizationRequestPlan(configuration);
+        _appShards = createAppShards(configuration);
+        _quotaGovernor = _appShards.getPrimary().getQuotaGovernor();
+        _attributeMapper = new AttributeMapper(configuration.getAttributeMappings());
+        _apiFilters = new ApiFilters(_upstreamTransport, _quotaGovernor, configuration.getAppKey(), _workerExecutor,
+                Map.of("user", _attributeMapper.getFields(), "network_user", NetworkAccountsClient.FIELDS,
+                        "site", SiteRegistry.FIELDS, "top_tag", TopTagsClient.FIELDS),
+                configuration.getApiFilter().orElse(null));
+        _siteRegistry = new SiteRegistry(_upstreamTransport, _quotaGovernor, _apiFilters, configuration.getAppKey(),
+                configuration.getSiteParameter().orElse(configuration.getSite().name()),
+                configuration.getSiteSnapshotFile().map(Paths::get).orElse(null),
+                configuration.getSiteRefreshInterval(), _scheduler);
+        _profileSync = new ProfileSync(_upstreamTransport, _quotaGovernor, _apiFilters, _siteRegistry,
+                _attributeMapper, _profileCache, _loginMetrics, configuration.getAppKey(),
+                configuration.isNoExpiry() ? configuration.getProfileSyncInterval() : 0,
+                configuration.getProfileCacheMaxEntries(), _scheduler);
+        _profileEnricher = new ProfileEnricher(createProfileEnrichments(configuration), _workerExecutor,
+                configuration.getEnrichmentDeadline());
+        _loginBudget = new LoginBudget(_deadlineExecutor, _tracer, configuration.getLoginDeadline());
+        _userInfoHedger = new RequestHedger(_workerExecutor, _tracer, _loginMetrics,
+                configuration.getUserInfoHedgePercentile(), configuration.getUserInfoHedgeBudget());
+        _upstreamWarmer = new UpstreamWarmer(upstreamTransport, guardedTransport, _workerExecutor,
+                configuration.getWarmUpConnections(), configuration.getWarmUpInterval(), _scheduler);
+
+        _apiFilters.prefetch();
+        _siteRegistry.start();
+        _profileSync.start();
+        _upstreamWarmer.start();
+        _stateTokens = new StateTokens(getStateSigningKey(configuration), configuration.getStateLifetime());
+        _metricsName = registerMetrics(configuration.id(), loginMetrics);
+    }
+
+    ProfileCache getProfileCache()
+    {
+        return _profileCache;
+    }
+
+    UpstreamTransport getUpstreamTransport()
+    {
+        return _upstreamTransport;
+    }
+
+    AuthorizationRequestPlan getAuthorizationRequestPlan()
+    {
+        return _authorizationRequestPlan;
+    }
+
+    StateTokens getStateTokens()
+    {
+        return _stateTokens;
+    }
+
+    LoginMetrics getLoginMetrics()
+    {
+        return _loginMetrics;
+    }
+
+    /**
+     * @return the governor of the quota of the primary app key, which is used for calls that aren't made on behalf
+     * of a user
+     */
+    QuotaGovernor getQuotaGovernor()
+    {
+        return _quotaGovernor;
+    }
+
+    AppShards getAppShards()
+    {
+        return _appShards;
+    }
+
+    ProfileEnricher getProfileEnricher()
+    {
+        return _profileEnricher;
+    }
+
+    ApiFilters getApiFilters()
+    {
+        return _apiFilters;
+    }
+
+    AttributeMapper getAttributeMapper()
+    {
+        return _attributeMapper;
+    }
+
+    SiteRegistry getSiteRegistry()
+    {
+        return _siteRegistry;
+    }
+
+    ProfileSync getProfileSync()
+    {
+        return _profileSync;
+    }
+
+    CallbackCoalescer getCallbackCoalescer()
+    {
+        return _callbackCoalescer;
+    }
+
+    Tracer getTracer()
+    {
+        return _tracer;
+    }
+
+    LoginBudget getLoginBudget()
+    {
+        return _loginBudget;
+    }
+
+    RequestHedger getUserInfoHedger()
+    {
+        return _userInfoHedger;
+    }
+
+    @Override
+    public void close()
+    {
+        _scheduler.shutdownNow();
+        _workerExecutor.shutdownNow();
+        _deadlineExecutor.shutdownNow();
+
+        if (_capturingTransport != null)
+        {
+            _capturingTransport.close();
+        }
+
+        if (_loginMetrics != LoginMetrics.DISABLED)
+        {
+            _logger.info("{}", _loginMetrics);
+        }
+
+        if (_metricsName != null)
+        {
+            unregisterMetrics(_metricsName);
+        }
+
+        _profileCache.clear();
+    }
+
+    private List<ProfileEnrichment> createProfileEnrichments(StackExchangeAuthenticatorPluginConfig configuration)
+    {
+        List<ProfileEnrichment> enrichments = new ArrayList<>(2);
+
+        if (configuration.isIncludeNetworkAccounts())
+        {
+            enrichments.add(new NetworkAccountsClient(_upstreamTransport, _apiFilters, _siteRegistry,
+                    _loginMetrics));
+        }
+
+        if (configuration.isIncludeTopTags())
+        {
+            enrichments.add(new TopTagsClient(_upstreamTransport, _apiFilters, _siteRegistry, _loginMetrics));
+        }
+
+        return enrichments;
+    }
+
+    private static AppShards createAppShards(StackExchangeAuthenticatorPluginConfig configuration)
+    {
+        List<StackExchangeAuthenticatorPluginConfig.AppRegistration> additional =
+                configuration.getAdditionalAppRegistrations();
+        List<AppShard> shards = new ArrayList<>(additional.size() + 1);
+
+        shards.add(new AppShard(0, configuration.getClientId(), configuration.getClientSecret(),
+                configuration.getAppKey(), configuration.getAppWeight(),
+                createQuotaGovernor(configuration, configuration.getAppKey())));
+
+        for (StackExchangeAuthenticatorPluginConfig.AppRegistration registration : additional)
+        {
+            shards.add(new AppShard(shards.size(), registration.getClientId(), registration.getClientSecret(),
+                    registration.getAppKey(), registration.getWeight(),
+                    createQuotaGovernor(configuration, registration.getAppKey())));
+        }
+
+        return new AppShards(shards);
+    }
+
+    private static QuotaGovernor createQuotaGovernor(StackExchangeAuthenticatorPluginConfig configuration,
+                                                     String appKey)
+    {
+        return new QuotaGovernor(configuration.getQuotaReserve(), configuration.getMaxBackoffWait(), appKey,
+                configuration.getQuotaStateBucket().orElse(null));
+    }
+
+    @Nullable
+    private static CapturingUpstreamTransport createCapturingTransport(
+            StackExchangeAuthenticatorPluginConfig configuration, UpstreamTransport upstreamTransport)
+    {
+        @Nullable String file = configuration.getUpstreamCaptureFile().orElse(null);
+
+        if (file == null)
+        {
+            return null;
+        }
+
+        try
+        {
+            _logger.info("Capturing the exchanges with StackExchange in {}", file);
+
+            return new CapturingUpstreamTransport(upstreamTransport, Paths.get(file));
+        }
+        catch (IOException | RuntimeException e)
+        {
+            _logger.warn("Could not open the capture file {}. Nothing will be captured.", file, e);
+
+            return null;
+        }
+    }
+
+    /**
+     * Create the in-memory metrics if they're enabled, along with any that are plugged in as a service provider.
+     */
+    private static LoginMetrics createLoginMetrics(StackExchangeAuthenticatorPluginConfig configuration)
+    {
+        List<LoginMetrics> metrics = new ArrayList<>(2);
+
+        if (configuration.isCollectLoginMetrics())
+        {
+            metrics.add(new InMemoryLoginMetrics());
+        }
+
+        try
+        {
+            ServiceLoader.load(LoginMetrics.class, LoginMetrics.class.getClassLoader()).forEach(metrics::add);
+        }
+        catch (ServiceConfigurationError e)
+        {
+            _logger.warn("Could not load the plugged-in login metrics", e);
+        }
+
+        switch (metrics.size())
+        {
+            case 0:
+                return LoginMetrics.DISABLED;
+            case 1:
+                return metrics.get(0);
+            default:
+                return new CompositeLoginMetrics(metrics);
+        }
+    }
+
+    /**
+     * Expose the in-memory metrics over JMX, replacing those of the instance that this one replaces.
+     *
+     * @return the name that the metrics were registered under, or null if there are none or they couldn't be
+     */
+    @Nullable
+    private ObjectName registerMetrics(String id, LoginMetrics loginMetrics)
+    {
+        @Nullable LoginMetricsMXBean mxBean = null;
+
+        for (LoginMetrics metrics : loginMetrics instanceof CompositeLoginMetrics
+                ? ((CompositeLoginMetrics) loginMetrics).getDelegates()
+                : List.of(loginMetrics))
+        {
+            if (metrics instanceof LoginMetricsMXBean)
+            {
+                mxBean = (LoginMetricsMXBean) metrics;
+            }
+        }
+
+        if (mxBean == null)
+        {
+            return null;
+        }
+
+        try
+        {
+            ObjectName name = new ObjectName(METRICS_DOMAIN + ":type=LoginMetrics,name=" + ObjectName.quote(id));
+            MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+
+            synchronized (_metricsOwners)
+            {
+                if (server.isRegistered(name))
+                {
+                    server.unregisterMBean(name);
+                }
+
+                server.registerMBean(mxBean, name);
+                _metricsOwners.put(name, this);
+            }
+
+            return name;
+        }
+        catch (JMException | RuntimeException e)
+        {
+            _logger.warn("Could not expose the login metrics over JMX", e);
+
+            return null;
+        }
+    }
+
+    private void unregisterMetrics(ObjectName name)
+    {
+        synchronized (_metricsOwners)
+        {
+            try
+            {
+                // Only if no other instance registered meanwhile
+                if (_metricsOwners.remove(name, this))
+                {
+                    ManagementFactory.getPlatformMBeanServer().unregisterMBean(name);
+                }
+            }
+            catch (JMException | RuntimeException e)
+            {
+                _logger.debug("Could not unregister the login metrics {}", name, e);
+            }
+        }
+    }
+
+    private static Tracer createTracer(StackExchangeAuthenticatorPluginConfig configuration)
+    {
+        switch (configuration.getTracing())
+        {
+            case log:
+                return new RecordingTracer(SpanExporter.LOG);
+            case disabled:
+            default:
+                return Tracer.DISABLED;
+        }
+    }
+
+    /**
+     * Create the executor that calls bounded by the login deadline run on. It has no queue and at most as many threads
+     * as there may be concurrent requests to all hosts, since the guards would reject any more, and rejects calls
+     * beyond that. Threads are only started when needed, so none are if the deadline is disabled.
+     */
+    private static ExecutorService createDeadlineExecutor(StackExchangeAuthenticatorPluginConfig configuration)
+    {
+        int maxThreads = Math.max(1, configuration.getMaxConcurrentUpstreamRequests()) * UpstreamHost.values().length;
+
+        return new ThreadPoolExecutor(0, maxThreads, 60, TimeUnit.SECONDS, new SynchronousQueue<>(),
+                new DaemonThreadFactory("stackexchange-deadline"), new ThreadPoolExecutor.AbortPolicy());
+    }
+
+    private static Map<UpstreamHost, UpstreamGuard> createUpstreamGuards(
+            StackExchangeAuthenticatorPluginConfig configuration)
+    {
+        Map<UpstreamHost, UpstreamGuard> guards = new EnumMap<>(UpstreamHost.class);
+
+        for (UpstreamHost host : UpstreamHost.values())
+        {
+            guards.put(host, new UpstreamGuard(host, configuration.getMaxConcurrentUpstreamRequests(),
+                    configuration.getSlowUpstreamRequestThreshold(),
+                    configuration.getCircuitBreakerFailureRateThreshold(),
+                    configuration.getCircuitBreakerMinimumRequests(),
+                    configuration.getCircuitBreakerOpenDuration()));
+        }
+
+        return guards;
+    }
+
+    @Nullable
+    private static String getStateSigningKey(StackExchangeAuthenticatorPluginConfig configuration)
+    {
+        if (!configuration.isUseStatelessState())
+        {
+            return null;
+        }
+
+        @Nullable String key = configuration.getStateSigningKey().orElse(null);
+
+        if (key == null || key.length() < StateTokens.MIN_KEY_LENGTH)
+        {
+            _logger.warn("Stateless state is enabled, but no state signing key of at least {} characters is " +
+                    "configured. The state will be kept in the session instead.", StateTokens.MIN_KEY_LENGTH);
+
+            return null;
+        }
+
+        return key;
+    }
+}
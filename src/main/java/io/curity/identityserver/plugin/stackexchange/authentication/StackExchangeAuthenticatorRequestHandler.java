@@ -22,43 +22,42 @@ import org.slf4j.LoggerFactory;
 import se.curity.identityserver.sdk.attribute.Attribute;
 import se.curity.identityserver.sdk.authentication.AuthenticationResult;
 import se.curity.identityserver.sdk.authentication.AuthenticatorRequestHandler;
-import se.curity.identityserver.sdk.errors.ErrorCode;
 import se.curity.identityserver.sdk.service.ExceptionFactory;
-import se.curity.identityserver.sdk.service.Json;
 import se.curity.identityserver.sdk.service.authentication.AuthenticatorInformationProvider;
 import se.curity.identityserver.sdk.web.Request;
 import se.curity.identityserver.sdk.web.Response;
 
-import java.net.MalformedURLException;
-import java.net.URI;
-import java.net.URL;
-import java.util.Collection;
 import java.util.Collections;
-import java.util.LinkedHashMap;
-import java.util.LinkedHashSet;
-import java.util.Map;
 import java.util.Optional;
-import java.util.Set;
-import java.util.UUID;
 
-import static io.curity.identityserver.plugin.stackexchange.authentication.RedirectUriUtil.createRedirectUri;
-import static io.curity.identityserver.plugin.stackexchange.descriptor.StackExchangeAuthenticatorPluginDescriptor.CALLBACK;
 import static se.curity.identityserver.sdk.http.RedirectStatusCode.MOVED_TEMPORARILY;
 
 public class StackExchangeAuthenticatorRequestHandler implements AuthenticatorRequestHandler<Request>
 {
     private static final Logger _logger = LoggerFactory.getLogger(StackExchangeAuthenticatorRequestHandler.class);
-    private static final String AUTHORIZATION_ENDPOINT = "https://stackexchange.com/oauth";
 
     private final StackExchangeAuthenticatorPluginConfig _config;
     private final ExceptionFactory _exceptionFactory;
     private final AuthenticatorInformationProvider _authenticatorInformationProvider;
-
-    public StackExchangeAuthenticatorRequestHandler(StackExchangeAuthenticatorPluginConfig config)
+    private final AuthorizationRequestPlan _authorizationRequestPlan;
+    private final StateTokens _stateTokens;
+    private final LoginMetrics _metrics;
+    private final SiteRegistry _siteRegistry;
+    private final AppShards _appShards;
+    private final Tracer _tracer;
+
+    public StackExchangeAuthenticatorRequestHandler(StackExchangeAuthenticatorPluginConfig config,
+                                                    StackExchangeAuthenticatorManagedObject managedObject)
     {
         _config = config;
         _exceptionFactory = config.getExceptionFactory();
         _authenticatorInformationProvider = config.getAuthenticatorInformationProvider();
+        _authorizationRequestPlan = managedObject.getAuthorizationRequestPlan();
+        _stateTokens = managedObject.getStateTokens();
+        _metrics = managedObject.getLoginMetrics();
+        _siteRegistry = managedObject.getSiteRegistry();
+        _appShards = managedObject.getAppShards();
+        _tracer = managedObject.getTracer();
     }
 
     @Override
@@ -66,44 +65,42 @@ public class StackExchangeAuthenticatorRequestHandler implements AuthenticatorRe
     {
         _logger.info("GET request received for authentication authentication");
 
-        String redirectUri = createRedirectUri(_authenticatorInformationProvider, _exceptionFactory);
-        String state = UUID.randomUUID().toString();
-        Map<String, Collection<String>> queryStringArguments = new LinkedHashMap<>(5);
-        Set<String> scopes = new LinkedHashSet<>(4);
-
-        _config.getSessionManager().put(Attribute.of("state", state));
+        long start = System.nanoTime();
 
-        if (_config.isReadInbox())
+        try (Span ignored = _tracer.startSpan("stackexchange.authorize",
+                request.getHeaders().firstValue("traceparent").orElse(null))
+                .setAttribute("stackexchange.site", _siteRegistry.getSite()))
         {
-            scopes.add("read_inbox");
+            throw createAuthorizationRedirect();
         }
-
-        if (_config.isNoExpiry())
+        finally
         {
-            scopes.add("no_expiry");
+            _metrics.recordLatency(LoginPhase.AUTHORIZATION_REDIRECT, System.nanoTime() - start);
         }
+    }
+
+    private RuntimeException createAuthorizationRedirect()
+    {
+        AppShard shard = _appShards.next();
+        String state;
 
-        if (_config.isWriteAccess())
+        if (_stateTokens.isStateless())
         {
-            scopes.add("write_access");
+            state = _appShards.tag(_stateTokens.newSignedState(), shard);
         }
-
-        if (_config.isPrivateInfo())
+        else
         {
-            scopes.add("private_info");
+            state = _appShards.tag(StateTokens.newRandomState(), shard);
+
+            _config.getSessionManager().put(Attribute.of("state", state));
         }
 
-        addQueryString(queryStringArguments, "client_id", _config.getClientId());
-        addQueryString(queryStringArguments, "redirect_uri", redirectUri);
-        addQueryString(queryStringArguments, "state", state);
-        addQueryString(queryStringArguments, "response_type", "code");
-        addQueryString(queryStringArguments, "scope", String.join(" ", scopes));
+        String authorizationUrl = _authorizationRequestPlan.createAuthorizationUrl(state, shard,
+                _authenticatorInformationProvider, _exceptionFactory);
 
-        _logger.debug("Redirecting to {} with query string arguments {}", AUTHORIZATION_ENDPOINT,
-                queryStringArguments);
+        _logger.debug("Redirecting to {}", authorizationUrl);
 
-        throw _exceptionFactory.redirectException(AUTHORIZATION_ENDPOINT, MOVED_TEMPORARILY,
-                queryStringArguments, false);
+        return _exceptionFactory.redirectException(authorizationUrl, MOVED_TEMPORARILY, Collections.emptyMap(), false);
     }
 
     @Override
@@ -117,9 +114,4 @@ public class StackExchangeAuthenticatorRequestHandler implements AuthenticatorRe
     {
         return request;
     }
-
-    private static void addQueryString(Map<String, Collection<String>> queryStringArguments, String key, Object value)
-    {
-        queryStringArguments.put(key, Collections.singleton(value.toString()));
-    }
 }
@@ -0,0 +1,224 @@
+/*
+ *  Copyright 2026 Curity AB
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package io.curity.identityserver.plugin.stackexchange.authentication;
+
+import se.curity.identityserver.sdk.Nullable;
+
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+import java.security.SecureRandom;
+import java.util.Base64;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Creates and verifies values for the OAuth {@code state} parameter.
+ *
+ * <p>By default, the state is a random value that is kept in the session. In stateless mode, it is instead a compact
+ * token of the form {@code base64url(expiry || nonce) "." base64url(HMAC-SHA256(expiry || nonce))}, which the callback
+ * can verify without looking anything up. So that an intercepted state can't be replayed with another authorization
+ * code, the first code that a signed state is used with is remembered until the state expires, and any other code is
+ * rejected. A duplicate of the same callback still gets through, so that it can be coalesced with the first. The used
+ * states are only remembered by this node, so in a cluster a state could still be replayed once on each other node.
+ *
+ * <p>Random bytes come from a per-thread {@link SecureRandom}, so that concurrent logins don't contend on a single
+ * generator the way {@link java.util.UUID#randomUUID()} does.
+ */
+final class StateTokens
+{
+    static final int MIN_KEY_LENGTH = 32;
+
+    private static final String MAC_ALGORITHM = "HmacSHA256";
+    private static final int NONCE_LENGTH = 16;
+    private static final int PAYLOAD_LENGTH = Long.BYTES + NONCE_LENGTH;
+    private static final int SIGNATURE_LENGTH = 16;
+    private static final Base64.Encoder ENCODER = Base64.getUrlEncoder().withoutPadding();
+    private static final Base64.Decoder DECODER = Base64.getUrlDecoder();
+    private static final ThreadLocal<SecureRandom> RANDOM = ThreadLocal.withInitial(SecureRandom::new);
+    private static final int MIN_PRUNE_SIZE = 1024;
+
+    @Nullable
+    private final SecretKeySpec _key;
+    private final long _lifetimeSeconds;
+    private final ThreadLocal<Mac> _mac;
+    private final ConcurrentHashMap<String, UsedState> _usedStates = new ConcurrentHashMap<>();
+
+    // The number of used states at which the expired ones are removed, which doubles with the number that remain
+    private volatile int _pruneSize = MIN_PRUNE_SIZE;
+
+    /**
+     * @param signingKey the key to sign stateless state with, or null to keep the state in the session
+     * @param lifetimeSeconds the number of seconds that a stateless state is valid for
+     */
+    StateTokens(@Nullable String signingKey, long lifetimeSeconds)
+    {
+        _key = signingKey == null ? null
+                : new SecretKeySpec(signingKey.getBytes(StandardCharsets.UTF_8), MAC_ALGORITHM);
+        _lifetimeSeconds = lifetimeSeconds;
+        _mac = ThreadLocal.withInitial(this::createMac);
+    }
+
+    boolean isStateless()
+    {
+        return _key != null;
+    }
+
+    /**
+     * Create a random value that is meant to be stored in the session.
+     */
+    static String newRandomState()
+    {
+        byte[] nonce = new byte[NONCE_LENGTH];
+
+        RANDOM.get().nextBytes(nonce);
+
+        return ENCODER.encodeToString(nonce);
+    }
+
+    String newSignedState()
+    {
+        ByteBuffer payload = ByteBuffer.allocate(PAYLOAD_LENGTH);
+        byte[] nonce = new byte[NONCE_LENGTH];
+
+        RANDOM.get().nextBytes(nonce);
+        payload.putLong(System.currentTimeMillis() / 1000 + _lifetimeSeconds).put(nonce);
+
+        byte[] payloadBytes = payload.array();
+
+        return ENCODER.encodeToString(payloadBytes) + "." + ENCODER.encodeToString(sign(payloadBytes));
+    }
+
+    /**
+     * Verify a signed state, and remember that it was used with the given authorization code.
+     *
+     * @param code the authorization code of the callback, or null if it carries an error instead, which can't be used
+     *             to log in and so isn't remembered
+     * @return true if the state was signed with the configured key, hasn't expired, and hasn't been used with another
+     * code before
+     */
+    boolean useSignedState(@Nullable String state, @Nullable String code)
+    {
+        if (state == null)
+        {
+            return false;
+        }
+
+        int separator = state.indexOf('.');
+
+        if (separator < 0)
+        {
+            return false;
+        }
+
+        byte[] payload, signature;
+
+        try
+        {
+            payload = DECODER.decode(state.substring(0, separator));
+            signature = DECODER.decode(state.substring(separator + 1));
+        }
+        catch (IllegalArgumentException e)
+        {
+            return false;
+        }
+
+        if (payload.length != PAYLOAD_LENGTH || !MessageDigest.isEqual(sign(payload), signature))
+        {
+            return false;
+        }
+
+        // The decoder ignores the unused bits of the last character, so only the canonical encoding is accepted, or
+        // else a state could be used once per encoding
+        if (!state.equals(ENCODER.encodeToString(payload) + "." + ENCODER.encodeToString(signature)))
+        {
+            return false;
+        }
+
+        long expiresAt = ByteBuffer.wrap(payload).getLong();
+        long now = System.currentTimeMillis() / 1000;
+
+        if (expiresAt < now)
+        {
+            return false;
+        }
+
+        if (code == null)
+        {
+            return true;
+        }
+
+        if (_usedStates.size() >= _pruneSize)
+        {
+            _usedStates.values().removeIf(usedState -> usedState._expiresAt < now);
+            _pruneSize = Math.max(MIN_PRUNE_SIZE, _usedStates.size() * 2);
+        }
+
+        @Nullable UsedState previous = _usedStates.putIfAbsent(state, new UsedState(code, expiresAt));
+
+        return previous == null || previous._code.equals(code);
+    }
+
+    int getUsedStateCount()
+    {
+        return _usedStates.size();
+    }
+
+    private byte[] sign(byte[] payload)
+    {
+        byte[] signature = new byte[SIGNATURE_LENGTH];
+
+        System.arraycopy(_mac.get().doFinal(payload), 0, signature, 0, SIGNATURE_LENGTH);
+
+        return signature;
+    }
+
+    private Mac createMac()
+    {
+        if (_key == null)
+        {
+            throw new IllegalStateException("No state signing key is configured");
+        }
+
+        try
+        {
+            Mac mac = Mac.getInstance(MAC_ALGORITHM);
+
+            mac.init(_key);
+
+            return mac;
+        }
+        catch (GeneralSecurityException e)
+        {
+            throw new IllegalStateException("Could not create " + MAC_ALGORITHM + " for signing state", e);
+        }
+    }
+
+    private static final class UsedState
+    {
+        private final String _code;
+        private final long _expiresAt;
+
+        private UsedState(String code, long expiresAt)
+        {
+            _code = code;
+            _expiresAt = expiresAt;
+        }
+    }
+}
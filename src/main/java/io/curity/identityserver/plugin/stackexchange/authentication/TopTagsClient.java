@@ -0,0 +1,111 @@
+/*
+ *  Copyright 2026 Curity AB
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package io.curity.identityserver.plugin.stackexchange.authentication;
+
+import se.curity.identityserver.sdk.Nullable;
+import se.curity.identityserver.sdk.attribute.Attribute;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.StringJoiner;
+
+/**
+ * Fetches the tags that a user is most active in on the configured site with /me/top-tags.
+ *
+ * <p>They become one subject attribute, {@code top_tags}, with the names of the tags separated by commas, from the
+ * most to the least active.
+ */
+final class TopTagsClient implements ProfileEnrichment
+{
+    static final String PATH = "/2.2/me/top-tags";
+    static final Set<String> FIELDS = Set.of("tag_name");
+
+    private static final int MAX_TAGS = 5;
+
+    private final UpstreamTransport _upstreamTransport;
+    private final ApiFilters _apiFilters;
+    private final SiteRegistry _siteRegistry;
+    private final LoginMetrics _metrics;
+
+    TopTagsClient(UpstreamTransport upstreamTransport, ApiFilters apiFilters, SiteRegistry siteRegistry,
+                  LoginMetrics metrics)
+    {
+        _upstreamTransport = upstreamTransport;
+        _apiFilters = apiFilters;
+        _siteRegistry = siteRegistry;
+        _metrics = metrics;
+    }
+
+    @Override
+    public List<Attribute> getAttributes(String accessToken, AppShard shard) throws IOException
+    {
+        shard.getQuotaGovernor().acquire(PATH, false);
+
+        Map<String, Collection<String>> parameters = new LinkedHashMap<>(5);
+        @Nullable String filter = _apiFilters.getFilter();
+
+        parameters.put("key", Collections.singleton(shard.getAppKey()));
+        parameters.put("site", Collections.singleton(_siteRegistry.getSite()));
+        parameters.put("access_token", Collections.singleton(accessToken));
+        parameters.put("pagesize", Collections.singleton(String.valueOf(MAX_TAGS)));
+
+        if (filter != null)
+        {
+            parameters.put("filter", Collections.singleton(filter));
+        }
+
+        UpstreamResponse response = _upstreamTransport.get(UpstreamHost.API, PATH, parameters);
+        ApiResponse result;
+
+        _metrics.countUpstreamResponse(UpstreamHost.API, response.statusCode());
+
+        try (InputStream body = response.body())
+        {
+            result = ApiResponseParser.parse(body, FIELDS, MAX_TAGS);
+        }
+
+        shard.getQuotaGovernor().observe(PATH, result);
+
+        if (response.statusCode() != 200)
+        {
+            throw new IOException("Error response from " + PATH + ": " + response.statusCode() + ", " +
+                    result.getErrorName() + ": " + result.getErrorMessage());
+        }
+
+        StringJoiner tags = new StringJoiner(",");
+
+        for (Map<String, String> item : result.getItems())
+        {
+            @Nullable String tag = item.get("tag_name");
+
+            if (tag != null)
+            {
+                tags.add(tag);
+            }
+        }
+
+        return tags.length() == 0
+                ? Collections.emptyList()
+                : Collections.singletonList(Attribute.of("top_tags", tags.toString()));
+    }
+}
@@ -0,0 +1,82 @@
+/*
+ *  Copyright 2026 Curity AB
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package io.curity.identityserver.plugin.stackexchange.authentication;
+
+import se.curity.identityserver.sdk.Nullable;
+
+import java.util.concurrent.Callable;
+
+/**
+ * Starts the spans of a login.
+ *
+ * <p>A span that is started while another one is open on the same thread becomes its child.
+ */
+interface Tracer
+{
+    /**
+     * A tracer that records nothing. Starting a span returns {@link Span#NOOP}, so disabled tracing allocates nothing.
+     */
+    Tracer DISABLED = new Tracer()
+    {
+        @Override
+        public Span startSpan(String name)
+        {
+            return Span.NOOP;
+        }
+
+        @Override
+        public Span startSpan(String name, @Nullable String traceparent)
+        {
+            return Span.NOOP;
+        }
+
+        @Nullable
+        @Override
+        public String getTraceparent()
+        {
+            return null;
+        }
+
+        @Override
+        public <T> Callable<T> wrap(Callable<T> task)
+        {
+            return task;
+        }
+    };
+
+    Span startSpan(String name);
+
+    /**
+     * Start the span of an incoming request. If no span is open on this thread and the request carries a valid W3C
+     * {@code traceparent} header, the span continues that trace, as a child of the caller's span. Otherwise, this is
+     * the same as {@link #startSpan(String)}.
+     *
+     * @param traceparent the {@code traceparent} header of the request, or null if it has none
+     */
+    Span startSpan(String name, @Nullable String traceparent);
+
+    /**
+     * @return the W3C {@code traceparent} header of the span that is open on this thread, or null if there is none
+     */
+    @Nullable
+    String getTraceparent();
+
+    /**
+     * Make a task that is run on another thread start its spans as children of the span that is open on this thread.
+     */
+    <T> Callable<T> wrap(Callable<T> task);
+}
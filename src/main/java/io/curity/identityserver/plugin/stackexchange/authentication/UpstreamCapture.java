@@ -0,0 +1,356 @@
+/*
+ *  Copyright 2026 Curity AB
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package io.curity.identityserver.plugin.stackexchange.authentication;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.AbstractMap;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.regex.Pattern;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * The file format of captured exchanges with StackExchange, and the redaction of the secrets in them.
+ *
+ * <p>A capture file is a sequence of records, each of which is its length as a 4 byte integer followed by one
+ * {@link Exchange}. Records are only ever appended, so a file can be read while it is still being written to, and a
+ * record that was cut short by a crash is simply ignored.
+ *
+ * <p>Access tokens, authorization codes and client secrets are replaced by {@value #REDACTED}, both in the
+ * parameters of requests and in the bodies of responses. Bodies that contain none of them are kept byte for byte, so
+ * that their size and compression are those of the original. Everything else, including the profiles of users, is
+ * kept, so capture files should be handled like any other personal data.
+ *
+ * <p>A body that was truncated may end in the middle of a secret, so a value that is cut off is redacted as well. A
+ * truncated compressed body can't be checked as it is, so it's replaced by the part of it that can be inflated, which
+ * is redacted and compressed again; the raw bytes of a truncated compressed body are never kept.
+ */
+final class UpstreamCapture
+{
+    static final String REDACTED = "REDACTED";
+
+    private static final int VERSION = 2;
+    private static final Set<String> SECRET_PARAMETERS = Set.of("access_token", "refresh_token", "code",
+            "client_secret");
+    private static final Pattern SECRET_JSON_FIELD = Pattern.compile(
+            "(\"(?:access_token|refresh_token|client_secret)\"\\s*:\\s*\")(?:[^\"\\\\]|\\\\.)*(?:\"|\\\\?$)");
+    private static final Pattern SECRET_FORM_FIELD = Pattern.compile(
+            "(^|&)((?:access_token|refresh_token|client_secret)=)[^&]*");
+
+    private UpstreamCapture()
+    {
+    }
+
+    static String redactParameter(String name, String value)
+    {
+        return SECRET_PARAMETERS.contains(name) ? REDACTED : value;
+    }
+
+    /**
+     * @param body a response body as it was received, which may be compressed
+     * @return the body with the values of secret fields replaced, compressed again if it was compressed
+     */
+    static byte[] redactBody(byte[] body) throws IOException
+    {
+        boolean compressed = body.length >= 2 && (body[0] & 0xff) == 0x1f && (body[1] & 0xff) == 0x8b;
+        boolean truncated = false;
+        String text;
+
+        if (compressed)
+        {
+            ByteArrayOutputStream inflated = new ByteArrayOutputStream(body.length * 4);
+
+            try (InputStream inflating = new GZIPInputStream(new ByteArrayInputStream(body)))
+            {
+                byte[] buffer = new byte[8192];
+                int read;
+
+                while ((read = inflating.read(buffer)) >= 0)
+                {
+                    inflated.write(buffer, 0, read);
+                }
+            }
+            catch (EOFException e)
+            {
+                // The capture of the body was truncated, so keep what could be inflated of it
+                truncated = true;
+            }
+
+            text = new String(inflated.toByteArray(), StandardCharsets.UTF_8);
+        }
+        else
+        {
+            text = new String(body, StandardCharsets.UTF_8);
+        }
+
+        String redacted = SECRET_JSON_FIELD.matcher(text).replaceAll("$1" + REDACTED + "\"");
+
+        redacted = SECRET_FORM_FIELD.matcher(redacted).replaceAll("$1$2" + REDACTED);
+
+        if (redacted.equals(text) && !truncated)
+        {
+            return body;
+        }
+
+        if (!compressed)
+        {
+            return redacted.getBytes(StandardCharsets.UTF_8);
+        }
+
+        ByteArrayOutputStream result = new ByteArrayOutputStream(body.length);
+
+        try (GZIPOutputStream gzipStream = new GZIPOutputStream(result))
+        {
+            gzipStream.write(redacted.getBytes(StandardCharsets.UTF_8));
+        }
+
+        return result.toByteArray();
+    }
+
+    /**
+     * Read all complete records of a capture file.
+     */
+    static List<Exchange> read(Path file) throws IOException
+    {
+        List<Exchange> exchanges = new ArrayList<>();
+
+        try (DataInputStream input = new DataInputStream(Files.newInputStream(file)))
+        {
+            while (true)
+            {
+                byte[] record;
+
+                try
+                {
+                    record = new byte[input.readInt()];
+                    input.readFully(record);
+                }
+                catch (EOFException e)
+                {
+                    return exchanges;
+                }
+
+                exchanges.add(Exchange.read(new DataInputStream(new ByteArrayInputStream(record))));
+            }
+        }
+    }
+
+    /**
+     * One request to StackExchange and its response.
+     */
+    static final class Exchange
+    {
+        /**
+         * The status code of an exchange where no response was received, e.g., because the connection failed.
+         */
+        static final int NO_RESPONSE = -1;
+
+        private final long _startedAt;
+        private final UpstreamHost _host;
+        private final String _method;
+        private final String _path;
+        private final List<Map.Entry<String, String>> _parameters;
+        private final int _statusCode;
+        private final long _headersNanos;
+        private final long _bodyNanos;
+        private final int _bodySize;
+        private final boolean _truncated;
+        private final byte[] _body;
+
+        /**
+         * @param startedAt when the request was sent, in milliseconds since the epoch
+         * @param parameters the redacted query or form parameters
+         * @param headersNanos how long it took until the response headers had arrived
+         * @param bodyNanos how long it took to receive the body, not counting the time spent processing it
+         * @param bodySize the number of bytes of the body that were received
+         * @param truncated whether the body was cut short, because it was too big to capture or the caller closed it
+         * before its end
+         * @param body the redacted body, which may be shorter than the original if it was truncated
+         */
+        Exchange(long startedAt, UpstreamHost host, String method, String path,
+                 List<Map.Entry<String, String>> parameters, int statusCode, long headersNanos, long bodyNanos,
+                 int bodySize, boolean truncated, byte[] body)
+        {
+            _startedAt = startedAt;
+            _host = host;
+            _method = method;
+            _path = path;
+            _parameters = Collections.unmodifiableList(parameters);
+            _statusCode = statusCode;
+            _headersNanos = headersNanos;
+            _bodyNanos = bodyNanos;
+            _bodySize = bodySize;
+            _truncated = truncated;
+            _body = body;
+        }
+
+        long getStartedAt()
+        {
+            return _startedAt;
+        }
+
+        UpstreamHost getHost()
+        {
+            return _host;
+        }
+
+        String getMethod()
+        {
+            return _method;
+        }
+
+        String getPath()
+        {
+            return _path;
+        }
+
+        List<Map.Entry<String, String>> getParameters()
+        {
+            return _parameters;
+        }
+
+        int getStatusCode()
+        {
+            return _statusCode;
+        }
+
+        long getHeadersNanos()
+        {
+            return _headersNanos;
+        }
+
+        long getBodyNanos()
+        {
+            return _bodyNanos;
+        }
+
+        int getBodySize()
+        {
+            return _bodySize;
+        }
+
+        boolean isTruncated()
+        {
+            return _truncated;
+        }
+
+        byte[] getBody()
+        {
+            return _body.clone();
+        }
+
+        /**
+         * @return the record of this exchange, including its length prefix
+         */
+        byte[] toRecord()
+        {
+            ByteArrayOutputStream record = new ByteArrayOutputStream(128 + _body.length);
+
+            try (DataOutputStream output = new DataOutputStream(record))
+            {
+                output.writeInt(0);
+                output.writeByte(VERSION);
+                output.writeLong(_startedAt);
+                output.writeUTF(_host.name());
+                output.writeUTF(_method);
+                output.writeUTF(_path);
+                output.writeShort(_parameters.size());
+
+                for (Map.Entry<String, String> parameter : _parameters)
+                {
+                    output.writeUTF(parameter.getKey());
+                    output.writeUTF(parameter.getValue());
+                }
+
+                output.writeInt(_statusCode);
+                output.writeLong(_headersNanos);
+                output.writeLong(_bodyNanos);
+                output.writeInt(_bodySize);
+                output.writeBoolean(_truncated);
+                output.writeInt(_body.length);
+                output.write(_body);
+            }
+            catch (IOException e)
+            {
+                throw new IllegalStateException("Could not write to memory", e);
+            }
+
+            byte[] result = record.toByteArray();
+            int length = result.length - Integer.BYTES;
+
+            result[0] = (byte) (length >>> 24);
+            result[1] = (byte) (length >>> 16);
+            result[2] = (byte) (length >>> 8);
+            result[3] = (byte) length;
+
+            return result;
+        }
+
+        private static Exchange read(DataInputStream input) throws IOException
+        {
+            int version = input.readUnsignedByte();
+
+            if (version < 1 || version > VERSION)
+            {
+                throw new IOException("Unsupported capture record version " + version);
+            }
+
+            long startedAt = input.readLong();
+            UpstreamHost host = UpstreamHost.valueOf(input.readUTF());
+            String method = input.readUTF();
+            String path = input.readUTF();
+            int parameterCount = input.readUnsignedShort();
+            List<Map.Entry<String, String>> parameters = new ArrayList<>(parameterCount);
+
+            for (int i = 0; i < parameterCount; i++)
+            {
+                parameters.add(new AbstractMap.SimpleImmutableEntry<>(input.readUTF(), input.readUTF()));
+            }
+
+            int statusCode = input.readInt();
+            long headersNanos = input.readLong();
+            long bodyNanos = input.readLong();
+            int bodySize = input.readInt();
+            // Records of version 1 have no flag; their bodies were only truncated when they were too big to capture
+            boolean truncated = version > 1 && input.readBoolean();
+            byte[] body = new byte[input.readInt()];
+
+            input.readFully(body);
+
+            if (version == 1)
+            {
+                truncated = body.length < bodySize;
+            }
+
+            return new Exchange(startedAt, host, method, path, parameters, statusCode, headersNanos, bodyNanos,
+                    bodySize, truncated, body);
+        }
+    }
+}
@@ -0,0 +1,241 @@
+/*
+ *  Copyright 2026 Curity AB
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package io.curity.identityserver.plugin.stackexchange.authentication;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A bulkhead and circuit breaker for one StackExchange host.
+ *
+ * <p>The bulkhead caps the number of concurrent requests to the host. The cap adapts to the observed latency: it is
+ * cut by 10% each time a request is slower than the latency threshold, and grows by one for roughly every
+ * {@code limit} requests that are faster, between 1 and the configured maximum.
+ *
+ * <p>The circuit breaker counts calls that fail or are slow in consecutive windows of {@code openDuration}. When, in
+ * a window with at least {@code minimumCalls} calls, the share of bad calls reaches the threshold, the circuit opens
+ * and all requests fail fast. After {@code openDuration}, a single probe request is let through (half-open); if it
+ * succeeds, the circuit closes again, otherwise it stays open for another period.
+ */
+final class UpstreamGuard
+{
+    enum State
+    {
+        CLOSED, OPEN, HALF_OPEN
+    }
+
+    private final UpstreamHost _host;
+    private final int _maxLimit;
+    private final long _slowCallThresholdNanos;
+    private final int _failureRateThreshold;
+    private final int _minimumCalls;
+    private final long _openDurationNanos;
+
+    private final AtomicInteger _limit;
+    private final AtomicInteger _inFlight = new AtomicInteger();
+    private final AtomicInteger _fastCallsSinceIncrease = new AtomicInteger();
+
+    private final AtomicReference<State> _state = new AtomicReference<>(State.CLOSED);
+    private final AtomicLong _stateChangedAt = new AtomicLong(System.nanoTime());
+    private final AtomicLong _windowStartedAt = new AtomicLong(System.nanoTime());
+    private final LongAdder _windowCalls = new LongAdder();
+    private final LongAdder _windowBadCalls = new LongAdder();
+    private volatile long _lastReleasedAt = System.nanoTime();
+
+    UpstreamGuard(UpstreamHost host, int maxConcurrentRequests, int slowCallThresholdMillis, int failureRateThreshold,
+                  int minimumCalls, int openDurationSeconds)
+    {
+        _host = host;
+        _maxLimit = Math.max(1, maxConcurrentRequests);
+        _slowCallThresholdNanos = TimeUnit.MILLISECONDS.toNanos(slowCallThresholdMillis);
+        _failureRateThreshold = failureRateThreshold;
+        _minimumCalls = Math.max(1, minimumCalls);
+        _openDurationNanos = TimeUnit.SECONDS.toNanos(openDurationSeconds);
+        _limit = new AtomicInteger(_maxLimit);
+    }
+
+    /**
+     * Reserve room for a request to the host.
+     *
+     * @throws UpstreamUnavailableException if the circuit is open or the concurrency limit has been reached
+     */
+    void acquire()
+    {
+        State state = _state.get();
+
+        if (state == State.OPEN)
+        {
+            if (System.nanoTime() - _stateChangedAt.get() < _openDurationNanos
+                    || !transition(State.OPEN, State.HALF_OPEN))
+            {
+                throw new UpstreamUnavailableException("Circuit to " + _host.getHostName() + " is open");
+            }
+
+            // This thread won the race to become the probe
+        }
+        else if (state == State.HALF_OPEN)
+        {
+            throw new UpstreamUnavailableException("Circuit to " + _host.getHostName() + " is half-open");
+        }
+
+        int inFlight = _inFlight.incrementAndGet();
+
+        if (inFlight > _limit.get())
+        {
+            _inFlight.decrementAndGet();
+
+            if (_state.get() == State.HALF_OPEN)
+            {
+                // Let the next caller probe instead
+                transition(State.HALF_OPEN, State.OPEN);
+            }
+
+            throw new UpstreamUnavailableException("Too many concurrent requests to " + _host.getHostName());
+        }
+    }
+
+    /**
+     * Release room reserved by {@link #acquire()} and record the outcome of the request.
+     *
+     * @param failed whether the host failed to serve the request, e.g., because of a 5xx status or an I/O error
+     * @param latencyNanos how long the request took
+     */
+    void release(boolean failed, long latencyNanos)
+    {
+        _inFlight.decrementAndGet();
+        _lastReleasedAt = System.nanoTime();
+
+        boolean slow = latencyNanos > _slowCallThresholdNanos;
+
+        adaptLimit(slow);
+
+        if (_state.get() == State.HALF_OPEN)
+        {
+            if (failed || slow)
+            {
+                transition(State.HALF_OPEN, State.OPEN);
+            }
+            else if (transition(State.HALF_OPEN, State.CLOSED))
+            {
+                startNewWindow(System.nanoTime());
+            }
+
+            return;
+        }
+
+        recordInWindow(failed || slow);
+    }
+
+    State getState()
+    {
+        return _state.get();
+    }
+
+    int getLimit()
+    {
+        return _limit.get();
+    }
+
+    int getInFlight()
+    {
+        return _inFlight.get();
+    }
+
+    /**
+     * @return the {@link System#nanoTime()} at which the last request to the host completed, including warm-ups
+     */
+    long getLastReleasedAt()
+    {
+        return _lastReleasedAt;
+    }
+
+    /**
+     * Record a request that bypassed the guard, e.g., a warm-up, as activity on the host, without it counting towards
+     * the limit or the circuit breaker.
+     */
+    void recordActivity()
+    {
+        _lastReleasedAt = System.nanoTime();
+    }
+
+    private void adaptLimit(boolean slow)
+    {
+        if (slow)
+        {
+            _fastCallsSinceIncrease.set(0);
+            _limit.updateAndGet(limit -> Math.max(1, limit - Math.max(1, limit / 10)));
+        }
+        else
+        {
+            int limit = _limit.get();
+
+            if (limit < _maxLimit && _fastCallsSinceIncrease.incrementAndGet() >= limit)
+            {
+                _fastCallsSinceIncrease.set(0);
+                _limit.compareAndSet(limit, limit + 1);
+            }
+        }
+    }
+
+    private void recordInWindow(boolean bad)
+    {
+        long now = System.nanoTime();
+        long windowStartedAt = _windowStartedAt.get();
+
+        if (now - windowStartedAt >= _openDurationNanos && _windowStartedAt.compareAndSet(windowStartedAt, now))
+        {
+            _windowCalls.reset();
+            _windowBadCalls.reset();
+        }
+
+        _windowCalls.increment();
+
+        if (bad)
+        {
+            _windowBadCalls.increment();
+        }
+
+        long calls = _windowCalls.sum();
+
+        if (calls >= _minimumCalls && _windowBadCalls.sum() * 100 >= calls * _failureRateThreshold)
+        {
+            transition(State.CLOSED, State.OPEN);
+        }
+    }
+
+    private void startNewWindow(long now)
+    {
+        _windowStartedAt.set(now);
+        _windowCalls.reset();
+        _windowBadCalls.reset();
+    }
+
+    private boolean transition(State from, State to)
+    {
+        if (_state.compareAndSet(from, to))
+        {
+            _stateChangedAt.set(System.nanoTime());
+
+            return true;
+        }
+
+        return false;
+    }
+}
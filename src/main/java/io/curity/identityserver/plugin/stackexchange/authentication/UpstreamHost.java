@@ -0,0 +1,45 @@
+/*
+ *  Copyright 2026 Curity AB
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package io.curity.identityserver.plugin.stackexchange.authentication;
+
+/**
+ * The StackExchange hosts that the authenticator talks to.
+ */
+public enum UpstreamHost
+{
+    /**
+     * The host of the OAuth authorization and token endpoints.
+     */
+    OAUTH("stackexchange.com"),
+
+    /**
+     * The host of the StackExchange API, e.g., the user info (/me) endpoint.
+     */
+    API("api.stackexchange.com");
+
+    private final String _hostName;
+
+    UpstreamHost(String hostName)
+    {
+        _hostName = hostName;
+    }
+
+    public String getHostName()
+    {
+        return _hostName;
+    }
+}
@@ -0,0 +1,47 @@
+/*
+ *  Copyright 2026 Curity AB
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package io.curity.identityserver.plugin.stackexchange.authentication;
+
+import java.io.InputStream;
+
+/**
+ * The status and body of a response from one of the StackExchange hosts.
+ *
+ * <p>The body is exposed as a stream so that it can be decoded without first being copied into a string. It can only
+ * be consumed once, and must always be closed, even when it isn't read, since that releases the connection.
+ */
+final class UpstreamResponse
+{
+    private final int _statusCode;
+    private final InputStream _body;
+
+    UpstreamResponse(int statusCode, InputStream body)
+    {
+        _statusCode = statusCode;
+        _body = body;
+    }
+
+    int statusCode()
+    {
+        return _statusCode;
+    }
+
+    InputStream body()
+    {
+        return _body;
+    }
+}
@@ -0,0 +1,33 @@
+/*
+ *  Copyright 2026 Curity AB
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package io.curity.identityserver.plugin.stackexchange.authentication;
+
+import java.util.Collection;
+import java.util.Map;
+
+/**
+ * The means by which requests are sent to StackExchange.
+ *
+ * <p>An instance is long-lived and shared by all request handlers of an authenticator, so implementations must be
+ * thread-safe and should reuse connections between calls.
+ */
+interface UpstreamTransport
+{
+    UpstreamResponse get(UpstreamHost host, String path, Map<String, Collection<String>> queryParameters);
+
+    UpstreamResponse postForm(UpstreamHost host, String path, Map<String, String> formData);
+}
@@ -0,0 +1,30 @@
+/*
+ *  Copyright 2026 Curity AB
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package io.curity.identityserver.plugin.stackexchange.authentication;
+
+/**
+ * Thrown when a request to StackExchange is not even attempted, because the host is considered unhealthy or too many
+ * requests to it are already in flight.
+ */
+final class UpstreamUnavailableException extends RuntimeException
+{
+    UpstreamUnavailableException(String message)
+    {
+        // No stack trace is needed; the point is to fail fast and cheaply
+        super(message, null, false, false);
+    }
+}
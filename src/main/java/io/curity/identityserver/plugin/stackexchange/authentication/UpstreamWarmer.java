@@ -0,0 +1,222 @@
+/*
+ *  Copyright 2026 Curity AB
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package io.curity.identityserver.plugin.stackexchange.authentication;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Opens connections to the StackExchange hosts ahead of the logins that need them.
+ *
+ * <p>Otherwise, the first logins after a restart pay for resolving the hosts, the TCP and TLS handshakes, and loading
+ * the classes of the HTTP stack. When the authenticator is configured, each host is resolved and the configured
+ * number of requests are made to it at the same time, so that as many keep-alive connections end up in the pool of
+ * the HTTP client. Afterwards, a host that has served no logins for the configured interval is warmed up again, so
+ * that its pool isn't left empty by idle timeouts.
+ *
+ * <p>Warm-up requests fetch a tiny static resource, which doesn't count towards the API quota. They bypass the
+ * upstream guards, so they neither take room from logins nor affect the circuit breakers, but a warm-up is recorded
+ * as activity on the guard of its host, so that the host isn't warmed up again until it has been idle for another
+ * interval. The scheduler only checks which hosts are idle; the warm-ups themselves wait for their requests, so they
+ * run as workers, at most one per host at a time.
+ */
+final class UpstreamWarmer
+{
+    static final String PATH = "/robots.txt";
+
+    private static final Logger _logger = LoggerFactory.getLogger(UpstreamWarmer.class);
+    private static final long WARM_UP_TIMEOUT_SECONDS = 10;
+
+    private final UpstreamTransport _upstreamTransport;
+    private final GuardedUpstreamTransport _guardedTransport;
+    private final ExecutorService _workerExecutor;
+    private final int _connections;
+    private final long _intervalNanos;
+    private final ScheduledExecutorService _scheduler;
+    private final Map<UpstreamHost, AtomicBoolean> _warmingUp = new EnumMap<>(UpstreamHost.class);
+
+    /**
+     * @param upstreamTransport the transport to warm up, without any guards
+     * @param guardedTransport the guarded transport that the logins use, to tell when a host was last used
+     * @param connections the number of connections to open to each host, or zero to not warm up at all
+     * @param intervalSeconds how long a host may be idle before it's warmed up again, or zero to only warm up once
+     * @param scheduler the scheduler to check for idle hosts on
+     */
+    UpstreamWarmer(UpstreamTransport upstreamTransport, GuardedUpstreamTransport guardedTransport,
+                   ExecutorService workerExecutor, int connections, int intervalSeconds,
+                   ScheduledExecutorService scheduler)
+    {
+        _upstreamTransport = upstreamTransport;
+        _guardedTransport = guardedTransport;
+        _workerExecutor = workerExecutor;
+        _connections = Math.max(0, connections);
+        _intervalNanos = TimeUnit.SECONDS.toNanos(Math.max(0, intervalSeconds));
+        _scheduler = scheduler;
+
+        for (UpstreamHost host : UpstreamHost.values())
+        {
+            _warmingUp.put(host, new AtomicBoolean());
+        }
+    }
+
+    /**
+     * Warm up all hosts in the background and schedule warming up idle ones again.
+     */
+    void start()
+    {
+        if (_connections == 0)
+        {
+            return;
+        }
+
+        for (UpstreamHost host : UpstreamHost.values())
+        {
+            startWarmUp(host);
+        }
+
+        if (_intervalNanos > 0)
+        {
+            _scheduler.scheduleWithFixedDelay(this::warmUpIdleHosts, _intervalNanos, _intervalNanos,
+                    TimeUnit.NANOSECONDS);
+        }
+    }
+
+    private void warmUpIdleHosts()
+    {
+        long now = System.nanoTime();
+
+        for (UpstreamHost host : UpstreamHost.values())
+        {
+            if (now - _guardedTransport.getGuard(host).getLastReleasedAt() >= _intervalNanos)
+            {
+                startWarmUp(host);
+            }
+        }
+    }
+
+    /**
+     * Warm up a host on a worker, unless it's already being warmed up.
+     */
+    private void startWarmUp(UpstreamHost host)
+    {
+        AtomicBoolean warmingUp = _warmingUp.get(host);
+
+        if (!warmingUp.compareAndSet(false, true))
+        {
+            return;
+        }
+
+        try
+        {
+            _workerExecutor.execute(() ->
+            {
+                try
+                {
+                    warmUp(host);
+                }
+                finally
+                {
+                    _guardedTransport.getGuard(host).recordActivity();
+                    warmingUp.set(false);
+                }
+            });
+        }
+        catch (RuntimeException e)
+        {
+            warmingUp.set(false);
+
+            _logger.debug("Could not start warming up {}", host.getHostName(), e);
+        }
+    }
+
+    private void warmUp(UpstreamHost host)
+    {
+        long start = System.nanoTime();
+
+        try
+        {
+            InetAddress.getAllByName(host.getHostName());
+        }
+        catch (UnknownHostException e)
+        {
+            // That's not necessarily a problem, e.g., when a forwarding proxy resolves the host instead
+            _logger.debug("Could not resolve {}", host.getHostName());
+        }
+
+        // The requests are made concurrently, since ones made one after the other would reuse a single connection
+        List<Future<?>> requests = new ArrayList<>(_connections);
+
+        for (int i = 0; i < _connections; i++)
+        {
+            requests.add(_workerExecutor.submit(() -> request(host)));
+        }
+
+        int warmed = 0;
+
+        for (Future<?> request : requests)
+        {
+            try
+            {
+                request.get(WARM_UP_TIMEOUT_SECONDS, TimeUnit.SECONDS);
+                warmed++;
+            }
+            catch (ExecutionException | TimeoutException e)
+            {
+                request.cancel(true);
+
+                _logger.debug("A warm-up request to {} failed", host.getHostName(), e);
+            }
+            catch (InterruptedException e)
+            {
+                Thread.currentThread().interrupt();
+
+                return;
+            }
+        }
+
+        _logger.debug("Warmed up {} of {} connections to {} in {} ms", warmed, _connections, host.getHostName(),
+                TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start));
+    }
+
+    private Void request(UpstreamHost host) throws Exception
+    {
+        // The body is read to its end, so that the connection is returned to the pool rather than closed
+        try (InputStream body = _upstreamTransport.get(host, PATH, Collections.emptyMap()).body())
+        {
+            body.transferTo(OutputStream.nullOutputStream());
+        }
+
+        return null;
+    }
+}
@@ -0,0 +1,95 @@
+/*
+ *  Copyright 2026 Curity AB
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package io.curity.identityserver.plugin.stackexchange.authentication;
+
+import se.curity.identityserver.sdk.Nullable;
+import se.curity.identityserver.sdk.http.HttpRequest;
+import se.curity.identityserver.sdk.http.HttpResponse;
+import se.curity.identityserver.sdk.service.HttpClient;
+import se.curity.identityserver.sdk.service.WebServiceClient;
+import se.curity.identityserver.sdk.service.WebServiceClientFactory;
+
+import java.net.URI;
+import java.util.Collection;
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.Optional;
+
+import static se.curity.identityserver.sdk.http.HttpRequest.createFormUrlEncodedBodyProcessor;
+
+/**
+ * An {@link UpstreamTransport} that uses the web service clients of the SDK.
+ *
+ * <p>One client is created per host when the authenticator is configured and then reused by every request, so that
+ * the connection pool (and keep-alive connections) of the underlying HTTP client is shared, rather than a new client
+ * being created on each login. Both hosts go through the configured HTTP client, if any. Pool size, idle timeout and
+ * protocol version are properties of that HTTP client facility.
+ *
+ * <p>When a span is open on the calling thread, its trace context is sent in the W3C {@code traceparent} header.
+ */
+final class WebServiceClientTransport implements UpstreamTransport
+{
+    private final Map<UpstreamHost, WebServiceClient> _clients = new EnumMap<>(UpstreamHost.class);
+    private final Tracer _tracer;
+
+    WebServiceClientTransport(WebServiceClientFactory webServiceClientFactory, Optional<HttpClient> httpClient,
+                              Tracer tracer)
+    {
+        _tracer = tracer;
+
+        for (UpstreamHost host : UpstreamHost.values())
+        {
+            _clients.put(host, httpClient
+                    .map(client -> webServiceClientFactory.create(client).withHost(host.getHostName()))
+                    .orElseGet(() -> webServiceClientFactory.create(URI.create("https://" + host.getHostName()))));
+        }
+    }
+
+    @Override
+    public UpstreamResponse get(UpstreamHost host, String path, Map<String, Collection<String>> queryParameters)
+    {
+        HttpResponse response = withTraceparent(_clients.get(host)
+                .withPath(path)
+                .withQueries(queryParameters)
+                .request())
+                .get()
+                .response();
+
+        return new UpstreamResponse(response.statusCode(), response.body(HttpResponse.asInputStream()));
+    }
+
+    @Override
+    public UpstreamResponse postForm(UpstreamHost host, String path, Map<String, String> formData)
+    {
+        HttpResponse response = withTraceparent(_clients.get(host)
+                .withPath(path)
+                .request())
+                .contentType("application/x-www-form-urlencoded")
+                .body(createFormUrlEncodedBodyProcessor(formData))
+                .post()
+                .response();
+
+        return new UpstreamResponse(response.statusCode(), response.body(HttpResponse.asInputStream()));
+    }
+
+    private HttpRequest.Builder withTraceparent(HttpRequest.Builder request)
+    {
+        @Nullable String traceparent = _tracer.getTraceparent();
+
+        return traceparent == null ? request : request.header("traceparent", traceparent);
+    }
+}
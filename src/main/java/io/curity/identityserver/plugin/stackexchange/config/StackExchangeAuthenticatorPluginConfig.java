@@ -19,8 +19,10 @@ package io.curity.identityserver.plugin.stackexchange.config;
 import se.curity.identityserver.sdk.config.Configuration;
 import se.curity.identityserver.sdk.config.annotation.DefaultBoolean;
 import se.curity.identityserver.sdk.config.annotation.DefaultEnum;
+import se.curity.identityserver.sdk.config.annotation.DefaultInteger;
 import se.curity.identityserver.sdk.config.annotation.DefaultString;
 import se.curity.identityserver.sdk.config.annotation.Description;
+import se.curity.identityserver.sdk.service.Bucket;
 import se.curity.identityserver.sdk.service.ExceptionFactory;
 import se.curity.identityserver.sdk.service.HttpClient;
 import se.curity.identityserver.sdk.service.Json;
@@ -28,6 +30,7 @@ import se.curity.identityserver.sdk.service.SessionManager;
 import se.curity.identityserver.sdk.service.WebServiceClientFactory;
 import se.curity.identityserver.sdk.service.authentication.AuthenticatorInformationProvider;
 
+import java.util.List;
 import java.util.Optional;
 
 @SuppressWarnings("InterfaceNeverImplemented")
@@ -41,12 +44,47 @@ public interface StackExchangeAuthenticatorPluginConfig extends Configuration {
     @Description("StackExchange App Key")
     String getAppKey();
 
+    @Description("The share of logins that use the client id and app key above, relative to the weights of the additional app registrations, from 1 to 100")
+    @DefaultInteger(1)
+    int getAppWeight();
+
+    @Description("More StackExchange app registrations to spread logins over, so that they are not all limited by the daily quota of one app key")
+    List<AppRegistration> getAdditionalAppRegistrations();
+
+    interface AppRegistration
+    {
+        String getId();
+
+        @Description("Client id")
+        String getClientId();
+
+        @Description("Secret key used for communication with StackExchange")
+        String getClientSecret();
+
+        @Description("StackExchange App Key")
+        String getAppKey();
+
+        @Description("The share of logins that use this registration, relative to the weights of the others, from 1 to 100")
+        @DefaultInteger(1)
+        int getWeight();
+    }
+
     @Description("The HTTP client with any proxy and TLS settings that will be used to connect to stackexchange.com and api.stackexchange.com")
     Optional<HttpClient> getHttpClient();
 
     @DefaultEnum("stackoverflow")
     Site getSite();
 
+    @Description("The API site parameter of the site that users log in with, e.g., ru.stackoverflow, or its URL or host name, e.g., ru.stackoverflow.com. It is checked against the site metadata once that is available. Takes precedence over the site setting, so that sites that are not listed there can be used")
+    Optional<String> getSiteParameter();
+
+    @Description("The file to keep a snapshot of the StackExchange site metadata in, so that it is available immediately after a restart. If not set, the metadata is only kept in memory")
+    Optional<String> getSiteSnapshotFile();
+
+    @Description("The number of hours after which the StackExchange site metadata is fetched again. It is fetched at most every 10 minutes per app key, also when the authenticator is reconfigured. Zero disables fetching it")
+    @DefaultInteger(24)
+    int getSiteRefreshInterval();
+
     @SuppressWarnings({"SpellCheckingInspection", "unused"})
     enum Site
     {
@@ -237,6 +275,119 @@ public interface StackExchangeAuthenticatorPluginConfig extends Configuration {
     @DefaultBoolean(false)
     boolean isPrivateInfo();
 
+    @Description("Also get the user's accounts on all StackExchange sites with one extra call, and add their reputation and user ID on each site as subject attributes")
+    @DefaultBoolean(false)
+    boolean isIncludeNetworkAccounts();
+
+    @Description("Also get the tags that the user is most active in on the configured site with one extra call, and add them as the top_tags subject attribute")
+    @DefaultBoolean(false)
+    boolean isIncludeTopTags();
+
+    @Description("The number of milliseconds that the extra calls for network accounts and top tags may take, counting from when the user info is requested. They are made concurrently with it, and whatever hasn't arrived by then is left out rather than failing the login")
+    @DefaultInteger(1000)
+    int getEnrichmentDeadline();
+
+    @Description("The StackExchange API filter to request user info with. If not set, a filter that only includes the fields that the authenticator uses is created automatically")
+    Optional<String> getApiFilter();
+
+    @Description("Mappings of StackExchange user fields to subject attributes, written as attribute=field, e.g., reputation=reputation. Append :name or :photo to the field to map it to a SCIM name or photo. Fields of nested objects are given by their path, e.g., badge_counts.gold. If none are given, the link, account ID, location, display name, profile image, user ID and website URL are mapped. Other fields, such as the reputation and badge counts, are opt-in: add mappings for them, e.g., reputation=reputation and gold_badges=badge_counts.gold, together with the defaults that are still wanted")
+    List<String> getAttributeMappings();
+
+    @Description("The number of seconds that a user's StackExchange profile is cached after it has been fetched. Profiles are cached on the user ID, so the user info is still requested at each login, but the calls for network accounts and top tags are not made again. Zero disables the cache")
+    @DefaultInteger(300)
+    int getProfileCacheTimeToLive();
+
+    @Description("The maximum number of user profiles that are kept in the profile cache")
+    @DefaultInteger(10000)
+    int getProfileCacheMaxEntries();
+
+    @Description("The number of minutes between refreshes of cached profiles, which are fetched for up to 100 users at a time, so that a long profile cache time-to-live doesn't leave them stale. Only used when no_expiry is requested. Zero disables refreshing")
+    @DefaultInteger(0)
+    int getProfileSyncInterval();
+
+    @Description("Periodically log the number of hits and misses in the profile cache")
+    @DefaultBoolean(false)
+    boolean isLogProfileCacheStatistics();
+
+    @Description("Use a signed, time-bound state parameter that is verified without storing it in the session. This saves two session store round-trips per login, but the state is then no longer bound to the user's session. A state is only accepted with the first authorization code that it is used with on each node")
+    @DefaultBoolean(false)
+    boolean isUseStatelessState();
+
+    @Description("The key used to sign the state parameter when stateless state is used. It must be at least 32 characters long")
+    Optional<String> getStateSigningKey();
+
+    @Description("The number of seconds that a signed state parameter is valid for")
+    @DefaultInteger(600)
+    int getStateLifetime();
+
+    @Description("Collect latency histograms and counters of logins, expose them over JMX as io.curity.identityserver.plugin.stackexchange:type=LoginMetrics, and log a summary of them when the authenticator is reconfigured or stopped")
+    @DefaultBoolean(true)
+    boolean isCollectLoginMetrics();
+
+    @Description("The maximum number of concurrent requests to each of stackexchange.com and api.stackexchange.com. The actual limit adapts to the observed latency, up to this value")
+    @DefaultInteger(64)
+    int getMaxConcurrentUpstreamRequests();
+
+    @Description("The number of milliseconds after which a request to StackExchange is considered slow. Slow requests lower the concurrency limit and count as failures for the circuit breaker")
+    @DefaultInteger(3000)
+    int getSlowUpstreamRequestThreshold();
+
+    @Description("The percentage of failed or slow requests to a StackExchange host at which its circuit breaker opens, and further requests fail fast")
+    @DefaultInteger(50)
+    int getCircuitBreakerFailureRateThreshold();
+
+    @Description("The minimum number of requests to a StackExchange host in a period before its circuit breaker may open")
+    @DefaultInteger(20)
+    int getCircuitBreakerMinimumRequests();
+
+    @Description("The number of seconds that a circuit breaker stays open before a probe request is let through. This is also the length of the period over which the failure rate is measured")
+    @DefaultInteger(30)
+    int getCircuitBreakerOpenDuration();
+
+    @Description("When no more than this many requests remain of the app key's daily StackExchange API quota, calls that are not needed to log in are no longer made")
+    @DefaultInteger(500)
+    int getQuotaReserve();
+
+    @Description("The maximum number of milliseconds that a login waits when StackExchange has asked the authenticator to back off. Logins fail if the backoff is longer")
+    @DefaultInteger(2000)
+    int getMaxBackoffWait();
+
+    @Description("A bucket where the backoff and quota state is shared, so that all nodes in a cluster respect it. If not set, each node keeps track of this on its own")
+    Optional<Bucket> getQuotaStateBucket();
+
+    @Description("The number of connections to open to each StackExchange host when the authenticator is configured, so that the first logins don't wait for DNS lookups and TLS handshakes. Zero disables warming up")
+    @DefaultInteger(0)
+    int getWarmUpConnections();
+
+    @Description("The number of seconds that a StackExchange host may go without requests before its connections are warmed up again, so that idle timeouts don't leave the connection pool empty. Zero only warms up once")
+    @DefaultInteger(50)
+    int getWarmUpInterval();
+
+    @Description("Whether to record tracing spans of logins and their calls to StackExchange, and how to export them. When enabled, the trace context is passed on to StackExchange in the traceparent header")
+    @DefaultEnum("disabled")
+    Tracing getTracing();
+
+    @Description("The maximum number of milliseconds that handling the callback from StackExchange may take, including all calls to StackExchange. Each call gets the time that remains as its timeout, and the login fails when the time runs out, or when too many calls are already waiting. Zero disables the limit")
+    @DefaultInteger(0)
+    int getLoginDeadline();
+
+    @Description("Send a second request for the user info when the first one hasn't answered within this percentile of the latencies of recent ones, e.g., 95, and use whichever response arrives first. Zero disables hedging")
+    @DefaultInteger(0)
+    int getUserInfoHedgePercentile();
+
+    @Description("The maximum number of hedged user info requests, as a percentage of all user info requests")
+    @DefaultInteger(5)
+    int getUserInfoHedgeBudget();
+
+    @Description("Append every request to StackExchange and its response, with their timings, to this local file, so that slow logins can be replayed offline. Tokens, codes and secrets are redacted, but the file still holds the profiles of users. Meant to be set temporarily. If not set, nothing is captured")
+    Optional<String> getUpstreamCaptureFile();
+
+    enum Tracing
+    {
+        disabled,
+        log
+    }
+
     // Services that don't require any configuration
 
     AuthenticatorInformationProvider getAuthenticatorInformationProvider();
@@ -17,6 +17,7 @@
 package io.curity.identityserver.plugin.stackexchange.descriptor;
 
 import io.curity.identityserver.plugin.stackexchange.authentication.CallbackRequestHandler;
+import io.curity.identityserver.plugin.stackexchange.authentication.StackExchangeAuthenticatorManagedObject;
 import io.curity.identityserver.plugin.stackexchange.authentication.StackExchangeAuthenticatorRequestHandler;
 import io.curity.identityserver.plugin.stackexchange.config.StackExchangeAuthenticatorPluginConfig;
 import se.curity.identityserver.sdk.authentication.AuthenticatorRequestHandler;
@@ -25,6 +26,7 @@ import se.curity.identityserver.sdk.plugin.descriptor.AuthenticatorPluginDescrip
 import java.util.Collections;
 import java.util.LinkedHashMap;
 import java.util.Map;
+import java.util.Optional;
 
 public final class StackExchangeAuthenticatorPluginDescriptor
         implements AuthenticatorPluginDescriptor<StackExchangeAuthenticatorPluginConfig>
@@ -53,4 +55,11 @@ public final class StackExchangeAuthenticatorPluginDescriptor
 
         return Collections.unmodifiableMap(handlers);
     }
+
+    @Override
+    public Optional<StackExchangeAuthenticatorManagedObject> createManagedObject(
+            StackExchangeAuthenticatorPluginConfig configuration)
+    {
+        return Optional.of(new StackExchangeAuthenticatorManagedObject(configuration));
+    }
 }
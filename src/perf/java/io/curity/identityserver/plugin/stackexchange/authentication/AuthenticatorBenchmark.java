@@ -0,0 +1,140 @@
+/*
+ *  Copyright 2026 Curity AB
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package io.curity.identityserver.plugin.stackexchange.authentication;
+
+import io.curity.identityserver.plugin.stackexchange.config.StackExchangeAuthenticatorPluginConfig;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+import se.curity.identityserver.sdk.attribute.Attribute;
+import se.curity.identityserver.sdk.authentication.AuthenticationResult;
+import se.curity.identityserver.sdk.web.Request;
+import se.curity.identityserver.sdk.web.Response;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures the hot path of a StackExchange login, with all SDK services and StackExchange itself replaced by
+ * in-process fakes.
+ *
+ * <p>Run with {@code mvn -Pbenchmarks verify}. The gc profiler is enabled by the profile, so that the allocation rate
+ * per operation is reported along with the throughput.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class AuthenticatorBenchmark
+{
+    private static final String STATE = "0c3c0d5a-4a36-4fd4-b6c3-27ea3f00d8a7";
+
+    private StackExchangeAuthenticatorPluginConfig _config;
+    private StackExchangeAuthenticatorManagedObject _managedObject;
+    private StackExchangeAuthenticatorRequestHandler _indexHandler;
+    private CallbackRequestHandler _callbackHandler;
+    private Request _indexRequest;
+    private Request _callbackRequest;
+    private Response _response;
+    private byte[] _userInfoBody;
+    private Set<String> _userInfoFields;
+
+    @Setup(Level.Trial)
+    public void setUp()
+    {
+        // The profile cache is disabled, so that every callback measures the full exchange with the fakes, and so is
+        // the login deadline, so that the exchange runs on the benchmark thread rather than being handed off
+        _config = Fakes.configuration(Map.of(
+                "getProfileCacheTimeToLive", 0,
+                "getLoginDeadline", 0,
+                "getSiteRefreshInterval", 0,
+                "getApiFilter", Optional.of(Fakes.API_FILTER)));
+
+        _managedObject = new StackExchangeAuthenticatorManagedObject(_config,
+                Fakes.transport(Fakes.TOKEN_RESPONSE, Fakes.USER_INFO_RESPONSE), new InMemoryLoginMetrics());
+
+        _indexHandler = new StackExchangeAuthenticatorRequestHandler(_config, _managedObject);
+        _callbackHandler = new CallbackRequestHandler(_config, _managedObject);
+        _indexRequest = Fakes.request(Map.of());
+        _callbackRequest = Fakes.request(Map.of("code", "Xq6UgFvbf0E1k2pSmp9j2g))", "state", STATE));
+        _response = Fakes.response();
+        _userInfoBody = Fakes.gzip(Fakes.USER_INFO_RESPONSE);
+        _userInfoFields = _managedObject.getAttributeMapper().getFields();
+
+        _config.getSessionManager().put(Attribute.of("state", STATE));
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown()
+    {
+        _managedObject.close();
+    }
+
+    @Benchmark
+    public Object redirectToAuthorizationEndpoint()
+    {
+        try
+        {
+            return _indexHandler.get(_indexRequest, _response);
+        }
+        catch (Fakes.FakeException e)
+        {
+            return e;
+        }
+        finally
+        {
+            // The index handler replaces the state in the session, so put back the one the callback expects
+            _config.getSessionManager().put(Attribute.of("state", STATE));
+        }
+    }
+
+    @Benchmark
+    public Optional<AuthenticationResult> callback()
+    {
+        return _callbackHandler.get(_callbackHandler.preProcess(_callbackRequest, _response), _response);
+    }
+
+    @Benchmark
+    public Map<String, String> parseUserInfo() throws IOException
+    {
+        return ApiResponseParser.parseFirstItem(new ByteArrayInputStream(_userInfoBody), _userInfoFields)
+                .getFirstItem();
+    }
+
+    @Benchmark
+    public void createRedirectUri(Blackhole blackhole)
+    {
+        blackhole.consume(RedirectUriUtil.createRedirectUri(_config.getAuthenticatorInformationProvider(),
+                _config.getExceptionFactory()));
+    }
+}
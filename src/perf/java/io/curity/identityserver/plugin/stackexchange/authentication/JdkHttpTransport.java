@@ -0,0 +1,107 @@
+/*
+ *  Copyright 2026 Curity AB
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package io.curity.identityserver.plugin.stackexchange.authentication;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.net.URI;
+import java.net.URLEncoder;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.Collection;
+import java.util.Map;
+import java.util.StringJoiner;
+
+/**
+ * An {@link UpstreamTransport} that sends the requests of every host to one base URI with the JDK's HTTP client,
+ * e.g., to a {@link StackExchangeStub}.
+ *
+ * <p>The SDK's web service clients only work inside the server, so this takes their place when the handlers are
+ * driven from outside of it. Like them, it shares one connection pool between all requests.
+ */
+final class JdkHttpTransport implements UpstreamTransport
+{
+    private final HttpClient _httpClient = HttpClient.newBuilder()
+            .version(HttpClient.Version.HTTP_1_1)
+            .connectTimeout(Duration.ofSeconds(5))
+            .followRedirects(HttpClient.Redirect.NEVER)
+            .build();
+    private final URI _baseUri;
+
+    JdkHttpTransport(URI baseUri)
+    {
+        _baseUri = baseUri;
+    }
+
+    @Override
+    public UpstreamResponse get(UpstreamHost host, String path, Map<String, Collection<String>> queryParameters)
+    {
+        StringJoiner query = new StringJoiner("&");
+
+        queryParameters.forEach((name, values) ->
+        {
+            for (String value : values)
+            {
+                query.add(encode(name) + "=" + encode(value));
+            }
+        });
+
+        return send(HttpRequest.newBuilder(_baseUri.resolve(path + "?" + query)).GET().build());
+    }
+
+    @Override
+    public UpstreamResponse postForm(UpstreamHost host, String path, Map<String, String> formData)
+    {
+        StringJoiner form = new StringJoiner("&");
+
+        formData.forEach((name, value) -> form.add(encode(name) + "=" + encode(value)));
+
+        return send(HttpRequest.newBuilder(_baseUri.resolve(path))
+                .header("Content-Type", "application/x-www-form-urlencoded")
+                .POST(HttpRequest.BodyPublishers.ofString(form.toString()))
+                .build());
+    }
+
+    private UpstreamResponse send(HttpRequest request)
+    {
+        try
+        {
+            HttpResponse<InputStream> response = _httpClient.send(request, HttpResponse.BodyHandlers.ofInputStream());
+
+            return new UpstreamResponse(response.statusCode(), response.body());
+        }
+        catch (IOException e)
+        {
+            throw new UncheckedIOException(e);
+        }
+        catch (InterruptedException e)
+        {
+            Thread.currentThread().interrupt();
+
+            throw new IllegalStateException("Interrupted while calling " + request.uri(), e);
+        }
+    }
+
+    private static String encode(String value)
+    {
+        return URLEncoder.encode(value, StandardCharsets.UTF_8);
+    }
+}
@@ -0,0 +1,302 @@
+/*
+ *  Copyright 2026 Curity AB
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package io.curity.identityserver.plugin.stackexchange.authentication;
+
+import io.curity.identityserver.plugin.stackexchange.config.StackExchangeAuthenticatorPluginConfig;
+import se.curity.identityserver.sdk.authentication.AuthenticationResult;
+import se.curity.identityserver.sdk.web.Response;
+
+import java.io.IOException;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Drives complete logins through the real request handlers against a {@link StackExchangeStub} and reports the
+ * throughput and latency percentiles.
+ *
+ * <p>Each simulated user loops through the whole flow for the configured duration: the index handler redirects to
+ * the stub's authorization endpoint, which redirects back with a code, and the callback handler redeems the code and
+ * fetches the user info. Logins in the warm-up period aren't measured.
+ *
+ * <p>Arguments are given as {@code name=value}; see {@link #DEFAULTS} for the names and their defaults. If a
+ * {@code resultFile} is given, the results are also written to it in the CSV format of JMH, for the {@link PerfGate}.
+ * If a {@code replay} file is given, the calls to StackExchange are answered with the exchanges that were captured in
+ * it by a server, with their original timing, instead of by the stub; see {@link ReplayUpstreamTransport}.
+ */
+public final class LoadDriver
+{
+    private static final Map<String, String> DEFAULTS = Map.of(
+            "users", "50",
+            "duration", "30",
+            "warmup", "5",
+            "latency", "lognormal:80:0.5",
+            "errorRate", "0.001",
+            "gzip", "true",
+            "resultFile", "",
+            "replay", "");
+
+    private final int _users;
+    private final long _durationNanos;
+    private final long _warmupNanos;
+    private final StackExchangeAuthenticatorManagedObject _managedObject;
+    private final HttpClient _browser = HttpClient.newBuilder()
+            .version(HttpClient.Version.HTTP_1_1)
+            .followRedirects(HttpClient.Redirect.NEVER)
+            .build();
+    private final URI _stubBaseUri;
+    private final LatencyHistogram _latencies = new LatencyHistogram();
+    private final LongAdder _failures = new LongAdder();
+
+    private LoadDriver(int users, long durationSeconds, long warmupSeconds, URI stubBaseUri,
+                       UpstreamTransport upstreamTransport)
+    {
+        _users = users;
+        _durationNanos = TimeUnit.SECONDS.toNanos(durationSeconds);
+        _warmupNanos = TimeUnit.SECONDS.toNanos(warmupSeconds);
+        _stubBaseUri = stubBaseUri;
+        _managedObject = new StackExchangeAuthenticatorManagedObject(configuration(Fakes.sessionManager()),
+                upstreamTransport, new InMemoryLoginMetrics());
+    }
+
+    public static void main(String[] args) throws Exception
+    {
+        Map<String, String> options = new HashMap<>(DEFAULTS);
+
+        for (String arg : args)
+        {
+            int equals = arg.indexOf('=');
+
+            if (equals <= 0 || !DEFAULTS.containsKey(arg.substring(0, equals)))
+            {
+                throw new IllegalArgumentException("Unknown argument: " + arg + ". Known ones are " +
+                        DEFAULTS.keySet());
+            }
+
+            options.put(arg.substring(0, equals), arg.substring(equals + 1));
+        }
+
+        try (StackExchangeStub stub = new StackExchangeStub(
+                StackExchangeStub.LatencyModel.parse(options.get("latency")),
+                Double.parseDouble(options.get("errorRate")), Boolean.parseBoolean(options.get("gzip"))))
+        {
+            UpstreamTransport upstreamTransport = options.get("replay").isEmpty()
+                    ? new JdkHttpTransport(stub.getBaseUri())
+                    : replay(options.get("replay"));
+            LoadDriver driver = new LoadDriver(Integer.parseInt(options.get("users")),
+                    Long.parseLong(options.get("duration")), Long.parseLong(options.get("warmup")),
+                    stub.getBaseUri(), upstreamTransport);
+
+            System.out.println("Running " + options);
+            driver.run();
+
+            if (!options.get("resultFile").isEmpty())
+            {
+                driver.writeResults(options.get("resultFile"));
+            }
+        }
+    }
+
+    private static UpstreamTransport replay(String captureFile) throws IOException
+    {
+        ReplayUpstreamTransport transport = ReplayUpstreamTransport.load(Paths.get(captureFile));
+
+        System.out.println("Replaying " + transport.getExchangeCounts() + " from " + captureFile);
+
+        return transport;
+    }
+
+    private void run() throws InterruptedException
+    {
+        long start = System.nanoTime();
+        long measureFrom = start + _warmupNanos;
+        long end = measureFrom + _durationNanos;
+        CountDownLatch done = new CountDownLatch(_users);
+        List<Thread> threads = new ArrayList<>(_users);
+
+        for (int i = 0; i < _users; i++)
+        {
+            Thread thread = new Thread(() ->
+            {
+                try
+                {
+                    runUser(measureFrom, end);
+                }
+                finally
+                {
+                    done.countDown();
+                }
+            }, "load-user-" + i);
+
+            thread.setDaemon(true);
+            threads.add(thread);
+        }
+
+        threads.forEach(Thread::start);
+        done.await();
+        _managedObject.close();
+
+        report();
+    }
+
+    private void runUser(long measureFrom, long end)
+    {
+        // Like a browser, each user has a session of their own; everything else is shared by the handlers
+        StackExchangeAuthenticatorPluginConfig configuration = configuration(Fakes.sessionManager());
+        Response response = Fakes.response();
+
+        while (true)
+        {
+            long start = System.nanoTime();
+
+            if (start - end >= 0)
+            {
+                return;
+            }
+
+            boolean succeeded = login(configuration, response);
+            long now = System.nanoTime();
+
+            if (start - measureFrom >= 0 && now - end < 0)
+            {
+                _latencies.record(now - start);
+
+                if (!succeeded)
+                {
+                    _failures.increment();
+                }
+            }
+        }
+    }
+
+    private boolean login(StackExchangeAuthenticatorPluginConfig configuration, Response response)
+    {
+        try
+        {
+            String authorizationUrl;
+
+            try
+            {
+                new StackExchangeAuthenticatorRequestHandler(configuration, _managedObject)
+                        .get(Fakes.request(Map.of()), response);
+
+                return false;
+            }
+            catch (Fakes.FakeException e)
+            {
+                authorizationUrl = (String) e.getArguments()[0];
+            }
+
+            // The browser's visit to the authorization endpoint, which redirects straight back with a code
+            URI stubAuthorizationUrl = _stubBaseUri.resolve(URI.create(authorizationUrl).getRawPath() + "?" +
+                    URI.create(authorizationUrl).getRawQuery());
+            HttpResponse<Void> authorizationResponse = visit(stubAuthorizationUrl);
+            Map<String, String> callbackParameters = StackExchangeStub.parseQuery(URI.create(
+                    authorizationResponse.headers().firstValue("Location").orElseThrow()).getRawQuery());
+
+            CallbackRequestHandler callbackHandler = new CallbackRequestHandler(configuration, _managedObject);
+            Optional<AuthenticationResult> result = callbackHandler.get(
+                    callbackHandler.preProcess(Fakes.request(callbackParameters), response), response);
+
+            return result.isPresent();
+        }
+        catch (InterruptedException e)
+        {
+            Thread.currentThread().interrupt();
+
+            return false;
+        }
+        catch (Exception e)
+        {
+            return false;
+        }
+    }
+
+    /**
+     * Make a GET request like a browser does, which retries once if a kept-alive connection turns out to have been
+     * closed by the server.
+     */
+    private HttpResponse<Void> visit(URI uri) throws IOException, InterruptedException
+    {
+        HttpRequest request = HttpRequest.newBuilder(uri).GET().build();
+
+        try
+        {
+            return _browser.send(request, HttpResponse.BodyHandlers.discarding());
+        }
+        catch (IOException e)
+        {
+            return _browser.send(request, HttpResponse.BodyHandlers.discarding());
+        }
+    }
+
+    private void report()
+    {
+        long logins = _latencies.getCount();
+        double seconds = _durationNanos / 1e9;
+
+        System.out.printf("Users:       %d%n", _users);
+        System.out.printf("Logins:      %d (%d failed)%n", logins, _failures.sum());
+        System.out.printf("Throughput:  %.1f logins/s%n", logins / seconds);
+        System.out.printf("Latency:     p50 = %.1f ms, p99 = %.1f ms, p99.9 = %.1f ms, max = %.1f ms%n",
+                toMillis(_latencies.getValueAtPercentile(50)), toMillis(_latencies.getValueAtPercentile(99)),
+                toMillis(_latencies.getValueAtPercentile(99.9)), toMillis(_latencies.getMax()));
+        System.out.println(_managedObject.getLoginMetrics());
+    }
+
+    /**
+     * Write the throughput and the median and 99th percentile latencies. The 99.9th percentile is left out, since it
+     * varies too much between runs to be compared with a baseline.
+     */
+    private void writeResults(String resultFile) throws IOException
+    {
+        String threads = String.valueOf(_users);
+        String samples = String.valueOf(_latencies.getCount());
+
+        PerfGate.write(Paths.get(resultFile), List.of(
+                new PerfGate.Result("LoadDriver.login", "thrpt", threads, samples,
+                        _latencies.getCount() / (_durationNanos / 1e9), "NaN", "ops/s"),
+                new PerfGate.Result("LoadDriver.login:p50", "sample", threads, samples,
+                        toMillis(_latencies.getValueAtPercentile(50)), "NaN", "ms"),
+                new PerfGate.Result("LoadDriver.login:p99", "sample", threads, samples,
+                        toMillis(_latencies.getValueAtPercentile(99)), "NaN", "ms")));
+    }
+
+    private static StackExchangeAuthenticatorPluginConfig configuration(Object sessionManager)
+    {
+        // The stub has no /filters/create or /sites, so use a fixed filter and don't fetch the sites
+        return Fakes.configuration(Map.of(
+                "getSessionManager", sessionManager,
+                "getApiFilter", Optional.of(Fakes.API_FILTER),
+                "getSiteRefreshInterval", 0));
+    }
+
+    private static double toMillis(long nanos)
+    {
+        return nanos / 1e6;
+    }
+}
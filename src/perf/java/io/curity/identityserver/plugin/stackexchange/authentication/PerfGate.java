@@ -0,0 +1,294 @@
+/*
+ *  Copyright 2026 Curity AB
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package io.curity.identityserver.plugin.stackexchange.authentication;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * Compares the results of the benchmarks and the load test with a checked-in baseline, and fails if any of them has
+ * regressed by more than a tolerance.
+ *
+ * <p>Results are read from CSV files in the format that JMH writes with {@code -rf csv}, which the {@link LoadDriver}
+ * writes too. The baseline is in the same format. Whether a higher score is better is derived from the unit:
+ * throughputs ({@code ops/s}, {@code logins/s}) should not drop, while times and allocations ({@code ms},
+ * {@code B/op}) should not rise. A row of the baseline that wasn't measured fails the check, so that a benchmark that
+ * is removed or renamed doesn't silently stop being checked. A result that has no row in the baseline is only reported
+ * as a warning, since the baseline must be recorded on the machine that runs the check, and can't be until the
+ * benchmark exists there.
+ *
+ * <p>Arguments are given as {@code name=value}; see {@link #DEFAULTS} for the names and their defaults. With
+ * {@code update=true}, the baseline is replaced by the results instead of being checked against them. Of the metrics
+ * of JMH's gc profiler, only the bytes allocated per operation are put in the baseline and checked.
+ */
+public final class PerfGate
+{
+    private static final Map<String, String> DEFAULTS = Map.of(
+            "baseline", "src/perf/baseline.csv",
+            "results", "target/jmh-result.csv,target/load-test-result.csv",
+            "tolerance", "20",
+            "update", "false");
+    private static final String HEADER = "\"Benchmark\",\"Mode\",\"Threads\",\"Samples\",\"Score\"," +
+            "\"Score Error (99.9%)\",\"Unit\"";
+
+    private PerfGate()
+    {
+    }
+
+    public static void main(String[] args) throws IOException
+    {
+        Map<String, String> options = new HashMap<>(DEFAULTS);
+
+        for (String arg : args)
+        {
+            int equals = arg.indexOf('=');
+
+            if (equals <= 0 || !DEFAULTS.containsKey(arg.substring(0, equals)))
+            {
+                throw new IllegalArgumentException("Unknown argument: " + arg + ". Known ones are " +
+                        DEFAULTS.keySet());
+            }
+
+            options.put(arg.substring(0, equals), arg.substring(equals + 1));
+        }
+
+        Path baselineFile = Paths.get(options.get("baseline"));
+        Map<String, Result> results = new LinkedHashMap<>();
+
+        for (String resultFile : options.get("results").split(","))
+        {
+            results.putAll(read(Paths.get(resultFile.trim())));
+        }
+
+        if (Boolean.parseBoolean(options.get("update")))
+        {
+            List<Result> baseline = new ArrayList<>(results.size());
+
+            for (Result result : results.values())
+            {
+                if (result.isChecked())
+                {
+                    baseline.add(result);
+                }
+            }
+
+            write(baselineFile, baseline);
+            System.out.println("Wrote " + baseline.size() + " results to the baseline " + baselineFile);
+
+            return;
+        }
+
+        List<String> regressions = check(read(baselineFile), results, Double.parseDouble(options.get("tolerance")));
+
+        if (!regressions.isEmpty())
+        {
+            System.err.println("Performance regressed by more than " + options.get("tolerance") + "% compared to " +
+                    baselineFile + ", or was not measured:");
+            regressions.forEach(regression -> System.err.println("  " + regression));
+
+            System.exit(1);
+        }
+    }
+
+    private static List<String> check(Map<String, Result> baseline, Map<String, Result> results, double tolerance)
+    {
+        List<String> regressions = new ArrayList<>();
+
+        baseline.forEach((name, expected) ->
+        {
+            Result actual = results.get(name);
+
+            if (actual == null)
+            {
+                System.out.println("MISSING  " + name + ": in the baseline, but was not measured");
+                regressions.add(name + ": in the baseline, but was not measured. If it was removed on purpose, " +
+                        "record the baseline again with update=true");
+
+                return;
+            }
+
+            if (!expected._unit.equals(actual._unit))
+            {
+                regressions.add(name + ": measured in " + actual._unit + ", but the baseline is in " +
+                        expected._unit);
+
+                return;
+            }
+
+            double change = (actual._score - expected._score) / expected._score * 100;
+            boolean regressed = expected.isHigherBetter() ? change < -tolerance : change > tolerance;
+            String line = String.format(Locale.ROOT, "%s: %.3f %s (baseline %.3f, %+.1f%%)", name, actual._score,
+                    actual._unit, expected._score, change);
+
+            System.out.println((regressed ? "REGRESS  " : "OK       ") + line);
+
+            if (regressed)
+            {
+                regressions.add(line);
+            }
+        });
+
+        results.values().stream()
+                .filter(result -> result.isChecked() && !baseline.containsKey(result._name))
+                .forEach(result -> System.out.println("NEW      " + result._name + ": not in the baseline, so " +
+                        "not checked. Record the baseline on this machine with update=true to check it"));
+
+        return regressions;
+    }
+
+    /**
+     * Read the rows of a result file, keyed on the benchmark name and, for secondary results, the name of the metric.
+     * The middle dot that older versions of JMH put in front of profiler metrics is dropped.
+     */
+    static Map<String, Result> read(Path file)
+    {
+        Map<String, Result> results = new LinkedHashMap<>();
+        List<String> lines;
+
+        try
+        {
+            lines = Files.readAllLines(file, StandardCharsets.UTF_8);
+        }
+        catch (IOException e)
+        {
+            throw new UncheckedIOException("Could not read " + file, e);
+        }
+
+        for (String line : lines)
+        {
+            if (line.isBlank() || line.startsWith("#") || line.startsWith("\"Benchmark\""))
+            {
+                continue;
+            }
+
+            List<String> columns = splitCsv(line);
+
+            if (columns.size() < 7)
+            {
+                throw new IllegalArgumentException("Not a JMH result row in " + file + ": " + line);
+            }
+
+            String name = columns.get(0).replace("\u00b7", "");
+
+            results.put(name, new Result(name, columns.get(1), columns.get(2), columns.get(3),
+                    Double.parseDouble(columns.get(4)), columns.get(5), columns.get(6)));
+        }
+
+        return results;
+    }
+
+    /**
+     * Write results in the CSV format of JMH.
+     */
+    static void write(Path file, Iterable<Result> results) throws IOException
+    {
+        StringBuilder csv = new StringBuilder(HEADER).append('\n');
+
+        for (Result result : results)
+        {
+            csv.append('"').append(result._name).append("\",\"").append(result._mode).append("\",")
+                    .append(result._threads).append(',').append(result._samples).append(',')
+                    .append(String.format(Locale.ROOT, "%f", result._score)).append(',').append(result._error)
+                    .append(",\"").append(result._unit).append("\"\n");
+        }
+
+        Path parent = file.toAbsolutePath().getParent();
+
+        if (parent != null)
+        {
+            Files.createDirectories(parent);
+        }
+
+        Files.writeString(file, csv, StandardCharsets.UTF_8);
+    }
+
+    private static List<String> splitCsv(String line)
+    {
+        List<String> columns = new ArrayList<>(7);
+        StringBuilder column = new StringBuilder();
+        boolean quoted = false;
+
+        for (int i = 0; i < line.length(); i++)
+        {
+            char c = line.charAt(i);
+
+            if (c == '"')
+            {
+                quoted = !quoted;
+            }
+            else if (c == ',' && !quoted)
+            {
+                columns.add(column.toString());
+                column.setLength(0);
+            }
+            else
+            {
+                column.append(c);
+            }
+        }
+
+        columns.add(column.toString());
+
+        return columns;
+    }
+
+    static final class Result
+    {
+        private final String _name;
+        private final String _mode;
+        private final String _threads;
+        private final String _samples;
+        private final double _score;
+        private final String _error;
+        private final String _unit;
+
+        Result(String name, String mode, String threads, String samples, double score, String error, String unit)
+        {
+            _name = name;
+            _mode = mode;
+            _threads = threads;
+            _samples = samples;
+            _score = score;
+            _error = error;
+            _unit = unit;
+        }
+
+        /**
+         * Of the metrics of JMH's gc profiler, only the bytes allocated per operation are checked, since the others
+         * depend on heap sizing and timing.
+         */
+        private boolean isChecked()
+        {
+            return !_name.contains(":gc.") || _name.endsWith(":gc.alloc.rate.norm");
+        }
+
+        private boolean isHigherBetter()
+        {
+            return _unit.endsWith("/s") || _unit.endsWith("/ms") || _unit.endsWith("/us") || _unit.endsWith("/min");
+        }
+    }
+}
@@ -0,0 +1,291 @@
+/*
+ *  Copyright 2026 Curity AB
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package io.curity.identityserver.plugin.stackexchange.authentication;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * An {@link UpstreamTransport} that answers with the exchanges of a capture file, with their original timing, so that
+ * the traffic of a real server can be profiled offline. See {@link CapturingUpstreamTransport}.
+ *
+ * <p>Each request is answered with the next captured exchange of the same method and path, round-robin, regardless of
+ * its parameters. The response headers arrive after the captured time, and the body is handed out at the pace it was
+ * received at. Exchanges where no response was received fail the same way.
+ *
+ * <p>Every {@value UpstreamCapture#REDACTED} in a body is replaced by a new random value each time it is replayed, so
+ * that each login gets an access token of its own, like it does from StackExchange.
+ */
+final class ReplayUpstreamTransport implements UpstreamTransport
+{
+    private final Map<String, Replay> _replays = new HashMap<>();
+
+    ReplayUpstreamTransport(List<UpstreamCapture.Exchange> exchanges)
+    {
+        for (UpstreamCapture.Exchange exchange : exchanges)
+        {
+            _replays.computeIfAbsent(keyOf(exchange.getHost(), exchange.getMethod(), exchange.getPath()),
+                    key -> new Replay()).add(exchange);
+        }
+    }
+
+    static ReplayUpstreamTransport load(Path captureFile) throws IOException
+    {
+        List<UpstreamCapture.Exchange> exchanges = UpstreamCapture.read(captureFile);
+
+        if (exchanges.isEmpty())
+        {
+            throw new IOException("There are no exchanges in " + captureFile);
+        }
+
+        return new ReplayUpstreamTransport(exchanges);
+    }
+
+    @Override
+    public UpstreamResponse get(UpstreamHost host, String path, Map<String, Collection<String>> queryParameters)
+    {
+        return replay(host, "GET", path);
+    }
+
+    @Override
+    public UpstreamResponse postForm(UpstreamHost host, String path, Map<String, String> formData)
+    {
+        return replay(host, "POST", path);
+    }
+
+    /**
+     * @return the number of captured exchanges of each method and path, e.g., for a summary of what is replayed
+     */
+    Map<String, Integer> getExchangeCounts()
+    {
+        Map<String, Integer> counts = new HashMap<>();
+
+        _replays.forEach((key, replay) -> counts.put(key, replay._exchanges.size()));
+
+        return counts;
+    }
+
+    private UpstreamResponse replay(UpstreamHost host, String method, String path)
+    {
+        Replay replay = _replays.get(keyOf(host, method, path));
+
+        if (replay == null)
+        {
+            throw new UncheckedIOException(new IOException("Nothing was captured for " + keyOf(host, method, path)));
+        }
+
+        UpstreamCapture.Exchange exchange = replay.next();
+
+        sleepUntil(System.nanoTime() + exchange.getHeadersNanos());
+
+        if (exchange.getStatusCode() == UpstreamCapture.Exchange.NO_RESPONSE)
+        {
+            throw new UncheckedIOException(new IOException("No response was received in the captured exchange"));
+        }
+
+        byte[] body = replay.isRedacted(exchange) ? withNewSecrets(exchange.getBody()) : exchange.getBody();
+
+        return new UpstreamResponse(exchange.getStatusCode(), new PacedInputStream(body, exchange.getBodyNanos()));
+    }
+
+    /**
+     * @return the text of a body as it was received, which may be compressed
+     */
+    private static String decode(byte[] body)
+    {
+        if (!isCompressed(body))
+        {
+            return new String(body, StandardCharsets.UTF_8);
+        }
+
+        try (InputStream inflated = new GZIPInputStream(new ByteArrayInputStream(body)))
+        {
+            return new String(inflated.readAllBytes(), StandardCharsets.UTF_8);
+        }
+        catch (IOException e)
+        {
+            // A truncated body, which can't hold a token
+            return "";
+        }
+    }
+
+    private static byte[] withNewSecrets(byte[] body)
+    {
+        String text = decode(body).replace(UpstreamCapture.REDACTED, UUID.randomUUID().toString());
+
+        if (!isCompressed(body))
+        {
+            return text.getBytes(StandardCharsets.UTF_8);
+        }
+
+        ByteArrayOutputStream result = new ByteArrayOutputStream(body.length);
+
+        try (GZIPOutputStream gzipStream = new GZIPOutputStream(result))
+        {
+            gzipStream.write(text.getBytes(StandardCharsets.UTF_8));
+        }
+        catch (IOException e)
+        {
+            throw new UncheckedIOException(e);
+        }
+
+        return result.toByteArray();
+    }
+
+    private static boolean isCompressed(byte[] body)
+    {
+        return body.length >= 2 && (body[0] & 0xff) == 0x1f && (body[1] & 0xff) == 0x8b;
+    }
+
+    private static String keyOf(UpstreamHost host, String method, String path)
+    {
+        return method + " " + host.getHostName() + path;
+    }
+
+    private static void sleepUntil(long deadline)
+    {
+        long remaining = deadline - System.nanoTime();
+
+        if (remaining <= 0)
+        {
+            return;
+        }
+
+        try
+        {
+            TimeUnit.NANOSECONDS.sleep(remaining);
+        }
+        catch (InterruptedException e)
+        {
+            Thread.currentThread().interrupt();
+
+            throw new UncheckedIOException(new InterruptedIOException("Interrupted while replaying"));
+        }
+    }
+
+    private static final class Replay
+    {
+        private final List<UpstreamCapture.Exchange> _exchanges = new ArrayList<>();
+        private final Set<UpstreamCapture.Exchange> _redacted = Collections.newSetFromMap(new IdentityHashMap<>());
+        private final AtomicInteger _next = new AtomicInteger();
+
+        private void add(UpstreamCapture.Exchange exchange)
+        {
+            _exchanges.add(exchange);
+
+            if (decode(exchange.getBody()).contains(UpstreamCapture.REDACTED))
+            {
+                _redacted.add(exchange);
+            }
+        }
+
+        private boolean isRedacted(UpstreamCapture.Exchange exchange)
+        {
+            return _redacted.contains(exchange);
+        }
+
+        private UpstreamCapture.Exchange next()
+        {
+            return _exchanges.get(Math.floorMod(_next.getAndIncrement(), _exchanges.size()));
+        }
+    }
+
+    /**
+     * Hands out a body no faster than it was received, by sleeping after each read until the share of the captured
+     * time that corresponds to the bytes read so far has passed.
+     */
+    private static final class PacedInputStream extends FilterInputStream
+    {
+        private final long _size;
+        private final long _durationNanos;
+        private long _start;
+        private long _read;
+
+        private PacedInputStream(byte[] body, long durationNanos)
+        {
+            super(new ByteArrayInputStream(body));
+
+            _size = Math.max(1, body.length);
+            _durationNanos = durationNanos;
+        }
+
+        @Override
+        public int read() throws IOException
+        {
+            start();
+
+            int result = super.read();
+
+            if (result >= 0)
+            {
+                pace(1);
+            }
+
+            return result;
+        }
+
+        @Override
+        public int read(byte[] buffer, int offset, int length) throws IOException
+        {
+            start();
+
+            int read = super.read(buffer, offset, length);
+
+            if (read > 0)
+            {
+                pace(read);
+            }
+
+            return read;
+        }
+
+        private void start()
+        {
+            if (_start == 0)
+            {
+                _start = System.nanoTime();
+            }
+        }
+
+        private void pace(int read)
+        {
+            _read += read;
+
+            sleepUntil(_start + _durationNanos * _read / _size);
+        }
+    }
+}
@@ -0,0 +1,285 @@
+/*
+ *  Copyright 2026 Curity AB
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package io.curity.identityserver.plugin.stackexchange.authentication;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.net.URLDecoder;
+import java.net.URLEncoder;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * An embeddable stand-in for the StackExchange endpoints that a login goes through: the authorization endpoint
+ * (/oauth), the token endpoint (/oauth/access_token/json) and the user info endpoint (/2.2/me).
+ *
+ * <p>It listens on the loopback interface only. Each response is delayed by a sample of the configured latency model,
+ * and fails with the configured probability. Like the real API, the user info endpoint can gzip its responses.
+ */
+final class StackExchangeStub implements AutoCloseable
+{
+    private final HttpServer _server;
+    private final ExecutorService _executor;
+    private final LatencyModel _latency;
+    private final double _errorRate;
+    private final byte[] _userInfoBody;
+    private final boolean _gzip;
+
+    /**
+     * @param latency the delay of each response
+     * @param errorRate the probability, between 0 and 1, that the token or user info endpoint fails
+     * @param gzip whether to gzip the responses of the user info endpoint
+     */
+    StackExchangeStub(LatencyModel latency, double errorRate, boolean gzip) throws IOException
+    {
+        _latency = latency;
+        _errorRate = errorRate;
+        _gzip = gzip;
+        _userInfoBody = gzip
+                ? Fakes.gzip(Fakes.USER_INFO_RESPONSE)
+                : Fakes.USER_INFO_RESPONSE.getBytes(StandardCharsets.UTF_8);
+
+        // Otherwise, Nagle's algorithm holds back the body behind the headers until the client's delayed ACK
+        System.setProperty("sun.net.httpserver.nodelay", "true");
+
+        // Responses are delayed by sleeping, so every request in flight needs a thread of its own
+        _executor = Executors.newCachedThreadPool(runnable ->
+        {
+            Thread thread = new Thread(runnable, "stackexchange-stub");
+
+            thread.setDaemon(true);
+
+            return thread;
+        });
+        _server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 1024);
+        _server.setExecutor(_executor);
+        _server.createContext("/oauth", this::handleOAuth);
+        _server.createContext("/2.2/me", this::handleUserInfo);
+        _server.start();
+    }
+
+    /**
+     * @return the base URI that the stub listens on, e.g., {@code http://127.0.0.1:50123}
+     */
+    URI getBaseUri()
+    {
+        return URI.create("http://" + _server.getAddress().getHostString() + ":" + _server.getAddress().getPort());
+    }
+
+    @Override
+    public void close()
+    {
+        _server.stop(0);
+        _executor.shutdownNow();
+    }
+
+    private void handleOAuth(HttpExchange exchange) throws IOException
+    {
+        try (exchange)
+        {
+            delay();
+
+            if ("/oauth".equals(exchange.getRequestURI().getPath()))
+            {
+                authorize(exchange);
+            }
+            else if ("/oauth/access_token/json".equals(exchange.getRequestURI().getPath()))
+            {
+                issueToken(exchange);
+            }
+            else
+            {
+                send(exchange, 404, "{\"error\":{\"type\":\"not_found\",\"message\":\"Not found\"}}", false);
+            }
+        }
+    }
+
+    /**
+     * Approve every authorization request at once, as if the user was logged in and had consented already.
+     */
+    private void authorize(HttpExchange exchange) throws IOException
+    {
+        Map<String, String> query = parseQuery(exchange.getRequestURI().getRawQuery());
+        String location = query.get("redirect_uri") + "?code=" + UUID.randomUUID() +
+                "&state=" + URLEncoder.encode(query.getOrDefault("state", ""), StandardCharsets.UTF_8);
+
+        exchange.getResponseHeaders().set("Location", location);
+        exchange.sendResponseHeaders(302, -1);
+    }
+
+    private void issueToken(HttpExchange exchange) throws IOException
+    {
+        try (InputStream body = exchange.getRequestBody())
+        {
+            body.readAllBytes();
+        }
+
+        if (isError())
+        {
+            send(exchange, 500, "{\"error\":{\"type\":\"internal_error\",\"message\":\"Injected error\"}}", false);
+        }
+        else
+        {
+            // A new token for each login, so that logins don't hit the profile cache
+            send(exchange, 200, "{\"access_token\":\"" + UUID.randomUUID() + "\",\"expires\":86400}", false);
+        }
+    }
+
+    private void handleUserInfo(HttpExchange exchange) throws IOException
+    {
+        try (exchange)
+        {
+            delay();
+
+            if (isError())
+            {
+                send(exchange, 500, "{\"error_id\":500,\"error_message\":\"Injected error\"," +
+                        "\"error_name\":\"internal_error\"}", false);
+            }
+            else
+            {
+                if (_gzip)
+                {
+                    exchange.getResponseHeaders().set("Content-Encoding", "gzip");
+                }
+
+                exchange.getResponseHeaders().set("Content-Type", "application/json; charset=utf-8");
+                exchange.sendResponseHeaders(200, _userInfoBody.length);
+
+                try (OutputStream body = exchange.getResponseBody())
+                {
+                    body.write(_userInfoBody);
+                }
+            }
+        }
+    }
+
+    private void delay()
+    {
+        long delay = _latency.nextMillis();
+
+        if (delay > 0)
+        {
+            try
+            {
+                TimeUnit.MILLISECONDS.sleep(delay);
+            }
+            catch (InterruptedException e)
+            {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    private boolean isError()
+    {
+        return _errorRate > 0 && ThreadLocalRandom.current().nextDouble() < _errorRate;
+    }
+
+    private static void send(HttpExchange exchange, int statusCode, String body, boolean gzip) throws IOException
+    {
+        byte[] bytes = gzip ? Fakes.gzip(body) : body.getBytes(StandardCharsets.UTF_8);
+
+        exchange.getResponseHeaders().set("Content-Type", "application/json; charset=utf-8");
+        exchange.sendResponseHeaders(statusCode, bytes.length);
+
+        try (OutputStream responseBody = exchange.getResponseBody())
+        {
+            responseBody.write(bytes);
+        }
+    }
+
+    static Map<String, String> parseQuery(String rawQuery)
+    {
+        Map<String, String> result = new HashMap<>();
+
+        if (rawQuery == null)
+        {
+            return result;
+        }
+
+        for (String parameter : rawQuery.split("&"))
+        {
+            int equals = parameter.indexOf('=');
+
+            if (equals > 0)
+            {
+                result.put(URLDecoder.decode(parameter.substring(0, equals), StandardCharsets.UTF_8),
+                        URLDecoder.decode(parameter.substring(equals + 1), StandardCharsets.UTF_8));
+            }
+        }
+
+        return result;
+    }
+
+    /**
+     * The distribution of the latency of the stub's responses.
+     */
+    @FunctionalInterface
+    interface LatencyModel
+    {
+        long nextMillis();
+
+        /**
+         * Parse a latency model from a specification like one of these:
+         *
+         * <ul>
+         *     <li>{@code none}</li>
+         *     <li>{@code fixed:<millis>}</li>
+         *     <li>{@code uniform:<min millis>:<max millis>}</li>
+         *     <li>{@code lognormal:<median millis>:<sigma>}, which has the long tail of real network latency</li>
+         * </ul>
+         */
+        static LatencyModel parse(String specification)
+        {
+            String[] parts = specification.split(":");
+
+            switch (parts[0])
+            {
+                case "none":
+                    return () -> 0;
+                case "fixed":
+                    long fixed = Long.parseLong(parts[1]);
+
+                    return () -> fixed;
+                case "uniform":
+                    long min = Long.parseLong(parts[1]), max = Long.parseLong(parts[2]);
+
+                    return () -> ThreadLocalRandom.current().nextLong(min, max + 1);
+                case "lognormal":
+                    double mu = Math.log(Double.parseDouble(parts[1])), sigma = Double.parseDouble(parts[2]);
+
+                    return () -> Math.round(Math.exp(mu + sigma * ThreadLocalRandom.current().nextGaussian()));
+                default:
+                    throw new IllegalArgumentException("Unknown latency model: " + specification);
+            }
+        }
+    }
+}
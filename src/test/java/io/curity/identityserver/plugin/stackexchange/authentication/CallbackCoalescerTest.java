@@ -0,0 +1,109 @@
+/*
+ *  Copyright 2026 Curity AB
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+
+package io.curity.identityserver.plugin.stackexchange.authentication;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class CallbackCoalescerTest
+{
+    private final ExecutorService _executor = Executors.newCachedThreadPool();
+    private final CallbackCoalescer _coalescer = new CallbackCoalescer();
+    private final CountDownLatch _started = new CountDownLatch(1);
+    private final CountDownLatch _release = new CountDownLatch(1);
+    private final AtomicInteger _coalesced = new AtomicInteger();
+
+    @AfterEach
+    void tearDown()
+    {
+        _release.countDown();
+        _executor.shutdownNow();
+    }
+
+    @Test
+    void sharesTheResultOfTheCallbackInFlight() throws Exception
+    {
+        Future<String> first = startFirst();
+        LoginBudget.Deadline deadline = new LoginBudget(_executor, Tracer.DISABLED, 5000).start();
+        Future<String> duplicate = _executor.submit(() -> _coalescer.execute("state", "code", deadline,
+                () -> "duplicate", _coalesced::incrementAndGet));
+
+        while (_coalesced.get() == 0)
+        {
+            Thread.sleep(1);
+        }
+
+        _release.countDown();
+
+        assertEquals("first", first.get(5, TimeUnit.SECONDS));
+        assertEquals("first", duplicate.get(5, TimeUnit.SECONDS));
+        assertEquals(0, _coalescer.size());
+    }
+
+    @Test
+    void stopsWaitingAtTheDeadline() throws Exception
+    {
+        Future<String> first = startFirst();
+        LoginBudget.Deadline deadline = new LoginBudget(_executor, Tracer.DISABLED, 50).start();
+        long start = System.nanoTime();
+
+        assertThrows(LoginDeadlineExceededException.class, () -> _coalescer.execute("state", "code", deadline,
+                () -> "duplicate", _coalesced::incrementAndGet));
+        assertTrue(System.nanoTime() - start < TimeUnit.SECONDS.toNanos(2));
+        assertEquals(1, _coalesced.get());
+
+        _release.countDown();
+
+        assertEquals("first", first.get(5, TimeUnit.SECONDS));
+    }
+
+    private Future<String> startFirst() throws InterruptedException
+    {
+        LoginBudget.Deadline deadline = new LoginBudget(_executor, Tracer.DISABLED, 0).start();
+        Future<String> first = _executor.submit(() -> _coalescer.execute("state", "code", deadline, () ->
+        {
+            _started.countDown();
+
+            try
+            {
+                _release.await();
+            }
+            catch (InterruptedException e)
+            {
+                Thread.currentThread().interrupt();
+            }
+
+            return "first";
+        }, _coalesced::incrementAndGet));
+
+        assertTrue(_started.await(5, TimeUnit.SECONDS));
+
+        return first;
+    }
+}
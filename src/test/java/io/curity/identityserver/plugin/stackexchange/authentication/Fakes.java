@@ -0,0 +1,415 @@
+/*
+ *  Copyright 2026 Curity AB
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package io.curity.identityserver.plugin.stackexchange.authentication;
+
+import io.curity.identityserver.plugin.stackexchange.config.StackExchangeAuthenticatorPluginConfig;
+import se.curity.identityserver.sdk.attribute.Attribute;
+import se.curity.identityserver.sdk.config.annotation.DefaultBoolean;
+import se.curity.identityserver.sdk.config.annotation.DefaultEnum;
+import se.curity.identityserver.sdk.config.annotation.DefaultInteger;
+import se.curity.identityserver.sdk.config.annotation.DefaultString;
+import se.curity.identityserver.sdk.service.ExceptionFactory;
+import se.curity.identityserver.sdk.service.Json;
+import se.curity.identityserver.sdk.service.SessionManager;
+import se.curity.identityserver.sdk.service.authentication.AuthenticatorInformationProvider;
+import se.curity.identityserver.sdk.web.Request;
+import se.curity.identityserver.sdk.web.Response;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.StringReader;
+import java.io.UncheckedIOException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.net.URI;
+import java.nio.charset.StandardCharsets;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * In-process stand-ins for the SDK services that the authenticator uses.
+ *
+ * <p>The fakes are dynamic proxies, so that they keep working when the SDK interfaces gain methods that the
+ * authenticator doesn't call. Upstream HTTP calls are faked at the {@link UpstreamTransport} seam, since the body
+ * converters of the SDK's HTTP responses are opaque.
+ */
+final class Fakes
+{
+    static final URI AUTHENTICATION_URI = URI.create("https://login.example.com/authn/authentication/stackexchange1");
+    static final URI AUTHENTICATION_BASE_URI = URI.create("https://login.example.com/authn/authentication");
+
+    static final String API_FILTER = "!)Q2B_A2kjp6cmcZ7uUDVrUDt";
+    static final String TOKEN_RESPONSE = "{\"access_token\":\"tB8Vbq4NeNczGiY3ydo2sQ))\",\"expires\":86400}";
+    static final String USER_INFO_RESPONSE = "{\"items\":[{\"badge_counts\":{\"bronze\":21,\"silver\":9,\"gold\":1}," +
+            "\"account_id\":1165580,\"is_employee\":false,\"last_modified_date\":1573682744," +
+            "\"last_access_date\":1601386244,\"reputation_change_year\":20,\"reputation_change_quarter\":0," +
+            "\"reputation_change_month\":0,\"reputation_change_week\":0,\"reputation_change_day\":0," +
+            "\"reputation\":1843,\"creation_date\":1326728093,\"user_type\":\"registered\",\"user_id\":1143825," +
+            "\"accept_rate\":67,\"location\":\"Stockholm, Sweden\",\"website_url\":\"https://curity.io\"," +
+            "\"link\":\"https:\\/\\/stackoverflow.com\\/users\\/1143825\\/curity\"," +
+            "\"profile_image\":\"https:\\/\\/www.gravatar.com\\/avatar\\/0f3b4f0f?s=128&d=identicon&r=PG\"," +
+            "\"display_name\":\"Curity\"}],\"has_more\":false,\"quota_max\":10000,\"quota_remaining\":9970}";
+
+    private Fakes()
+    {
+    }
+
+    /**
+     * Create a configuration where every setting has its default value, unless overridden.
+     *
+     * @param overrides values keyed on the name of the configuration method, e.g., {@code getSite}
+     */
+    static StackExchangeAuthenticatorPluginConfig configuration(Map<String, Object> overrides)
+    {
+        Map<Class<?>, Object> services = new HashMap<>();
+
+        services.put(SessionManager.class, sessionManager());
+        services.put(ExceptionFactory.class, exceptionFactory());
+        services.put(AuthenticatorInformationProvider.class, authenticatorInformationProvider());
+        services.put(Json.class, json());
+
+        return proxy(StackExchangeAuthenticatorPluginConfig.class, (method, args) ->
+        {
+            if (overrides.containsKey(method.getName()))
+            {
+                return overrides.get(method.getName());
+            }
+
+            if (services.containsKey(method.getReturnType()))
+            {
+                return services.get(method.getReturnType());
+            }
+
+            return defaultValueOf(method);
+        });
+    }
+
+    static SessionManager sessionManager()
+    {
+        Map<String, Attribute> attributes = new ConcurrentHashMap<>();
+
+        return proxy(SessionManager.class, (method, args) ->
+        {
+            switch (method.getName())
+            {
+                case "put":
+                    Attribute attribute = (Attribute) args[0];
+
+                    attributes.put(nameOf(attribute), attribute);
+
+                    return null;
+                case "get":
+                    return attributes.get((String) args[0]);
+                case "remove":
+                    return attributes.remove((String) args[0]);
+                default:
+                    return defaultValueOf(method);
+            }
+        });
+    }
+
+    static ExceptionFactory exceptionFactory()
+    {
+        return proxy(ExceptionFactory.class, (method, args) ->
+        {
+            throw new FakeException(method.getName(), args);
+        });
+    }
+
+    static AuthenticatorInformationProvider authenticatorInformationProvider()
+    {
+        return proxy(AuthenticatorInformationProvider.class, (method, args) ->
+        {
+            switch (method.getName())
+            {
+                case "getFullyQualifiedAuthenticationUri":
+                    return AUTHENTICATION_URI;
+                case "getAuthenticationBaseUri":
+                    return AUTHENTICATION_BASE_URI;
+                default:
+                    return defaultValueOf(method);
+            }
+        });
+    }
+
+    /**
+     * A JSON service that is only good enough for the flat token response.
+     */
+    static Json json()
+    {
+        return proxy(Json.class, (method, args) ->
+        {
+            if ("fromJson".equals(method.getName()))
+            {
+                Map<String, Object> result = new HashMap<>();
+                JsonStreamReader reader = new JsonStreamReader(new StringReader((String) args[0]));
+
+                reader.beginObject();
+
+                while (reader.hasNext())
+                {
+                    String name = reader.nextName();
+                    JsonStreamReader.Token token = reader.peek();
+
+                    if (token == JsonStreamReader.Token.BEGIN_OBJECT || token == JsonStreamReader.Token.BEGIN_ARRAY)
+                    {
+                        reader.skipValue();
+                    }
+                    else
+                    {
+                        result.put(name, reader.nextString());
+                    }
+                }
+
+                return result;
+            }
+
+            return defaultValueOf(method);
+        });
+    }
+
+    static Request request(Map<String, String> parameters)
+    {
+        return request(parameters, Map.of());
+    }
+
+    /**
+     * @param headers the headers of the request, keyed on their lower-case name
+     */
+    static Request request(Map<String, String> parameters, Map<String, String> headers)
+    {
+        return proxy(Request.class, (method, args) ->
+        {
+            switch (method.getName())
+            {
+                case "isGetRequest":
+                    return true;
+                case "getParameterValueOrError":
+                    return parameters.get((String) args[0]);
+                case "getUrl":
+                    return AUTHENTICATION_URI + "/callback";
+                case "getHeaders":
+                    return headers(method.getReturnType(), headers);
+                default:
+                    return defaultValueOf(method);
+            }
+        });
+    }
+
+    private static <T> T headers(Class<T> type, Map<String, String> headers)
+    {
+        return proxy(type, (method, args) ->
+        {
+            String value = args == null ? null : headers.get(((String) args[0]).toLowerCase(Locale.ROOT));
+
+            switch (method.getName())
+            {
+                case "firstValue":
+                    return Optional.ofNullable(value);
+                case "allValues":
+                    return value == null ? List.of() : List.of(value);
+                default:
+                    return defaultValueOf(method);
+            }
+        });
+    }
+
+    static Response response()
+    {
+        return proxy(Response.class, (method, args) -> defaultValueOf(method));
+    }
+
+    /**
+     * A transport that answers the token and user info endpoints with canned responses, gzipped like the real
+     * StackExchange API does.
+     */
+    static UpstreamTransport transport(String tokenResponse, String userInfoResponse)
+    {
+        byte[] token = tokenResponse.getBytes(StandardCharsets.UTF_8);
+        byte[] userInfo = gzip(userInfoResponse);
+
+        return new UpstreamTransport()
+        {
+            @Override
+            public UpstreamResponse get(UpstreamHost host, String path, Map<String, Collection<String>> queryParameters)
+            {
+                return new UpstreamResponse(200, new ByteArrayInputStream(userInfo));
+            }
+
+            @Override
+            public UpstreamResponse postForm(UpstreamHost host, String path, Map<String, String> formData)
+            {
+                return new UpstreamResponse(200, new ByteArrayInputStream(token));
+            }
+        };
+    }
+
+    static byte[] gzip(String body)
+    {
+        ByteArrayOutputStream result = new ByteArrayOutputStream();
+
+        try (GZIPOutputStream gzipStream = new GZIPOutputStream(result))
+        {
+            gzipStream.write(body.getBytes(StandardCharsets.UTF_8));
+        }
+        catch (IOException e)
+        {
+            throw new UncheckedIOException(e);
+        }
+
+        return result.toByteArray();
+    }
+
+    private static Object defaultValueOf(Method method)
+    {
+        Class<?> type = method.getReturnType();
+
+        if (method.isAnnotationPresent(DefaultBoolean.class))
+        {
+            return method.getAnnotation(DefaultBoolean.class).value();
+        }
+        else if (method.isAnnotationPresent(DefaultInteger.class))
+        {
+            return method.getAnnotation(DefaultInteger.class).value();
+        }
+        else if (method.isAnnotationPresent(DefaultString.class))
+        {
+            return method.getAnnotation(DefaultString.class).value();
+        }
+        else if (method.isAnnotationPresent(DefaultEnum.class))
+        {
+            return enumValueOf(type, method.getAnnotation(DefaultEnum.class).value());
+        }
+        else if (type == Optional.class)
+        {
+            return Optional.empty();
+        }
+        else if (type == List.class)
+        {
+            return List.of();
+        }
+        else if (type == boolean.class)
+        {
+            return false;
+        }
+        else if (type == int.class)
+        {
+            return 0;
+        }
+        else if (type == long.class)
+        {
+            return 0L;
+        }
+        else if (type == String.class)
+        {
+            return "benchmark-" + method.getName();
+        }
+        else if (Collection.class.isAssignableFrom(type))
+        {
+            return List.of();
+        }
+
+        return null;
+    }
+
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    private static Object enumValueOf(Class<?> type, String value)
+    {
+        return Enum.valueOf((Class<? extends Enum>) type, value);
+    }
+
+    /**
+     * Get the name of an attribute without depending on how the SDK models attribute names.
+     */
+    private static String nameOf(Attribute attribute) throws ReflectiveOperationException
+    {
+        Object name = Attribute.class.getMethod("getName").invoke(attribute);
+
+        if (name instanceof String)
+        {
+            return (String) name;
+        }
+
+        try
+        {
+            return String.valueOf(name.getClass().getMethod("getValue").invoke(name));
+        }
+        catch (NoSuchMethodException e)
+        {
+            return name.toString();
+        }
+    }
+
+    private static <T> T proxy(Class<T> type, Handler handler)
+    {
+        return type.cast(Proxy.newProxyInstance(Fakes.class.getClassLoader(), new Class<?>[]{type},
+                (proxy, method, args) ->
+                {
+                    if (method.getDeclaringClass() == Object.class)
+                    {
+                        switch (method.getName())
+                        {
+                            case "hashCode":
+                                return System.identityHashCode(proxy);
+                            case "equals":
+                                return proxy == args[0];
+                            default:
+                                return "Fake " + type.getSimpleName();
+                        }
+                    }
+
+                    return handler.invoke(method, args);
+                }));
+    }
+
+    @FunctionalInterface
+    private interface Handler
+    {
+        Object invoke(Method method, Object[] args) throws Exception;
+    }
+
+    /**
+     * Thrown by the fake exception factory instead of the SDK's exceptions. It has no stack trace, so that throwing
+     * it doesn't dominate the measurements of code paths that end in a redirect.
+     */
+    static final class FakeException extends RuntimeException
+    {
+        private final Object[] _arguments;
+
+        FakeException(String kind, Object[] arguments)
+        {
+            super(kind, null, false, false);
+
+            _arguments = arguments == null ? new Object[0] : arguments;
+        }
+
+        /**
+         * @return the arguments that the exception factory was called with, e.g., the URL of a redirect
+         */
+        Object[] getArguments()
+        {
+            return _arguments;
+        }
+    }
+}
@@ -0,0 +1,75 @@
+/*
+ *  Copyright 2026 Curity AB
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+
+package io.curity.identityserver.plugin.stackexchange.authentication;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class InMemoryLoginMetricsTest
+{
+    @Test
+    void exposesCountsAndLatencies()
+    {
+        InMemoryLoginMetrics metrics = new InMemoryLoginMetrics();
+
+        metrics.countUpstreamResponse(UpstreamHost.API, 200);
+        metrics.countUpstreamResponse(UpstreamHost.API, 200);
+        metrics.countUpstreamResponse(UpstreamHost.OAUTH, 400);
+        metrics.countAuthorizationError(true);
+        metrics.countProfileCacheLookup(false);
+        metrics.recordLatency(LoginPhase.CALLBACK, TimeUnit.MILLISECONDS.toNanos(40));
+
+        assertEquals(Long.valueOf(2), metrics.getUpstreamResponseCounts().get("API.200"));
+        assertEquals(Long.valueOf(1), metrics.getUpstreamResponseCounts().get("OAUTH.400"));
+        assertEquals(1, metrics.getAccessDeniedErrorCount());
+        assertEquals(0, metrics.getOtherAuthorizationErrorCount());
+        assertEquals(0, metrics.getProfileCacheHitCount());
+        assertEquals(1, metrics.getProfileCacheMissCount());
+        assertEquals(4, metrics.getLatencyMillis().size());
+
+        // The histogram buckets values, so the percentiles are approximate
+        double p50 = metrics.getLatencyMillis().get("CALLBACK.p50");
+
+        assertTrue(p50 >= 36 && p50 <= 44, "p50 is " + p50);
+        assertEquals(Double.valueOf(40), metrics.getLatencyMillis().get("CALLBACK.max"));
+    }
+
+    @Test
+    void compositeHandsMeasurementsToAll()
+    {
+        InMemoryLoginMetrics first = new InMemoryLoginMetrics();
+        InMemoryLoginMetrics second = new InMemoryLoginMetrics();
+        LoginMetrics composite = new CompositeLoginMetrics(List.of(first, second));
+
+        composite.countHedgedRequest();
+        composite.countDeadlineExceeded();
+        composite.recordLatency(LoginPhase.TOKEN_EXCHANGE, 1_000_000);
+
+        for (InMemoryLoginMetrics metrics : List.of(first, second))
+        {
+            assertEquals(1, metrics.getHedgedRequestCount());
+            assertEquals(1, metrics.getDeadlineExceededCount());
+            assertEquals(1, metrics.getLatencies(LoginPhase.TOKEN_EXCHANGE).getCount());
+        }
+    }
+}
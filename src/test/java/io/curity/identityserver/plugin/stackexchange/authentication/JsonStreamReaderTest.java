@@ -0,0 +1,225 @@
+/*
+ *  Copyright 2026 Curity AB
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+
+package io.curity.identityserver.plugin.stackexchange.authentication;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.io.StringReader;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class JsonStreamReaderTest
+{
+    @Test
+    void readsScalarsInTheirTextualForm() throws IOException
+    {
+        JsonStreamReader reader = reader("{\"s\": \"text\", \"n\": -4.2e3, \"t\": true, \"f\": false, \"z\": null}");
+
+        reader.beginObject();
+
+        assertEquals("s", reader.nextName());
+        assertEquals("text", reader.nextString());
+        assertEquals("n", reader.nextName());
+        assertEquals("-4.2e3", reader.nextString());
+        assertEquals("t", reader.nextName());
+        assertEquals("true", reader.nextString());
+        assertEquals("f", reader.nextName());
+        assertEquals("false", reader.nextString());
+        assertEquals("z", reader.nextName());
+        assertNull(reader.nextString());
+        assertFalse(reader.hasNext());
+
+        reader.endObject();
+
+        assertEquals(JsonStreamReader.Token.END_DOCUMENT, reader.peek());
+    }
+
+    @Test
+    void unescapesStrings() throws IOException
+    {
+        JsonStreamReader reader = reader("[\"a\\\"b\\\\c\\/d\\n\\t\\u00e9\\u2603\"]");
+
+        reader.beginArray();
+
+        assertEquals("a\"b\\c/d\n\t\u00e9\u2603", reader.nextString());
+
+        reader.endArray();
+    }
+
+    @Test
+    void readsAcrossBufferBoundaries() throws IOException
+    {
+        JsonStreamReader reader = new JsonStreamReader(new StringReader(
+                "{\"display_name\": \"J\\u00f6rg\", \"reputation\": 123456, \"items\": [1, 2]}"), new char[3]);
+
+        reader.beginObject();
+
+        assertEquals("display_name", reader.nextName());
+        assertEquals("J\u00f6rg", reader.nextString());
+        assertEquals("reputation", reader.nextName());
+        assertEquals("123456", reader.nextString());
+        assertEquals("items", reader.nextName());
+
+        reader.skipValue();
+        reader.endObject();
+    }
+
+    @Test
+    void skipsNestedValues() throws IOException
+    {
+        JsonStreamReader reader = reader("{\"a\": {\"b\": [1, {\"c\": \"}]\"}], \"d\": {}}, \"e\": \"kept\"}");
+
+        reader.beginObject();
+
+        assertEquals("a", reader.nextName());
+
+        reader.skipValue();
+
+        assertEquals("e", reader.nextName());
+        assertEquals("kept", reader.nextString());
+
+        reader.endObject();
+    }
+
+    @Test
+    void readsDeeplyNestedDocuments() throws IOException
+    {
+        int depth = 100;
+        JsonStreamReader reader = reader("[".repeat(depth) + "]".repeat(depth));
+
+        for (int i = 0; i < depth; i++)
+        {
+            reader.beginArray();
+        }
+
+        for (int i = 0; i < depth; i++)
+        {
+            assertFalse(reader.hasNext());
+
+            reader.endArray();
+        }
+    }
+
+    @Test
+    void rejectsUnterminatedStrings()
+    {
+        assertThrows(IOException.class, () ->
+        {
+            JsonStreamReader reader = reader("{\"name\": \"unterminated");
+
+            reader.beginObject();
+            reader.nextName();
+            reader.nextString();
+        });
+        assertThrows(IOException.class, () ->
+        {
+            JsonStreamReader reader = reader("{\"name\": \"unterminated");
+
+            reader.beginObject();
+            reader.nextName();
+            reader.skipValue();
+        });
+    }
+
+    @Test
+    void rejectsInvalidEscapes()
+    {
+        assertThrows(IOException.class, () ->
+        {
+            JsonStreamReader reader = reader("[\"\\u00zz\"]");
+
+            reader.beginArray();
+            reader.nextString();
+        });
+    }
+
+    @Test
+    void rejectsTruncatedDocuments()
+    {
+        assertThrows(IllegalStateException.class, () ->
+        {
+            JsonStreamReader reader = reader("{\"name\":");
+
+            reader.beginObject();
+            reader.nextName();
+            reader.nextString();
+        });
+        assertThrows(IOException.class, () ->
+        {
+            JsonStreamReader reader = reader("{\"a\": {\"b\": [1, 2");
+
+            reader.beginObject();
+            reader.nextName();
+            reader.skipValue();
+        });
+    }
+
+    @Test
+    void rejectsUnexpectedTokens()
+    {
+        assertThrows(IllegalStateException.class, () -> reader("[1]").beginObject());
+        assertThrows(IllegalStateException.class, () ->
+        {
+            JsonStreamReader reader = reader("{\"a\": {}}");
+
+            reader.beginObject();
+            reader.nextName();
+            reader.nextString();
+        });
+    }
+
+    @Test
+    void reportsTheEndOfEmptyDocuments() throws IOException
+    {
+        JsonStreamReader reader = reader("  ");
+
+        assertEquals(JsonStreamReader.Token.END_DOCUMENT, reader.peek());
+        assertFalse(reader.hasNext());
+    }
+
+    @Test
+    void distinguishesNamesFromStringValues() throws IOException
+    {
+        JsonStreamReader reader = reader("{\"a\": \"b\", \"c\": [\"d\"]}");
+
+        reader.beginObject();
+
+        assertEquals(JsonStreamReader.Token.NAME, reader.peek());
+
+        reader.nextName();
+
+        assertEquals(JsonStreamReader.Token.STRING, reader.peek());
+
+        reader.nextString();
+        reader.nextName();
+        reader.beginArray();
+
+        assertTrue(reader.hasNext());
+        assertEquals(JsonStreamReader.Token.STRING, reader.peek());
+    }
+
+    private static JsonStreamReader reader(String json)
+    {
+        return new JsonStreamReader(new StringReader(json));
+    }
+}
@@ -0,0 +1,96 @@
+/*
+ *  Copyright 2026 Curity AB
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+
+package io.curity.identityserver.plugin.stackexchange.authentication;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class LoginBudgetTest
+{
+    private final ThreadPoolExecutor _executor = new ThreadPoolExecutor(0, 1, 1, TimeUnit.SECONDS,
+            new SynchronousQueue<>());
+    private final CountDownLatch _release = new CountDownLatch(1);
+
+    @AfterEach
+    void tearDown()
+    {
+        _release.countDown();
+        _executor.shutdownNow();
+    }
+
+    @Test
+    void callsOnTheCallingThreadWithoutADeadline()
+    {
+        LoginBudget.Deadline deadline = new LoginBudget(_executor, Tracer.DISABLED, 0).start();
+        Thread caller = Thread.currentThread();
+
+        assertEquals(Boolean.TRUE, deadline.call("call", () -> Thread.currentThread() == caller));
+        assertEquals(0, _executor.getLargestPoolSize());
+    }
+
+    @Test
+    void failsCallsThatTakeTooLong()
+    {
+        LoginBudget.Deadline deadline = new LoginBudget(_executor, Tracer.DISABLED, 50).start();
+
+        assertThrows(LoginDeadlineExceededException.class, () -> deadline.call("call", this::block));
+    }
+
+    @Test
+    void failsCallsThatTheExecutorRejects() throws InterruptedException
+    {
+        CountDownLatch started = new CountDownLatch(1);
+
+        _executor.execute(() ->
+        {
+            started.countDown();
+            block();
+        });
+
+        assertTrue(started.await(5, TimeUnit.SECONDS));
+
+        LoginBudget.Deadline deadline = new LoginBudget(_executor, Tracer.DISABLED, 5000).start();
+        long start = System.nanoTime();
+
+        assertThrows(LoginDeadlineExceededException.class, () -> deadline.call("call", () -> "result"));
+        assertTrue(System.nanoTime() - start < TimeUnit.SECONDS.toNanos(1));
+    }
+
+    private String block()
+    {
+        try
+        {
+            _release.await();
+        }
+        catch (InterruptedException e)
+        {
+            Thread.currentThread().interrupt();
+        }
+
+        return "blocked";
+    }
+}
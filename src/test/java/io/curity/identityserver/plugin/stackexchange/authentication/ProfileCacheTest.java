@@ -0,0 +1,177 @@
+/*
+ *  Copyright 2026 Curity AB
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+
+package io.curity.identityserver.plugin.stackexchange.authentication;
+
+import org.junit.jupiter.api.Test;
+import se.curity.identityserver.sdk.attribute.Attribute;
+import se.curity.identityserver.sdk.attribute.SubjectAttributes;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class ProfileCacheTest
+{
+    @Test
+    void returnsWhatWasPut()
+    {
+        ProfileCache cache = new ProfileCache(60, 10, false);
+        SubjectAttributes profile = profile("1");
+
+        assertNull(cache.get("1"));
+
+        cache.put("1", profile);
+
+        assertSame(profile, cache.get("1"));
+        assertEquals(1, cache.getHits());
+        assertEquals(1, cache.getMisses());
+    }
+
+    @Test
+    void isDisabledWithoutTimeToLiveOrEntries()
+    {
+        ProfileCache withoutTimeToLive = new ProfileCache(0, 10, false);
+        ProfileCache withoutEntries = new ProfileCache(60, 0, false);
+
+        withoutTimeToLive.put("1", profile("1"));
+        withoutEntries.put("1", profile("1"));
+
+        assertFalse(withoutTimeToLive.isEnabled());
+        assertFalse(withoutEntries.isEnabled());
+        assertNull(withoutTimeToLive.get("1"));
+        assertNull(withoutEntries.get("1"));
+    }
+
+    @Test
+    void expiresEntries() throws InterruptedException
+    {
+        ProfileCache cache = new ProfileCache(1, 10, false);
+
+        cache.put("1", profile("1"));
+
+        TimeUnit.MILLISECONDS.sleep(1100);
+
+        assertFalse(cache.contains("1"));
+        assertNull(cache.get("1"));
+        assertFalse(cache.refresh("1", profile("1")));
+        assertEquals(0, cache.size());
+    }
+
+    @Test
+    void refreshReplacesOnlyCachedEntries()
+    {
+        ProfileCache cache = new ProfileCache(60, 10, false);
+        SubjectAttributes refreshed = profile("1");
+
+        cache.put("1", profile("1"));
+
+        assertTrue(cache.refresh("1", refreshed));
+        assertFalse(cache.refresh("2", profile("2")));
+        assertSame(refreshed, cache.get("1"));
+        assertFalse(cache.contains("2"));
+    }
+
+    @Test
+    void evictsTheLeastRecentlyUsedEntriesDownToTheLowWaterMark()
+    {
+        ProfileCache cache = new ProfileCache(60, 10, false);
+
+        for (int i = 0; i < 10; i++)
+        {
+            cache.put(String.valueOf(i), profile(String.valueOf(i)));
+        }
+
+        cache.get("0");
+        cache.get("1");
+        cache.put("10", profile("10"));
+
+        // Down to 9 entries, and then the new one
+        assertEquals(10, cache.size());
+        assertEquals(1, cache.getEvictions());
+        assertTrue(cache.contains("0"));
+        assertTrue(cache.contains("1"));
+        assertFalse(cache.contains("2"));
+        assertTrue(cache.contains("10"));
+    }
+
+    @Test
+    void staysBoundedUnderConcurrentPuts() throws Exception
+    {
+        int threads = 8;
+        int maxEntries = 100;
+        ProfileCache cache = new ProfileCache(60, maxEntries, false);
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        CountDownLatch start = new CountDownLatch(1);
+        List<Future<?>> futures = new ArrayList<>(threads);
+
+        try
+        {
+            for (int thread = 0; thread < threads; thread++)
+            {
+                int offset = thread * 10_000;
+
+                futures.add(executor.submit(() ->
+                {
+                    start.await();
+
+                    for (int i = 0; i < 5_000; i++)
+                    {
+                        String key = String.valueOf(offset + i);
+
+                        cache.put(key, profile(key));
+                        cache.get(String.valueOf(offset + i / 2));
+
+                        // An eviction that another thread is doing may not have made room yet
+                        assertTrue(cache.size() <= maxEntries + threads, "Size is " + cache.size());
+                    }
+
+                    return null;
+                }));
+            }
+
+            start.countDown();
+
+            for (Future<?> future : futures)
+            {
+                future.get(30, TimeUnit.SECONDS);
+            }
+        }
+        finally
+        {
+            executor.shutdownNow();
+        }
+
+        assertTrue(cache.size() <= maxEntries + threads, "Size is " + cache.size());
+        assertEquals(threads * 5_000L, cache.getHits() + cache.getMisses());
+    }
+
+    private static SubjectAttributes profile(String userId)
+    {
+        return SubjectAttributes.of(List.of(Attribute.of("subject", userId)));
+    }
+}
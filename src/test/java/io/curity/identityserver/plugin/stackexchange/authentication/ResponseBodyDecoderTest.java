@@ -0,0 +1,237 @@
+/*
+ *  Copyright 2026 Curity AB
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+
+package io.curity.identityserver.plugin.stackexchange.authentication;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.Reader;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.GZIPOutputStream;
+import java.util.zip.ZipException;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class ResponseBodyDecoderTest
+{
+    // Long enough to span several buffers, with multi-byte characters that end up split between them
+    private static final String BODY = "{\"display_name\": \"J\u00f6rg \u2603 \ud83d\ude00\"}".repeat(1000);
+
+    @Test
+    void decodesUncompressedBodies() throws IOException
+    {
+        assertEquals(BODY, ResponseBodyDecoder.readString(stream(BODY.getBytes(StandardCharsets.UTF_8))));
+    }
+
+    @Test
+    void inflatesCompressedBodies() throws IOException
+    {
+        assertEquals(BODY, ResponseBodyDecoder.readString(stream(gzip(BODY))));
+    }
+
+    @Test
+    void decodesBodiesThatArriveOneByteAtATime() throws IOException
+    {
+        assertEquals(BODY, ResponseBodyDecoder.readString(new TricklingInputStream(gzip(BODY))));
+        assertEquals(BODY, ResponseBodyDecoder.readString(new TricklingInputStream(
+                BODY.getBytes(StandardCharsets.UTF_8))));
+    }
+
+    @Test
+    void skipsOptionalGzipHeaderFields() throws IOException
+    {
+        byte[] compressed = gzip(BODY);
+        ByteArrayOutputStream withHeaderFields = new ByteArrayOutputStream();
+
+        // Set FHCRC, FEXTRA, FNAME and FCOMMENT, and add the fields in that order after the fixed header
+        withHeaderFields.write(compressed, 0, 3);
+        withHeaderFields.write(2 | 4 | 8 | 16);
+        withHeaderFields.write(compressed, 4, 6);
+        withHeaderFields.write(new byte[]{3, 0, 'x', 'y', 'z'});
+        withHeaderFields.write("body.json\0".getBytes(StandardCharsets.ISO_8859_1));
+        withHeaderFields.write("a comment\0".getBytes(StandardCharsets.ISO_8859_1));
+        withHeaderFields.write(new byte[]{0x12, 0x34});
+        withHeaderFields.write(compressed, 10, compressed.length - 10);
+
+        assertEquals(BODY, ResponseBodyDecoder.readString(stream(withHeaderFields.toByteArray())));
+    }
+
+    @Test
+    void decodesEmptyAndTinyBodies() throws IOException
+    {
+        assertEquals("", ResponseBodyDecoder.readString(stream(new byte[0])));
+        assertEquals("7", ResponseBodyDecoder.readString(stream(new byte[]{'7'})));
+        assertEquals("", ResponseBodyDecoder.readString(stream(gzip(""))));
+    }
+
+    @Test
+    void replacesMalformedCharacters() throws IOException
+    {
+        assertEquals("a\ufffdb", ResponseBodyDecoder.readString(stream(new byte[]{'a', (byte) 0xff, 'b'})));
+    }
+
+    @Test
+    void rejectsTruncatedCompressedBodies()
+    {
+        byte[] compressed = gzip(BODY);
+
+        assertThrows(EOFException.class, () -> ResponseBodyDecoder.readString(stream(
+                Arrays.copyOf(compressed, compressed.length / 2))));
+        assertThrows(EOFException.class, () -> ResponseBodyDecoder.readString(stream(
+                Arrays.copyOf(compressed, 12))));
+        assertThrows(ZipException.class, () -> ResponseBodyDecoder.readString(stream(
+                Arrays.copyOf(compressed, 5))));
+    }
+
+    @Test
+    void rejectsTruncatedGzipHeaders()
+    {
+        byte[] header = {0x1f, (byte) 0x8b, 8, 8, 0, 0, 0, 0, 0, 0, 'n', 'a', 'm', 'e'};
+
+        assertThrows(EOFException.class, () -> ResponseBodyDecoder.readString(stream(header)));
+    }
+
+    @Test
+    void rejectsCorruptCompressedBodies()
+    {
+        byte[] compressed = gzip(BODY);
+
+        for (int i = 10; i < 20; i++)
+        {
+            compressed[i] = (byte) 0xff;
+        }
+
+        assertThrows(ZipException.class, () -> ResponseBodyDecoder.readString(stream(compressed)));
+
+        byte[] wrongMethod = gzip(BODY);
+
+        wrongMethod[2] = 7;
+
+        assertThrows(ZipException.class, () -> ResponseBodyDecoder.readString(stream(wrongMethod)));
+    }
+
+    @Test
+    void decodesCorrectlyAfterAFailure() throws IOException
+    {
+        byte[] compressed = gzip(BODY);
+
+        for (int i = 0; i < 100; i++)
+        {
+            assertThrows(IOException.class, () -> ResponseBodyDecoder.readString(stream(
+                    Arrays.copyOf(compressed, compressed.length / 3))));
+            assertEquals(BODY, ResponseBodyDecoder.readString(stream(compressed)));
+            assertEquals("{}", ResponseBodyDecoder.readString(stream("{}".getBytes(StandardCharsets.UTF_8))));
+        }
+    }
+
+    @Test
+    void decodesConcurrently() throws Exception
+    {
+        byte[] compressed = gzip(BODY);
+        ExecutorService executor = Executors.newFixedThreadPool(8);
+        List<Future<String>> results = new ArrayList<>();
+
+        try
+        {
+            for (int i = 0; i < 200; i++)
+            {
+                results.add(executor.submit(() -> ResponseBodyDecoder.readString(stream(compressed))));
+            }
+
+            for (Future<String> result : results)
+            {
+                assertEquals(BODY, result.get(30, TimeUnit.SECONDS));
+            }
+        }
+        finally
+        {
+            executor.shutdownNow();
+        }
+    }
+
+    @Test
+    void closesTheBodyAndCanNotBeReadAfterwards() throws IOException
+    {
+        boolean[] closed = {false};
+        InputStream body = new FilterInputStream(stream(gzip(BODY)))
+        {
+            @Override
+            public void close() throws IOException
+            {
+                closed[0] = true;
+
+                super.close();
+            }
+        };
+        Reader reader = ResponseBodyDecoder.openReader(body);
+
+        reader.close();
+
+        assertTrue(closed[0]);
+        assertThrows(IOException.class, () -> reader.read(new char[16], 0, 16));
+    }
+
+    private static InputStream stream(byte[] body)
+    {
+        return new ByteArrayInputStream(body);
+    }
+
+    private static byte[] gzip(String body)
+    {
+        ByteArrayOutputStream result = new ByteArrayOutputStream();
+
+        try (GZIPOutputStream gzipStream = new GZIPOutputStream(result))
+        {
+            gzipStream.write(body.getBytes(StandardCharsets.UTF_8));
+        }
+        catch (IOException e)
+        {
+            throw new AssertionError(e);
+        }
+
+        return result.toByteArray();
+    }
+
+    private static final class TricklingInputStream extends FilterInputStream
+    {
+        private TricklingInputStream(byte[] body)
+        {
+            super(new ByteArrayInputStream(body));
+        }
+
+        @Override
+        public int read(byte[] buffer, int offset, int length) throws IOException
+        {
+            return super.read(buffer, offset, Math.min(1, length));
+        }
+    }
+}
@@ -0,0 +1,118 @@
+/*
+ *  Copyright 2026 Curity AB
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+
+package io.curity.identityserver.plugin.stackexchange.authentication;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayInputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class SiteRegistryTest
+{
+    private static final String SITES = "{\"items\":[" +
+            "{\"api_site_parameter\":\"stackoverflow\",\"site_url\":\"https://stackoverflow.com\"," +
+            "\"audience\":\"programmers\",\"site_state\":\"normal\"}," +
+            "{\"api_site_parameter\":\"ru.stackoverflow\",\"site_url\":\"https://ru.stackoverflow.com\"," +
+            "\"audience\":\"programmers\",\"site_state\":\"normal\"}],\"has_more\":false}";
+
+    private final ScheduledExecutorService _scheduler = Executors.newSingleThreadScheduledExecutor();
+    private final AtomicInteger _calls = new AtomicInteger();
+
+    @AfterEach
+    void tearDown()
+    {
+        _scheduler.shutdownNow();
+    }
+
+    @Test
+    void resolvesTheSiteByItsUrl() throws InterruptedException
+    {
+        SiteRegistry registry = start("resolves-key", "https://RU.stackoverflow.com/");
+
+        assertEquals("ru.stackoverflow", registry.getSite());
+    }
+
+    @Test
+    void keepsAnUnknownSite() throws InterruptedException
+    {
+        SiteRegistry registry = start("unknown-key", "nosuchsite");
+
+        assertEquals(2, registry.size());
+        assertEquals("nosuchsite", registry.getSite());
+    }
+
+    @Test
+    void fetchesTheSitesOncePerAppKey() throws InterruptedException
+    {
+        SiteRegistry first = start("shared-key", "stackoverflow");
+        SiteRegistry second = start("shared-key", "ru.stackoverflow.com");
+
+        assertEquals(1, _calls.get());
+        assertEquals(2, first.size());
+        assertEquals("ru.stackoverflow", second.getSite());
+    }
+
+    private SiteRegistry start(String appKey, String site) throws InterruptedException
+    {
+        QuotaGovernor quotaGovernor = new QuotaGovernor(0, 0, appKey, null);
+        UpstreamTransport transport = new UpstreamTransport()
+        {
+            @Override
+            public UpstreamResponse get(UpstreamHost host, String path, Map<String, Collection<String>> parameters)
+            {
+                _calls.incrementAndGet();
+
+                return new UpstreamResponse(200, new ByteArrayInputStream(SITES.getBytes(StandardCharsets.UTF_8)));
+            }
+
+            @Override
+            public UpstreamResponse postForm(UpstreamHost host, String path, Map<String, String> formData)
+            {
+                throw new UnsupportedOperationException();
+            }
+        };
+        ApiFilters apiFilters = new ApiFilters(transport, quotaGovernor, appKey, Runnable::run,
+                Collections.emptyMap(), "default");
+        SiteRegistry registry = new SiteRegistry(transport, quotaGovernor, apiFilters, appKey, site, null, 24,
+                _scheduler);
+
+        registry.start();
+
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+
+        while (registry.size() == 0 && System.nanoTime() < deadline)
+        {
+            Thread.sleep(10);
+        }
+
+        assertTrue(registry.size() > 0);
+
+        return registry;
+    }
+}
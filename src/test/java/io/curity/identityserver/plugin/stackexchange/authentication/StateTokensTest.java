@@ -0,0 +1,162 @@
+/*
+ *  Copyright 2026 Curity AB
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+
+package io.curity.identityserver.plugin.stackexchange.authentication;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class StateTokensTest
+{
+    private static final String KEY = "0123456789abcdef0123456789abcdef";
+    private static final String CODE = "Xq6UgFvbf0E1k2pSmp9j2g))";
+
+    @Test
+    void acceptsSignedStates()
+    {
+        StateTokens stateTokens = new StateTokens(KEY, 60);
+
+        assertTrue(stateTokens.isStateless());
+        assertTrue(stateTokens.useSignedState(stateTokens.newSignedState(), CODE));
+    }
+
+    @Test
+    void createsRandomStates()
+    {
+        Set<String> states = new HashSet<>();
+
+        for (int i = 0; i < 1000; i++)
+        {
+            String state = StateTokens.newRandomState();
+
+            assertEquals(22, state.length());
+            assertTrue(states.add(state));
+        }
+
+        assertFalse(new StateTokens(null, 60).isStateless());
+    }
+
+    @Test
+    void rejectsExpiredStates()
+    {
+        StateTokens stateTokens = new StateTokens(KEY, -1);
+
+        assertFalse(stateTokens.useSignedState(stateTokens.newSignedState(), CODE));
+    }
+
+    @Test
+    void rejectsStatesSignedWithAnotherKey()
+    {
+        StateTokens other = new StateTokens("fedcba9876543210fedcba9876543210", 60);
+
+        assertFalse(new StateTokens(KEY, 60).useSignedState(other.newSignedState(), CODE));
+    }
+
+    @Test
+    void rejectsTamperedStates()
+    {
+        StateTokens stateTokens = new StateTokens(KEY, 60);
+        String state = stateTokens.newSignedState();
+        int separator = state.indexOf('.');
+
+        for (int i = 0; i < state.length(); i++)
+        {
+            if (i != separator)
+            {
+                char[] tampered = state.toCharArray();
+
+                tampered[i] = tampered[i] == 'A' ? 'B' : 'A';
+
+                assertFalse(stateTokens.useSignedState(new String(tampered), CODE), "Tampered at " + i);
+            }
+        }
+
+        assertFalse(stateTokens.useSignedState(state.substring(0, separator), CODE));
+        assertFalse(stateTokens.useSignedState(state + "AA", CODE));
+        assertFalse(stateTokens.useSignedState(state.replace('.', '!'), CODE));
+        assertFalse(stateTokens.useSignedState("not*base64.not*base64", CODE));
+        assertFalse(stateTokens.useSignedState("", CODE));
+        assertFalse(stateTokens.useSignedState(null, CODE));
+    }
+
+    @Test
+    void rejectsStatesReplayedWithAnotherCode()
+    {
+        StateTokens stateTokens = new StateTokens(KEY, 60);
+        String state = stateTokens.newSignedState();
+
+        assertTrue(stateTokens.useSignedState(state, CODE));
+        assertFalse(stateTokens.useSignedState(state, "another code"));
+    }
+
+    @Test
+    void acceptsDuplicateCallbacks()
+    {
+        StateTokens stateTokens = new StateTokens(KEY, 60);
+        String state = stateTokens.newSignedState();
+
+        assertTrue(stateTokens.useSignedState(state, CODE));
+        assertTrue(stateTokens.useSignedState(state, CODE));
+    }
+
+    @Test
+    void doesNotRememberStatesOfErrorCallbacks()
+    {
+        StateTokens stateTokens = new StateTokens(KEY, 60);
+        String state = stateTokens.newSignedState();
+
+        assertTrue(stateTokens.useSignedState(state, null));
+        assertEquals(0, stateTokens.getUsedStateCount());
+        assertTrue(stateTokens.useSignedState(state, CODE));
+    }
+
+    @Test
+    void forgetsExpiredStates() throws InterruptedException
+    {
+        StateTokens stateTokens = new StateTokens(KEY, 1);
+
+        for (int i = 0; i < 1000; i++)
+        {
+            assertTrue(stateTokens.useSignedState(stateTokens.newSignedState(), CODE));
+        }
+
+        // A state is valid until the end of the second that it expires in
+        TimeUnit.MILLISECONDS.sleep(2100);
+
+        // Expired states are removed once 1024 are remembered
+        for (int i = 0; i < 25; i++)
+        {
+            assertTrue(stateTokens.useSignedState(stateTokens.newSignedState(), CODE));
+        }
+
+        assertEquals(25, stateTokens.getUsedStateCount());
+    }
+
+    @Test
+    void canNotSignWithoutAKey()
+    {
+        assertThrows(IllegalStateException.class, () -> new StateTokens(null, 60).newSignedState());
+    }
+}
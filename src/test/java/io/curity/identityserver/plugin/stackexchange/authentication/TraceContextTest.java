@@ -0,0 +1,94 @@
+/*
+ *  Copyright 2026 Curity AB
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+
+package io.curity.identityserver.plugin.stackexchange.authentication;
+
+import io.curity.identityserver.plugin.stackexchange.config.StackExchangeAuthenticatorPluginConfig;
+import org.junit.jupiter.api.Test;
+
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class TraceContextTest
+{
+    private static final String TRACE_ID = "4bf92f3577b34da6a3ce929d0e0e4736";
+    private static final String PARENT_SPAN_ID = "00f067aa0ba902b7";
+    private static final String TRACEPARENT = "00-" + TRACE_ID + "-" + PARENT_SPAN_ID + "-01";
+    private static final Pattern STATE = Pattern.compile("[?&]state=([^&]+)");
+
+    @Test
+    void continuesTheTraceOfTheCaller()
+    {
+        StackExchangeAuthenticatorPluginConfig config = Fakes.configuration(Map.of(
+                "getSiteRefreshInterval", 0,
+                "getApiFilter", Optional.of(Fakes.API_FILTER)));
+        InMemorySpanExporter exporter = new InMemorySpanExporter(1000);
+        StackExchangeAuthenticatorManagedObject managedObject = new StackExchangeAuthenticatorManagedObject(config,
+                Fakes.transport(Fakes.TOKEN_RESPONSE, Fakes.USER_INFO_RESPONSE), new InMemoryLoginMetrics(),
+                new RecordingTracer(exporter));
+        Map<String, String> headers = Map.of("traceparent", TRACEPARENT);
+
+        try
+        {
+            StackExchangeAuthenticatorRequestHandler indexHandler =
+                    new StackExchangeAuthenticatorRequestHandler(config, managedObject);
+            CallbackRequestHandler callbackHandler = new CallbackRequestHandler(config, managedObject);
+            Fakes.FakeException redirect = assertThrows(Fakes.FakeException.class,
+                    () -> indexHandler.get(Fakes.request(Map.of(), headers), Fakes.response()));
+            Matcher state = STATE.matcher(String.valueOf(redirect.getArguments()[0]));
+
+            assertTrue(state.find());
+
+            callbackHandler.get(callbackHandler.preProcess(
+                    Fakes.request(Map.of("code", "Xq6UgFvbf0E1k2pSmp9j2g))",
+                            "state", URLDecoder.decode(state.group(1), StandardCharsets.UTF_8)), headers),
+                    Fakes.response()), Fakes.response());
+        }
+        finally
+        {
+            managedObject.close();
+        }
+
+        List<String> children = new ArrayList<>();
+
+        assertFalse(exporter.getSpans().isEmpty());
+
+        for (SpanData span : exporter.getSpans())
+        {
+            assertEquals(TRACE_ID, span.getTraceId(), span.getName());
+
+            if (PARENT_SPAN_ID.equals(span.getParentSpanId()))
+            {
+                children.add(span.getName());
+            }
+        }
+
+        assertTrue(children.contains("stackexchange.authorize"), children.toString());
+        assertTrue(children.contains("stackexchange.callback"), children.toString());
+    }
+}
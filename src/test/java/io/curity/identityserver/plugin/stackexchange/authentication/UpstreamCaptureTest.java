@@ -0,0 +1,146 @@
+/*
+ *  Copyright 2026 Curity AB
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+
+package io.curity.identityserver.plugin.stackexchange.authentication;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.List;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class UpstreamCaptureTest
+{
+    private static final String SECRET = "1KFnGZ6XUb9f6ZsD1tTZcw))";
+    private static final String TOKEN_RESPONSE = "{\"access_token\":\"" + SECRET + "\",\"expires\":86400}";
+
+    @Test
+    void redactsSecretsInBodies() throws IOException
+    {
+        String redacted = text(UpstreamCapture.redactBody(bytes(TOKEN_RESPONSE)));
+
+        assertEquals("{\"access_token\":\"REDACTED\",\"expires\":86400}", redacted);
+        assertEquals("access_token=REDACTED&expires=86400",
+                text(UpstreamCapture.redactBody(bytes("access_token=" + SECRET + "&expires=86400"))));
+    }
+
+    @Test
+    void keepsBodiesWithoutSecrets() throws IOException
+    {
+        byte[] body = gzip("{\"items\":[{\"user_id\":1}]}");
+
+        assertArrayEquals(body, UpstreamCapture.redactBody(body));
+    }
+
+    @Test
+    void redactsSecretsThatAreCutOff() throws IOException
+    {
+        String truncated = TOKEN_RESPONSE.substring(0, TOKEN_RESPONSE.indexOf(SECRET) + 10);
+
+        assertEquals("{\"access_token\":\"REDACTED\"", text(UpstreamCapture.redactBody(bytes(truncated))));
+        assertEquals("{\"access_token\":\"REDACTED\"", text(UpstreamCapture.redactBody(bytes(truncated + "\\"))));
+    }
+
+    @Test
+    void redactsTruncatedCompressedBodies() throws IOException
+    {
+        StringBuilder body = new StringBuilder("{\"items\":[");
+
+        for (int i = 0; i < 2000; i++)
+        {
+            body.append("{\"user_id\":").append(i).append(",\"access_token\":\"").append(SECRET).append(i)
+                    .append("\"},");
+        }
+
+        byte[] compressed = gzip(body.append("{}]}").toString());
+        byte[] truncated = Arrays.copyOf(compressed, compressed.length / 2);
+        byte[] redacted = UpstreamCapture.redactBody(truncated);
+        String text = gunzip(redacted);
+
+        assertFalse(Arrays.equals(truncated, redacted));
+        assertTrue(text.startsWith("{\"items\":[{\"user_id\":0,\"access_token\":\"REDACTED\"}"), text);
+        assertFalse(text.contains(SECRET), text);
+    }
+
+    @Test
+    void readsTheRecordsThatWereWritten() throws IOException
+    {
+        Path file = Files.createTempFile("capture", ".bin");
+
+        try
+        {
+            UpstreamCapture.Exchange exchange = new UpstreamCapture.Exchange(1234, UpstreamHost.API, "GET",
+                    "/2.2/me", List.of(), 200, 5, 7, 100, true, bytes("{\"items\":["));
+
+            Files.write(file, exchange.toRecord());
+
+            List<UpstreamCapture.Exchange> exchanges = UpstreamCapture.read(file);
+
+            assertEquals(1, exchanges.size());
+            assertTrue(exchanges.get(0).isTruncated());
+            assertEquals(100, exchanges.get(0).getBodySize());
+            assertEquals("{\"items\":[", text(exchanges.get(0).getBody()));
+        }
+        finally
+        {
+            Files.delete(file);
+        }
+    }
+
+    private static byte[] bytes(String text)
+    {
+        return text.getBytes(StandardCharsets.UTF_8);
+    }
+
+    private static String text(byte[] bytes)
+    {
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    private static byte[] gzip(String text) throws IOException
+    {
+        ByteArrayOutputStream result = new ByteArrayOutputStream();
+
+        try (GZIPOutputStream gzipStream = new GZIPOutputStream(result))
+        {
+            gzipStream.write(bytes(text));
+        }
+
+        return result.toByteArray();
+    }
+
+    private static String gunzip(byte[] body) throws IOException
+    {
+        try (InputStream inflated = new GZIPInputStream(new ByteArrayInputStream(body)))
+        {
+            return text(inflated.readAllBytes());
+        }
+    }
+}